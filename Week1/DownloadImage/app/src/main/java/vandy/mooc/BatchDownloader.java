@@ -0,0 +1,499 @@
+package vandy.mooc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.URLUtil;
+
+/**
+ * Downloads a batch of images concurrently, either through
+ * DownloadUtils.downloadImage() on a fixed pool of threads or, for
+ * http URLs, with a SelectorDownloadEngine that drives every
+ * download from one I/O thread and leaves only the publishing of
+ * each image to the pool.  The result of each download is streamed
+ * back to a Listener on the UI thread as soon as it completes,
+ * followed by a Summary with the aggregate throughput, failures and
+ * total wall time.
+ */
+public class BatchDownloader {
+    /**
+     * Used for debugging.
+     */
+    private final static String TAG = "BatchDownloader";
+
+    /**
+     * Default number of concurrent downloads.  Downloads are mostly
+     * waiting on the network, so more threads than cores pays off.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * How long a download by the selector engine may make no
+     * progress before it fails.
+     */
+    private static final long SELECTOR_IDLE_TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * How the images of a batch are downloaded.
+     */
+    public enum Engine {
+        /**
+         * Each download blocks a pool thread for its whole transfer.
+         */
+        THREADS,
+        /**
+         * http downloads are multiplexed on a SelectorDownloadEngine
+         * and the pool only publishes the saved images.  Other URLs,
+         * e.g., https, fall back to THREADS.
+         */
+        SELECTOR
+    }
+
+    /**
+     * Callbacks dispatched on the UI thread as the batch progresses.
+     */
+    public interface Listener {
+        /**
+         * Called when one image of the batch has been downloaded
+         * (@a imagePath is non-null) or has failed (@a imagePath is
+         * null).  @a failed of the @a completed images so far have
+         * failed.
+         */
+        void onImageCompleted(Uri url,
+                              Uri imagePath,
+                              int completed,
+                              int failed,
+                              int total);
+
+        /**
+         * Called once after every image of the batch has completed.
+         */
+        void onBatchCompleted(Summary summary);
+    }
+
+    /**
+     * Aggregate results of a completed batch.
+     */
+    public static class Summary {
+        /**
+         * Number of images in the batch.
+         */
+        public final int mTotal;
+
+        /**
+         * Number of images that could not be downloaded.
+         */
+        public final int mFailed;
+
+        /**
+         * Total size of the saved image files in bytes.
+         */
+        public final long mBytes;
+
+        /**
+         * Wall time from start() to the last completion.
+         */
+        public final long mWallTimeMs;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        Summary(int total, int failed, long bytes, long wallTimeMs) {
+            mTotal = total;
+            mFailed = failed;
+            mBytes = bytes;
+            mWallTimeMs = wallTimeMs;
+        }
+
+        /**
+         * Return the number of images downloaded per second.
+         */
+        public double getImagesPerSecond() {
+            return mWallTimeMs == 0
+                ? 0
+                : (mTotal - mFailed) * 1000.0 / mWallTimeMs;
+        }
+
+        /**
+         * Return the number of kilobytes saved per second.
+         */
+        public double getKilobytesPerSecond() {
+            return mWallTimeMs == 0
+                ? 0
+                : mBytes / 1024.0 * 1000.0 / mWallTimeMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d images in %d ms (%.1f images/s, %.1f KB/s), %d failed",
+                                 mTotal - mFailed,
+                                 mTotal,
+                                 mWallTimeMs,
+                                 getImagesPerSecond(),
+                                 getKilobytesPerSecond(),
+                                 mFailed);
+        }
+    }
+
+    /**
+     * The context in which to write the image files.
+     */
+    private final Context mContext;
+
+    /**
+     * Number of concurrent downloads, or of concurrently published
+     * images with the SELECTOR engine.
+     */
+    private final int mParallelism;
+
+    /**
+     * How the images are downloaded.
+     */
+    private final Engine mEngine;
+
+    /**
+     * Handler used to deliver results on the UI thread.
+     */
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Pool that runs the downloads of the current batch, or null if
+     * no batch is running.
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * Engine that runs the http downloads of the current batch with
+     * the SELECTOR engine, or null.
+     */
+    private SelectorDownloadEngine mSelectorEngine;
+
+    /**
+     * The current batch, or null if no batch is running.  Each batch
+     * has its own cancelled flag so a cancelled batch can't deliver
+     * results to the next one.
+     */
+    private Batch mBatch;
+
+    /**
+     * Constructor initializes the fields to download with the
+     * THREADS engine.
+     */
+    public BatchDownloader(Context context, int parallelism) {
+        this(context, parallelism, Engine.THREADS);
+    }
+
+    /**
+     * Constructor initializes the fields.
+     */
+    public BatchDownloader(Context context, int parallelism, Engine engine) {
+        mContext = context.getApplicationContext();
+        mParallelism = parallelism;
+        mEngine = engine;
+    }
+
+    /**
+     * Return how the images are downloaded.
+     */
+    public Engine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * Return true if a batch is currently running.
+     */
+    public boolean isRunning() {
+        return mExecutor != null;
+    }
+
+    /**
+     * Start downloading the given URLs concurrently.  Must be called
+     * on the UI thread, and only while no other batch is running.
+     */
+    public void start(final List<Uri> urls,
+                      final Listener listener) {
+        if (mExecutor != null)
+            throw new IllegalStateException("a batch is already running");
+
+        final int total = urls.size();
+        final Batch batch = new Batch(total, listener);
+        mBatch = batch;
+        mExecutor =
+            Executors.newFixedThreadPool(Math.max(1, Math.min(mParallelism, total)),
+                                         new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable,
+                                          "BatchDownloader-" + mCount.incrementAndGet());
+                    }
+                });
+
+        Log.i(TAG, "starting batch of " + total + " images with " + mEngine);
+        if (total == 0) {
+            finish(listener, new Summary(0, 0, 0, 0));
+            return;
+        }
+
+        if (mEngine == Engine.SELECTOR) {
+            try {
+                mSelectorEngine = new SelectorDownloadEngine(1, SELECTOR_IDLE_TIMEOUT_MS);
+            } catch (IOException e) {
+                Log.w(TAG, "unable to start the selector engine, using threads", e);
+            }
+        }
+
+        for (final Uri url : urls) {
+            if (mSelectorEngine != null && "http".equalsIgnoreCase(url.getScheme()))
+                downloadWithSelector(url, batch);
+            else
+                mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (batch.mCancelled.get())
+                                return;
+                            batch.complete(url, DownloadUtils.downloadImage(mContext, url));
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Deliver the remaining results of the current batch, if any, to
+     * @a listener instead, e.g., that of an Activity recreated by a
+     * configuration change.  Must be called on the UI thread.
+     */
+    public void setListener(Listener listener) {
+        if (mBatch != null)
+            mBatch.mListener = listener;
+    }
+
+    /**
+     * Download @a url with the selector engine and publish the image
+     * on the pool.
+     */
+    private void downloadWithSelector(final Uri url, final Batch batch) {
+        final ExecutorService executor = mExecutor;
+        final SelectorDownloadEngine.Listener onDownloaded =
+            new SelectorDownloadEngine.Listener() {
+                @Override
+                public void onDownloadCompleted(URI uri,
+                                                final File file,
+                                                long bytes,
+                                                final IOException error) {
+                    if (batch.mCancelled.get())
+                        return;
+                    if (error != null)
+                        AsyncLog.w(TAG, "download of {} failed: {}", url, error.getMessage());
+
+                    // Publishing touches the file system, so keep it
+                    // off the I/O thread.
+                    try {
+                        executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    batch.complete(url,
+                                                   error != null
+                                                   ? null
+                                                   : DownloadUtils.publishDownloadedImage
+                                                   (mContext, file, url.toString()));
+                                }
+                            });
+                    } catch (RejectedExecutionException e) {
+                        // The batch was cancelled meanwhile.
+                    }
+                }
+            };
+
+        // Submit from the pool, since the engine resolves the host
+        // name on the calling thread.
+        final SelectorDownloadEngine engine = mSelectorEngine;
+        executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (batch.mCancelled.get())
+                        return;
+                    try {
+                        engine.download(URI.create(url.toString()),
+                                        DownloadUtils.getDownloadFile(url.toString()),
+                                        onDownloaded);
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "unable to download " + url + ": " + e.getMessage());
+                        batch.complete(url, null);
+                    } catch (IllegalStateException e) {
+                        // The batch was cancelled, closing the engine.
+                    }
+                }
+            });
+    }
+
+    /**
+     * The progress of one batch, shared by the threads that complete
+     * its images.
+     */
+    private class Batch {
+        final int mTotal;
+        final long mStartTime = SystemClock.elapsedRealtime();
+        final AtomicInteger mCompleted = new AtomicInteger();
+        final AtomicInteger mFailed = new AtomicInteger();
+
+        /**
+         * Receives the results.  Only used on the UI thread, so it
+         * can be replaced by setListener().
+         */
+        Listener mListener;
+
+        /**
+         * Total size of the saved images.  Guarded by "this".
+         */
+        long mBytes;
+
+        /**
+         * Set when the batch is cancelled.
+         */
+        final AtomicBoolean mCancelled = new AtomicBoolean();
+
+        Batch(int total, Listener listener) {
+            mTotal = total;
+            mListener = listener;
+        }
+
+        /**
+         * Account for the download of @a url, which was saved at
+         * @a imagePath or failed if it's null, and stream the result
+         * back to the UI thread.
+         */
+        void complete(final Uri url, final Uri imagePath) {
+            if (imagePath == null)
+                mFailed.incrementAndGet();
+            else
+                synchronized (this) {
+                    mBytes += new File(imagePath.toString()).length();
+                }
+
+            final int failed = mFailed.get();
+            final int done = mCompleted.incrementAndGet();
+            final Summary summary;
+            if (done == mTotal) {
+                synchronized (this) {
+                    summary = new Summary(mTotal,
+                                          mFailed.get(),
+                                          mBytes,
+                                          SystemClock.elapsedRealtime() - mStartTime);
+                }
+            } else
+                summary = null;
+
+            // Stream the result back to the UI thread.
+            mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCancelled.get())
+                            return;
+                        mListener.onImageCompleted(url, imagePath, done, failed, mTotal);
+                        if (summary != null)
+                            finish(mListener, summary);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Cancel the current batch.  Downloads already under way run to
+     * completion but no more results are delivered.
+     */
+    public void cancel() {
+        if (mExecutor == null)
+            return;
+        mBatch.mCancelled.set(true);
+        mBatch = null;
+        mExecutor.shutdownNow();
+        mExecutor = null;
+        closeSelectorEngine();
+    }
+
+    /**
+     * Shut down the pool and report the summary.
+     */
+    private void finish(Listener listener, Summary summary) {
+        Log.i(TAG, "batch completed: " + summary);
+        mExecutor.shutdown();
+        mExecutor = null;
+        mBatch = null;
+        closeSelectorEngine();
+        listener.onBatchCompleted(summary);
+    }
+
+    /**
+     * Stop the selector engine of the current batch, if any, without
+     * waiting for its I/O thread.  Its downloads have completed
+     * unless the batch was cancelled.
+     */
+    private void closeSelectorEngine() {
+        if (mSelectorEngine == null)
+            return;
+        mSelectorEngine.close();
+        mSelectorEngine = null;
+    }
+
+    /**
+     * Extract the valid URLs from text containing one or more URLs
+     * separated by whitespace, e.g., a pasted list.
+     */
+    public static List<Uri> parseUrls(CharSequence text) {
+        List<Uri> urls = new ArrayList<Uri>();
+        for (String token : text.toString().split("\\s+")) {
+            if (token.length() == 0)
+                continue;
+            if (URLUtil.isValidUrl(token))
+                urls.add(Uri.parse(token));
+            else
+                Log.w(TAG, "skipping invalid URL " + token);
+        }
+        return urls;
+    }
+
+    /**
+     * Read a list of URLs from a text file, e.g., one picked by the
+     * user.  This method touches the file system and should not be
+     * called on the UI thread.
+     */
+    public static List<Uri> readUrls(Context context, Uri listFile)
+        throws IOException {
+        InputStream inputStream =
+            context.getContentResolver().openInputStream(listFile);
+        if (inputStream == null)
+            throw new IOException("unable to open " + listFile);
+
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null)
+                text.append(line).append('\n');
+            return parseUrls(text);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -109,8 +109,10 @@ public class DownloadImageActivity extends Activity {
         }
 
         protected Uri doInBackground(Uri... adressUrl) {
-            Log.i(TAG, "Background processing on URL " + adressUrl[0].toString());
-            return DownloadUtils.downloadImage(getApplicationContext(), adressUrl[0]);
+            AsyncLog.i(TAG, "Background processing on URL {}", adressUrl[0]);
+            // Reuse the speculative prefetch started by MainActivity
+            // if it was for this URL.
+            return ImagePrefetcher.claimOrDownload(getApplicationContext(), adressUrl[0]);
         }
     }
 }
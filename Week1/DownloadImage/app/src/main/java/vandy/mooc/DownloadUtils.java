@@ -1,9 +1,16 @@
 package vandy.mooc;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Locale;
 
 import android.content.ContentResolver;
@@ -16,7 +23,6 @@ import android.os.Environment;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Images;
 import android.util.Base64;
-import android.util.Log;
 
 /**
  * This helper class encapsulates several static methods that are used
@@ -46,6 +52,11 @@ public class DownloadUtils {
      * mode.
      */
     static final String OFFLINE_FILENAME = "dougs.jpg";
+
+    /**
+     * The store of the downloaded images, created on first use.
+     */
+    private static ImageStore sImageStore;
     
     /**
      * Download the image located at the provided Internet url using
@@ -62,8 +73,8 @@ public class DownloadUtils {
                                     Uri url) {
     	try {
             if (!isExternalStorageWritable()) {
-                Log.d(TAG,
-                      "external storage is not writable");
+                AsyncLog.d(TAG,
+                           "external storage is not writable");
                 return null;
             }
 
@@ -89,15 +100,29 @@ public class DownloadUtils {
                 filename = url.toString();
             }
 
-            // Create an output file and save the image into it.
-            return DownloadUtils.createDirectoryAndSaveFile
+            // Don't save the image if the download was cancelled,
+            // e.g., because a speculative prefetch was abandoned.
+            if (Thread.currentThread().isInterrupted()) {
+                inputStream.close();
+                return null;
+            }
+
+            // Create an output file and save the image into it,
+            // giving up on the transfer if the download is cancelled
+            // while the body is being read.
+            Uri imagePath = DownloadUtils.createDirectoryAndSaveFile
                 (context, 
-                 inputStream,
+                 new InterruptibleInputStream(inputStream),
                  filename);
+
+            // Generate the thumbnails for the in-app gallery in the
+            // background so they are ready by the time it's shown.
+            if (imagePath != null)
+                ThumbnailGenerator.generateAsync(context,
+                                                 imagePath.toString());
+            return imagePath;
         } catch (Exception e) {
-            Log.e(TAG, "Exception while downloading. Returning null.");
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
+            AsyncLog.e(TAG, "Exception while downloading. Returning null.", e);
             return null;
         }
     }
@@ -116,37 +141,142 @@ public class DownloadUtils {
                                                   InputStream inputStream,
                                                   String fileName) {
         // Decode the InputStream into a Bitmap image.
-        Bitmap imageToSave =
+        final Bitmap imageToSave =
             BitmapFactory.decodeStream(inputStream);
 
-        File directory =
-            new File(Environment.getExternalStoragePublicDirectory
-                     (Environment.DIRECTORY_DCIM)
-                     + "/ImageDir");
-
-        if (!directory.exists()) {
-            File newDirectory =
-                new File(directory.getAbsolutePath());
-            newDirectory.mkdirs();
+        // The download may have been cancelled while the body was
+        // read, in which case the decoder saw a truncated stream.
+        if (Thread.currentThread().isInterrupted()) {
+            closeQuietly(inputStream);
+            return null;
+        }
+        if (imageToSave == null) {
+            AsyncLog.w(TAG, "{} is not an image", fileName);
+            return null;
         }
 
-        File file = new File(directory, 
-                             getTemporaryFilename(fileName));
-        if (file.exists())
-            file.delete();
+        // Write the image to a temporary file and rename it into
+        // place, so the gallery never sees a partial image.
+        File file;
         try {
-            FileOutputStream outputStream =
-                new FileOutputStream(file);
-            imageToSave.compress(Bitmap.CompressFormat.JPEG,
-                                 100,
-                                 outputStream);
-            outputStream.flush();
-            outputStream.close();
+            file = getImageStore().save
+                (getTemporaryFilename(fileName),
+                 new ImageStore.Writer() {
+                     @Override
+                     public void writeTo(OutputStream outputStream) {
+                         imageToSave.compress(Bitmap.CompressFormat.JPEG,
+                                              100,
+                                              outputStream);
+                     }
+                 });
             inputStream.close();
         } catch (Exception e) {
-            e.printStackTrace();
+            AsyncLog.e(TAG, "Exception while saving " + fileName, e);
+            return null;
+        }
+
+        return addToGallery(context, file, fileName);
+    }
+
+    /**
+     * Close @a inputStream, ignoring any error.
+     */
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+
+    /**
+     * An InputStream that fails each read once the reading thread has
+     * been interrupted, so a cancelled download stops transferring
+     * the body rather than reading it to the end.
+     */
+    private static class InterruptibleInputStream extends FilterInputStream {
+        InterruptibleInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkInterrupted();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkInterrupted();
+            return super.read(buffer, offset, count);
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            checkInterrupted();
+            return super.skip(count);
+        }
+
+        /**
+         * Throw if the current thread has been interrupted, leaving
+         * its interrupt status set for the caller to see.
+         */
+        private static void checkInterrupted() throws InterruptedIOException {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("download cancelled");
+        }
+    }
+
+    /**
+     * Publish an image that was saved to @a file as it arrived, e.g.,
+     * by a SelectorDownloadEngine, in the same way as downloadImage()
+     * publishes the images it saves: rename it into place, add it to
+     * the Gallery and generate its thumbnails in the background.  The
+     * file is deleted if it isn't an image.  This method touches the
+     * file system and should not be called on the UI thread.
+     *
+     * @param context   the context in which the file was written.
+     * @param file      the temporary file, as returned by
+     *                  getDownloadFile().
+     * @param url       the web url the image was downloaded from.
+     *
+     * @return the absolute path to the image file, or null.
+     */
+    public static Uri publishDownloadedImage(Context context,
+                                             File file,
+                                             String url) {
+        // Only decode the bounds, to check that it's an image.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            AsyncLog.w(TAG, "{} is not an image", url);
+            file.delete();
+            return null;
+        }
+
+        File imageFile;
+        try {
+            imageFile = getImageStore().commit(file, getTemporaryFilename(url));
+        } catch (IOException e) {
+            AsyncLog.e(TAG, "Exception while saving " + url, e);
+            return null;
         }
 
+        Uri imagePath = addToGallery(context, imageFile, url);
+        ThumbnailGenerator.generateAsync(context, imagePath.toString());
+        return imagePath;
+    }
+
+    /**
+     * Provide metadata so the image in @a file, named @a fileName, is
+     * viewable in the Gallery.
+     *
+     * @return the absolute path to the image file.
+     */
+    private static Uri addToGallery(Context context,
+                                    File file,
+                                    String fileName) {
         // Get the absolute path of the image.
         String absolutePathToImage = file.getAbsolutePath();
 
@@ -172,13 +302,73 @@ public class DownloadUtils {
         cr.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
                   values);
 
-        Log.d(TAG,
-              "absolute path to image file is " 
-              + absolutePathToImage);
+        AsyncLog.d(TAG,
+                   "absolute path to image file is {}",
+                   absolutePathToImage);
             
         return Uri.parse(absolutePathToImage);
     }
 
+    /**
+     * Return a new temporary file to download the image at @a url
+     * into before publishDownloadedImage(), creating its directory if
+     * needed.
+     */
+    static File getDownloadFile(String url) {
+        return getImageStore().newTempFile(getTemporaryFilename(url));
+    }
+
+    /**
+     * Return the store of the downloaded images, which shards them
+     * over subdirectories of the image directory and syncs each one
+     * before it's renamed into place.
+     */
+    static synchronized ImageStore getImageStore() {
+        if (sImageStore == null)
+            sImageStore = new ImageStore(getImageDirectory(),
+                                         true,
+                                         ImageStore.Durability.SYNC_EACH);
+        return sImageStore;
+    }
+
+    /**
+     * Return the directory in which downloaded images are stored.
+     */
+    static File getImageDirectory() {
+        return new File(Environment.getExternalStoragePublicDirectory
+                        (Environment.DIRECTORY_DCIM)
+                        + "/ImageDir");
+    }
+
+    /**
+     * List the images that were downloaded earlier, most recently
+     * modified first.  This method touches the file system and
+     * should not be called on the UI thread.
+     *
+     * @return the absolute paths to the downloaded image files.
+     */
+    public static List<String> listDownloadedImages() {
+        List<File> files = getImageStore().listFiles();
+        if (files.isEmpty())
+            return Collections.emptyList();
+
+        Collections.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long lhsModified = lhs.lastModified();
+                    long rhsModified = rhs.lastModified();
+                    return lhsModified > rhsModified
+                        ? -1
+                        : (lhsModified == rhsModified ? 0 : 1);
+                }
+            });
+
+        List<String> paths = new ArrayList<String>(files.size());
+        for (File file : files)
+            paths.add(file.getAbsolutePath());
+        return paths;
+    }
+
     /**
      * This method checks if we can write image to external storage
      * 
@@ -204,7 +394,9 @@ public class DownloadUtils {
         // return Base64.encodeToString(url.getBytes(),
         //                              Base64.NO_WRAP)
         //                              + System.currentTimeMillis());
+        // URL_SAFE, since the standard alphabet's '/' would be taken
+        // for a directory.
         return Base64.encodeToString(url.getBytes(),
-                                     Base64.NO_WRAP);
+                                     Base64.NO_WRAP | Base64.URL_SAFE);
     }
 }
@@ -0,0 +1,280 @@
+package vandy.mooc;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * This helper class encapsulates several static methods that are used
+ * to speculatively download the image the user is typing the URL of,
+ * so the network latency is off the critical path by the time the
+ * "Download Image" button is pressed.
+ *
+ * At most one prefetch is outstanding.  It runs at background
+ * priority until it is claimed by DownloadImageActivity, at which
+ * point it is promoted to the default (interactive) priority.  A
+ * prefetch whose URL is replaced before it is claimed is cancelled.
+ */
+public class ImagePrefetcher {
+    /**
+     * Used for debugging.
+     */
+    private final static String TAG = "ImagePrefetcher";
+
+    /**
+     * Thread that runs the prefetches.  A single thread suffices
+     * since at most one prefetch is outstanding at a time.
+     */
+    private static final ExecutorService sPrefetchExecutor =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ImagePrefetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Guards sCurrent.
+     */
+    private static final Object sLock = new Object();
+
+    /**
+     * The outstanding prefetch, or null if there is none.
+     */
+    private static PrefetchTask sCurrent;
+
+    /**
+     * True while the user has opted in to prefetching, so a claim
+     * that finds nothing to take over counts as a miss.
+     */
+    private static volatile boolean sEnabled;
+
+    /**
+     * Counters used to report the prefetch hit rate.
+     */
+    private static final AtomicInteger sStarted = new AtomicInteger();
+    private static final AtomicInteger sHits = new AtomicInteger();
+    private static final AtomicInteger sLateHits = new AtomicInteger();
+    private static final AtomicInteger sMisses = new AtomicInteger();
+    private static final AtomicInteger sAbandoned = new AtomicInteger();
+
+    /**
+     * Ensure this class is only used as a utility.
+     */
+    private ImagePrefetcher() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Record whether the user has opted in to prefetching.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Start a low-priority prefetch of the given URL, cancelling any
+     * outstanding prefetch of a different URL.  Does nothing if the
+     * URL is already being prefetched.
+     */
+    public static void prefetch(Context context, Uri url) {
+        synchronized (sLock) {
+            if (sCurrent != null) {
+                if (sCurrent.mUrl.equals(url))
+                    return;
+                abandon(sCurrent);
+            }
+            sCurrent = new PrefetchTask(context.getApplicationContext(), url);
+            sStarted.incrementAndGet();
+            sPrefetchExecutor.execute(sCurrent);
+        }
+        AsyncLog.d(TAG, "prefetching {}", url);
+    }
+
+    /**
+     * Raise the outstanding prefetch to interactive priority if it is
+     * for the given URL, e.g., because the user just asked for it.
+     */
+    public static void promote(Uri url) {
+        synchronized (sLock) {
+            if (sCurrent != null && sCurrent.mUrl.equals(url))
+                sCurrent.promote();
+        }
+    }
+
+    /**
+     * Cancel the outstanding prefetch, if any.
+     */
+    public static void cancel() {
+        synchronized (sLock) {
+            if (sCurrent != null) {
+                abandon(sCurrent);
+                sCurrent = null;
+            }
+        }
+    }
+
+    /**
+     * Take over the outstanding prefetch if it is for the given URL.
+     * The prefetch is promoted to interactive priority and will no
+     * longer be cancelled by later calls to prefetch().
+     *
+     * @return the pending result of the prefetch, or null on a miss.
+     */
+    public static Future<Uri> claim(Uri url) {
+        PrefetchTask claimed = null;
+        synchronized (sLock) {
+            if (sCurrent != null && sCurrent.mUrl.equals(url)) {
+                claimed = sCurrent;
+                sCurrent = null;
+            }
+        }
+
+        if (claimed == null) {
+            // Only a claim that prefetching could have served is a
+            // miss.
+            if (!sEnabled)
+                return null;
+            sMisses.incrementAndGet();
+        } else {
+            claimed.promote();
+            if (claimed.isDone())
+                sHits.incrementAndGet();
+            else
+                sLateHits.incrementAndGet();
+        }
+        Log.i(TAG, getStats());
+        return claimed;
+    }
+
+    /**
+     * Download the image at the given URL, using the prefetched copy
+     * when there is one.  This method blocks and must not be called
+     * on the UI thread.
+     *
+     * @return the absolute path to the downloaded image file, or null.
+     */
+    public static Uri claimOrDownload(Context context, Uri url) {
+        Future<Uri> prefetched = claim(url);
+        if (prefetched != null) {
+            try {
+                Uri result = prefetched.get();
+                if (result != null)
+                    return result;
+            } catch (CancellationException e) {
+                // Fall through to a regular download.
+            } catch (Exception e) {
+                AsyncLog.w(TAG, "prefetch of {} failed", url);
+            }
+        }
+        return DownloadUtils.downloadImage(context, url);
+    }
+
+    /**
+     * Return a human-readable summary of the prefetch hit rate.
+     */
+    public static String getStats() {
+        int hits = sHits.get();
+        int lateHits = sLateHits.get();
+        int misses = sMisses.get();
+        int claims = hits + lateHits + misses;
+        int hitRate = claims == 0 ? 0 : 100 * (hits + lateHits) / claims;
+        return "prefetches=" + sStarted.get()
+            + " hits=" + hits
+            + " lateHits=" + lateHits
+            + " misses=" + misses
+            + " abandoned=" + sAbandoned.get()
+            + " hitRate=" + hitRate + "%";
+    }
+
+    /**
+     * Cancel a prefetch that is no longer wanted.
+     */
+    private static void abandon(PrefetchTask task) {
+        if (task.cancel(true)) {
+            sAbandoned.incrementAndGet();
+            AsyncLog.d(TAG, "abandoned prefetch of {}", task.mUrl);
+        }
+    }
+
+    /**
+     * A single prefetch that runs at background priority until it is
+     * promoted.
+     */
+    private static class PrefetchTask extends FutureTask<Uri> {
+        /**
+         * The URL being prefetched.
+         */
+        final Uri mUrl;
+
+        /**
+         * Linux thread id of the thread running the prefetch, or 0
+         * if it has not started.  Guarded by "this".
+         */
+        private int mTid;
+
+        /**
+         * True once the prefetch has been promoted.  Guarded by
+         * "this".
+         */
+        private boolean mPromoted;
+
+        /**
+         * Constructor initializes the super class and fields.
+         */
+        PrefetchTask(final Context context, final Uri url) {
+            super(new Callable<Uri>() {
+                    @Override
+                    public Uri call() {
+                        return DownloadUtils.downloadImage(context, url);
+                    }
+                });
+            mUrl = url;
+        }
+
+        /**
+         * Run the prefetch at background priority unless it was
+         * promoted before it started.
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                mTid = Process.myTid();
+                Process.setThreadPriority(mPromoted
+                                          ? Process.THREAD_PRIORITY_DEFAULT
+                                          : Process.THREAD_PRIORITY_BACKGROUND);
+            }
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    // Leave the pool thread at background priority
+                    // for the next prefetch.
+                    mTid = 0;
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                }
+            }
+        }
+
+        /**
+         * Raise the prefetch to interactive priority.
+         */
+        synchronized void promote() {
+            mPromoted = true;
+            if (mTid != 0)
+                Process.setThreadPriority(mTid, Process.THREAD_PRIORITY_DEFAULT);
+        }
+    }
+}
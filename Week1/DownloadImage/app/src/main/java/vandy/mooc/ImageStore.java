@@ -0,0 +1,281 @@
+package vandy.mooc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores image files under a root directory, spread over SHARDS
+ * subdirectories by a hash of their names, so no directory grows
+ * past a few hundred entries however many images accumulate.  Each
+ * file is written to a temporary file in its shard and renamed over
+ * its final name once complete, so readers never see a partial
+ * image.
+ *
+ * With SYNC_EACH durability, each writer syncs its file before the
+ * rename.  Directory entries are not synced, which Android's minimum
+ * API level doesn't allow, so a crash may lose a rename but never
+ * leaves a partial image under its final name.
+ *
+ * This class uses only java.io, so it can be benchmarked on the JVM.
+ */
+public class ImageStore {
+    /**
+     * Number of shard subdirectories.
+     */
+    public static final int SHARDS = 256;
+
+    /**
+     * Prefix of temporary files, which listFiles() skips.
+     */
+    private static final String TEMP_PREFIX = ".tmp-";
+
+    /**
+     * Temporary files older than this were left by a write that
+     * didn't finish, and listFiles() deletes them.
+     */
+    private static final long STALE_TEMP_MS = 10 * 60 * 1000;
+
+    /**
+     * How a write is made durable before it's renamed into place.
+     */
+    public enum Durability {
+        /**
+         * Not synced; the file is durable whenever the kernel writes
+         * it back, as with a plain flush() and close().
+         */
+        NONE,
+        /**
+         * Each writer syncs its own file.
+         */
+        SYNC_EACH
+    }
+
+    /**
+     * Writes the contents of a file.
+     */
+    public interface Writer {
+        /**
+         * Write the contents to @a output, which the caller closes.
+         */
+        void writeTo(OutputStream output) throws IOException;
+    }
+
+    /**
+     * The directory holding the shards, and any files stored before
+     * sharding.
+     */
+    private final File mRoot;
+
+    /**
+     * False to store every file directly in mRoot, for comparison.
+     */
+    private final boolean mSharded;
+
+    private final Durability mDurability;
+
+    /**
+     * Set for each directory newTempFile() has created: one per
+     * shard, or only mRoot if not sharded.  Saves a mkdirs() on
+     * every write.
+     */
+    private final AtomicIntegerArray mCreated;
+
+    /**
+     * Tells concurrent temporary files of the same name apart.
+     */
+    private final AtomicLong mTempCount = new AtomicLong();
+
+    /**
+     * Constructor initializes the fields.
+     */
+    public ImageStore(File root, boolean sharded, Durability durability) {
+        mRoot = root;
+        mSharded = sharded;
+        mDurability = durability;
+        mCreated = new AtomicIntegerArray(sharded ? SHARDS : 1);
+    }
+
+    /**
+     * Return the file named @a name, which may not exist.
+     */
+    public File fileFor(String name) {
+        return new File(directoryOf(shardOf(name)), name);
+    }
+
+    /**
+     * Return a new temporary file, in the directory of @a name, to
+     * write its contents into before commit().  The directory is
+     * created the first time one of its files is written.
+     */
+    public File newTempFile(String name) {
+        int shard = shardOf(name);
+        File directory = directoryOf(shard);
+        if (mCreated.get(shard) == 0) {
+            directory.mkdirs();
+            mCreated.set(shard, 1);
+        }
+        return new File(directory,
+                        TEMP_PREFIX + name + "-" + mTempCount.incrementAndGet());
+    }
+
+    /**
+     * Write the file named @a name with @a writer, replacing it if it
+     * exists, and return it.
+     */
+    public File save(String name, Writer writer) throws IOException {
+        File temp = newTempFile(name);
+        FileOutputStream output;
+        try {
+            output = new FileOutputStream(temp);
+        } catch (FileNotFoundException e) {
+            // The directory was deleted since it was created, e.g.,
+            // by the user, so create it again.
+            temp.getParentFile().mkdirs();
+            output = new FileOutputStream(temp);
+        }
+        try {
+            writer.writeTo(output);
+        } catch (IOException e) {
+            output.close();
+            temp.delete();
+            throw e;
+        }
+        return commit(new Commit(temp, fileFor(name), output, output.getFD()));
+    }
+
+    /**
+     * Rename @a temp, which was returned by newTempFile(name) and
+     * has been written, to the file named @a name, replacing it if it
+     * exists, and return it.
+     */
+    public File commit(File temp, String name) throws IOException {
+        if (mDurability == Durability.NONE)
+            return commit(new Commit(temp, fileFor(name), null, null));
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        return commit(new Commit(temp, fileFor(name), file, file.getFD()));
+    }
+
+    /**
+     * Return every file stored, including those stored before
+     * sharding, and delete stale temporary files.  This method
+     * touches the file system and should not be called on the UI
+     * thread.
+     */
+    public List<File> listFiles() {
+        List<File> files = new ArrayList<File>();
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MS;
+        File[] entries = mRoot.listFiles();
+        if (entries == null)
+            return files;
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                File[] shardFiles = entry.listFiles();
+                if (shardFiles != null)
+                    for (File file : shardFiles)
+                        addIfStored(files, file, staleBefore);
+            } else
+                addIfStored(files, entry, staleBefore);
+        }
+        return files;
+    }
+
+    /**
+     * Return the shard of the file named @a name, which is always 0
+     * if the store isn't sharded.
+     */
+    private int shardOf(String name) {
+        if (name.length() == 0 || name.indexOf(File.separatorChar) >= 0)
+            throw new IllegalArgumentException("bad file name: " + name);
+        if (!mSharded)
+            return 0;
+        // Mix the hash so the shard depends on every character.
+        int hash = name.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return hash & (SHARDS - 1);
+    }
+
+    /**
+     * Return the directory of @a shard.
+     */
+    private File directoryOf(int shard) {
+        if (!mSharded)
+            return mRoot;
+        // Two hex digits, from the three of SHARDS | shard.
+        return new File(mRoot, Integer.toHexString(SHARDS | shard).substring(1));
+    }
+
+    /**
+     * Add @a file to @a files unless it's a temporary file, which is
+     * deleted if it was last modified before @a staleBefore.
+     */
+    private static void addIfStored(List<File> files, File file, long staleBefore) {
+        if (!file.getName().startsWith(TEMP_PREFIX))
+            files.add(file);
+        else if (file.lastModified() < staleBefore)
+            file.delete();
+    }
+
+    /**
+     * A written temporary file waiting to be synced and renamed.
+     */
+    private static class Commit {
+        final File mTemp;
+        final File mTarget;
+
+        /**
+         * The open file and its descriptor, or null if it needn't be
+         * synced.
+         */
+        final Closeable mFile;
+        final FileDescriptor mDescriptor;
+
+        Commit(File temp, File target, Closeable file, FileDescriptor descriptor) {
+            mTemp = temp;
+            mTarget = target;
+            mFile = file;
+            mDescriptor = descriptor;
+        }
+
+        /**
+         * Sync the file if requested, close it, and rename it into
+         * place, deleting it if any of that fails.
+         */
+        void complete(boolean sync) throws IOException {
+            try {
+                try {
+                    if (sync)
+                        mDescriptor.sync();
+                } finally {
+                    if (mFile != null)
+                        mFile.close();
+                }
+                if (!mTemp.renameTo(mTarget))
+                    throw new IOException("unable to rename " + mTemp + " to " + mTarget);
+            } catch (IOException e) {
+                mTemp.delete();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Complete @a commit according to the durability and return its
+     * target.
+     */
+    private File commit(Commit commit) throws IOException {
+        commit.complete(mDurability == Durability.SYNC_EACH);
+        return commit.mTarget;
+    }
+}
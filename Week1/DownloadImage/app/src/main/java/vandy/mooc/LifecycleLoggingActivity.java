@@ -6,7 +6,8 @@ import android.util.Log;
 
 /**
  * This abstract class extends the Activity class and overrides
- * lifecycle callbacks for logging various lifecycle events.
+ * lifecycle callbacks for logging various lifecycle events.  Each
+ * callback is also timestamped in LifecycleTimings.
  */
 public abstract class LifecycleLoggingActivity extends Activity {
     /**
@@ -14,6 +15,16 @@ public abstract class LifecycleLoggingActivity extends Activity {
      */
     private final String TAG = getClass().getSimpleName();
 
+    /**
+     * Ids used to record this activity's lifecycle callbacks in
+     * LifecycleTimings.  They are assigned here rather than in a
+     * callback so that recording never allocates.
+     */
+    private final int mTimingsClassId =
+        LifecycleTimings.registerClass(getClass());
+    private final int mTimingsInstanceId =
+        LifecycleTimings.newInstanceId();
+
     /**
      * Hook method called when a new instance of Activity is created.
      * One time initialization code should go here e.g. UI layout,
@@ -28,6 +39,7 @@ public abstract class LifecycleLoggingActivity extends Activity {
         // Always call super class for necessary
         // initialization/implementation.
         super.onCreate(savedInstanceState);
+        recordTiming(LifecycleTimings.Event.CREATE);
         Log.i(TAG, "onCreate()");
 		
         if(savedInstanceState != null) {
@@ -58,6 +70,7 @@ public abstract class LifecycleLoggingActivity extends Activity {
         // Always call super class for necessary
         // initialization/implementation.
         super.onStart();
+        recordTiming(LifecycleTimings.Event.START);
         Log.i(TAG, "onStart()");
     }
 	
@@ -76,6 +89,7 @@ public abstract class LifecycleLoggingActivity extends Activity {
         // initialization/implementation and then log which lifecycle
         // hook method is being called.
         super.onResume();
+        recordTiming(LifecycleTimings.Event.RESUME);
         Log.i(TAG, "onResume()");
     }
 	
@@ -93,6 +107,7 @@ public abstract class LifecycleLoggingActivity extends Activity {
         // initialization/implementation and then log which lifecycle
         // hook method is being called.
         super.onPause();
+        recordTiming(LifecycleTimings.Event.PAUSE);
         Log.i(TAG, "onPause()");
     }
 	
@@ -107,6 +122,7 @@ public abstract class LifecycleLoggingActivity extends Activity {
         // initialization/implementation and then log which lifecycle
         // hook method is being called.
         super.onStop();
+        recordTiming(LifecycleTimings.Event.STOP);
         Log.i(TAG, "onStop()");
     }
 	
@@ -120,6 +136,7 @@ public abstract class LifecycleLoggingActivity extends Activity {
         // initialization/implementation and then log which lifecycle
         // hook method is being called.
         super.onRestart();
+        recordTiming(LifecycleTimings.Event.RESTART);
         Log.i(TAG, "onRestart()");
     }
 	
@@ -134,6 +151,21 @@ public abstract class LifecycleLoggingActivity extends Activity {
         // initialization/implementation and then log which lifecycle
         // hook method is being called.
         super.onDestroy();
+        recordTiming(LifecycleTimings.Event.DESTROY);
         Log.i(TAG, "onDestroy()");
+
+        // Write the lifecycle timings once the app's root activity
+        // goes away for good.
+        if (isFinishing() && isTaskRoot())
+            LifecycleTimings.dumpOnce();
+    }
+
+    /**
+     * Timestamp a lifecycle callback of this activity.
+     */
+    private void recordTiming(LifecycleTimings.Event event) {
+        LifecycleTimings.record(mTimingsClassId,
+                                mTimingsInstanceId,
+                                event);
     }
 }
@@ -0,0 +1,363 @@
+package vandy.mooc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Records every lifecycle callback of a LifecycleLoggingActivity with
+ * a monotonic timestamp into a preallocated ring buffer, and derives
+ * per-activity startup and transition latency distributions from it.
+ *
+ * Recording an event only writes primitives into arrays that are
+ * allocated once, so it doesn't allocate on the lifecycle hot path.
+ * All the analysis work happens in snapshot() and dumpOnce().
+ */
+public final class LifecycleTimings {
+    /**
+     * Debugging tag used by the Android logger.
+     */
+    private static final String TAG = "LifecycleTimings";
+
+    /**
+     * The lifecycle callbacks that are recorded.
+     */
+    public enum Event {
+        CREATE, START, RESUME, PAUSE, STOP, RESTART, DESTROY
+    }
+
+    /**
+     * Number of events kept in the ring buffer.  Must be a power of
+     * two.  Older events are overwritten.
+     */
+    private static final int CAPACITY = 1024;
+
+    /**
+     * Mask that maps an event sequence number to a ring slot.
+     */
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * Approximation of the process start time: the time this class
+     * was loaded, which happens when the first activity is created.
+     */
+    private static final long sProcessStartNanos =
+        SystemClock.elapsedRealtimeNanos();
+
+    /**
+     * The preallocated ring buffer, one array per event attribute.
+     * Guarded by sLock.
+     */
+    private static final long[] sTimestamps = new long[CAPACITY];
+    private static final byte[] sEvents = new byte[CAPACITY];
+    private static final int[] sInstanceIds = new int[CAPACITY];
+    private static final int[] sClassIds = new int[CAPACITY];
+
+    /**
+     * Sequence number of the next event to record.  Guarded by sLock.
+     */
+    private static long sNext;
+
+    /**
+     * Guards the ring buffer.  Lifecycle callbacks all run on the UI
+     * thread, so the lock is normally uncontended.
+     */
+    private static final Object sLock = new Object();
+
+    /**
+     * Names of the registered activity classes, indexed by class id.
+     * Guarded by itself.
+     */
+    private static final List<String> sClassNames = new ArrayList<String>();
+
+    /**
+     * Source of unique activity instance ids.
+     */
+    private static final AtomicInteger sInstanceCount = new AtomicInteger();
+
+    /**
+     * Ensures the dump is only written once.
+     */
+    private static final AtomicBoolean sDumped = new AtomicBoolean();
+
+    /**
+     * Ensure this class is only used as a utility.
+     */
+    private LifecycleTimings() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Return the id of the given activity class, registering it on
+     * first use.  Called once per activity instance, outside the
+     * lifecycle callbacks.
+     */
+    static int registerClass(Class<?> activityClass) {
+        String name = activityClass.getSimpleName();
+        synchronized (sClassNames) {
+            int classId = sClassNames.indexOf(name);
+            if (classId < 0) {
+                classId = sClassNames.size();
+                sClassNames.add(name);
+            }
+            return classId;
+        }
+    }
+
+    /**
+     * Return a new unique activity instance id.
+     */
+    static int newInstanceId() {
+        return sInstanceCount.incrementAndGet();
+    }
+
+    /**
+     * Record a lifecycle callback.  Doesn't allocate.
+     */
+    static void record(int classId, int instanceId, Event event) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (sLock) {
+            int slot = (int) (sNext & MASK);
+            sTimestamps[slot] = now;
+            sEvents[slot] = (byte) event.ordinal();
+            sInstanceIds[slot] = instanceId;
+            sClassIds[slot] = classId;
+            sNext++;
+        }
+    }
+
+    /**
+     * A distribution of latencies in nanoseconds.
+     */
+    public static class Distribution {
+        /**
+         * The sorted samples.
+         */
+        private long[] mSamples = new long[8];
+
+        /**
+         * Number of samples.
+         */
+        private int mCount;
+
+        /**
+         * Add a sample.
+         */
+        void add(long nanos) {
+            if (mCount == mSamples.length)
+                mSamples = Arrays.copyOf(mSamples, mCount * 2);
+            mSamples[mCount++] = nanos;
+        }
+
+        /**
+         * Sort the samples once they have all been added.
+         */
+        void seal() {
+            Arrays.sort(mSamples, 0, mCount);
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Return the given percentile (0-100) in milliseconds, or 0
+         * if there are no samples.
+         */
+        public double getPercentileMs(double percentile) {
+            if (mCount == 0)
+                return 0;
+            int index = (int) Math.ceil(percentile / 100.0 * mCount) - 1;
+            return mSamples[Math.max(0, Math.min(mCount - 1, index))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            if (mCount == 0)
+                return "n=0";
+            return String.format("n=%d min=%.1fms p50=%.1fms p90=%.1fms max=%.1fms",
+                                 mCount,
+                                 getPercentileMs(0),
+                                 getPercentileMs(50),
+                                 getPercentileMs(90),
+                                 getPercentileMs(100));
+        }
+    }
+
+    /**
+     * The latency distributions of one activity class.
+     */
+    public static class ActivityTimings {
+        /**
+         * onCreate() to the following onResume().
+         */
+        public final Distribution mStartup = new Distribution();
+
+        /**
+         * onRestart() to the following onResume().
+         */
+        public final Distribution mRestart = new Distribution();
+
+        /**
+         * onPause() to the following onResume() or onStop().
+         */
+        public final Distribution mPaused = new Distribution();
+
+        /**
+         * onStop() to the following onRestart() or onDestroy().
+         */
+        public final Distribution mStopped = new Distribution();
+
+        void seal() {
+            mStartup.seal();
+            mRestart.seal();
+            mPaused.seal();
+            mStopped.seal();
+        }
+
+        @Override
+        public String toString() {
+            return "startup{" + mStartup + "} restart{" + mRestart
+                + "} paused{" + mPaused + "} stopped{" + mStopped + "}";
+        }
+    }
+
+    /**
+     * Return the time from process start to the first onResume() in
+     * milliseconds, or -1 if no activity has resumed yet or the
+     * event was overwritten.
+     */
+    public static double getColdStartMs() {
+        synchronized (sLock) {
+            if (sNext > CAPACITY)
+                return -1;
+            for (int i = 0; i < sNext; i++)
+                if (sEvents[i] == Event.RESUME.ordinal())
+                    return (sTimestamps[i] - sProcessStartNanos) / 1e6;
+        }
+        return -1;
+    }
+
+    /**
+     * Compute the latency distributions of every activity class from
+     * the events currently in the ring buffer.
+     *
+     * @return the distributions keyed by activity class name.
+     */
+    public static Map<String, ActivityTimings> snapshot() {
+        // Copy the ring buffer in event order so the analysis runs
+        // without holding the lock.
+        int count;
+        long[] timestamps;
+        byte[] events;
+        int[] instanceIds;
+        int[] classIds;
+        synchronized (sLock) {
+            count = (int) Math.min(sNext, CAPACITY);
+            timestamps = new long[count];
+            events = new byte[count];
+            instanceIds = new int[count];
+            classIds = new int[count];
+            long first = sNext - count;
+            for (int i = 0; i < count; i++) {
+                int slot = (int) ((first + i) & MASK);
+                timestamps[i] = sTimestamps[slot];
+                events[i] = sEvents[slot];
+                instanceIds[i] = sInstanceIds[slot];
+                classIds[i] = sClassIds[slot];
+            }
+        }
+
+        // The last event seen for each activity instance, used to
+        // pair it with the event that ends the interval it starts.
+        Map<Integer, Integer> lastEventIndex = new LinkedHashMap<Integer, Integer>();
+        Map<String, ActivityTimings> result = new LinkedHashMap<String, ActivityTimings>();
+        Event[] values = Event.values();
+
+        for (int i = 0; i < count; i++) {
+            String className;
+            synchronized (sClassNames) {
+                className = sClassNames.get(classIds[i]);
+            }
+            ActivityTimings timings = result.get(className);
+            if (timings == null) {
+                timings = new ActivityTimings();
+                result.put(className, timings);
+            }
+
+            Event event = values[events[i]];
+            Integer previous = lastEventIndex.put(instanceIds[i], i);
+            if (previous == null)
+                continue;
+            Event previousEvent = values[events[previous]];
+            long elapsed = timestamps[i] - timestamps[previous];
+
+            switch (event) {
+            case RESUME:
+                // onStart() sits between onCreate()/onRestart() and
+                // onResume(), so look one event further back.
+                if (previousEvent == Event.PAUSE)
+                    timings.mPaused.add(elapsed);
+                else if (previousEvent == Event.START)
+                    addStartup(timings, timestamps, events, instanceIds, previous, timestamps[i]);
+                break;
+            case STOP:
+                if (previousEvent == Event.PAUSE)
+                    timings.mPaused.add(elapsed);
+                break;
+            case RESTART:
+            case DESTROY:
+                if (previousEvent == Event.STOP)
+                    timings.mStopped.add(elapsed);
+                break;
+            default:
+                break;
+            }
+        }
+
+        for (ActivityTimings timings : result.values())
+            timings.seal();
+        return result;
+    }
+
+    /**
+     * Find the onCreate() or onRestart() that precedes the onStart()
+     * at index @a startIndex and record the latency to onResume().
+     */
+    private static void addStartup(ActivityTimings timings,
+                                   long[] timestamps,
+                                   byte[] events,
+                                   int[] instanceIds,
+                                   int startIndex,
+                                   long resumeNanos) {
+        for (int i = startIndex - 1; i >= 0; i--) {
+            if (instanceIds[i] != instanceIds[startIndex])
+                continue;
+            if (events[i] == Event.CREATE.ordinal())
+                timings.mStartup.add(resumeNanos - timestamps[i]);
+            else if (events[i] == Event.RESTART.ordinal())
+                timings.mRestart.add(resumeNanos - timestamps[i]);
+            return;
+        }
+    }
+
+    /**
+     * Write the cold-start time and every distribution to the log,
+     * but only the first time this method is called.
+     */
+    public static void dumpOnce() {
+        if (!sDumped.compareAndSet(false, true))
+            return;
+
+        Log.i(TAG, "cold start: " + getColdStartMs() + "ms");
+        for (Map.Entry<String, ActivityTimings> entry : snapshot().entrySet())
+            Log.i(TAG, entry.getKey() + ": " + entry.getValue());
+    }
+}
@@ -7,17 +7,26 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 import android.webkit.URLUtil;
+import android.widget.AdapterView;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
+import android.widget.GridView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * A main Activity that prompts the user for a URL to an image and
@@ -36,6 +45,24 @@ public class MainActivity extends LifecycleLoggingActivity {
      */
     private static final int DOWNLOAD_IMAGE_REQUEST = 1;
 
+    /**
+     * A value that uniquely identifies the request to pick a text
+     * file containing a list of URLs to download.
+     */
+    private static final int IMPORT_URL_LIST_REQUEST = 2;
+
+    /**
+     * Key used to keep the gallery contents across configuration
+     * changes.
+     */
+    private static final String IMAGE_PATHS_KEY = "imagePaths";
+
+    /**
+     * How long (in milliseconds) the URL must stay unchanged before
+     * it is speculatively prefetched.
+     */
+    private static final long PREFETCH_DEBOUNCE_MS = 500;
+
     /**
      * EditText field for entering the desired URL to an image.
      */
@@ -48,6 +75,50 @@ public class MainActivity extends LifecycleLoggingActivity {
     private Uri mDefaultUrl =
         Uri.parse("http://www.dre.vanderbilt.edu/~schmidt/robot.png");
 
+    /**
+     * Adapter for the grid that previews the downloaded images.
+     */
+    private ThumbnailAdapter mThumbnailAdapter;
+
+    /**
+     * CheckBox that opts in to speculatively prefetching the URL
+     * while the user types it.
+     */
+    private CheckBox mPrefetchCheckBox;
+
+    /**
+     * Handler used to debounce prefetches on the UI thread.
+     */
+    private final Handler mPrefetchHandler = new Handler();
+
+    /**
+     * Downloads batches of images concurrently.
+     */
+    private BatchDownloader mBatchDownloader;
+
+    /**
+     * CheckBox that selects the SELECTOR engine for batch downloads.
+     */
+    private CheckBox mSelectorEngineCheckBox;
+
+    /**
+     * TextView that reports the progress of a batch download.
+     */
+    private TextView mBatchStatusView;
+
+    /**
+     * Runnable that starts a prefetch of the URL currently entered,
+     * posted once the text has been stable for PREFETCH_DEBOUNCE_MS.
+     */
+    private final Runnable mPrefetchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Uri url = peekUrl();
+            if (url != null)
+                ImagePrefetcher.prefetch(MainActivity.this, url);
+        }
+    };
+
     /**
      * Hook method called when a new instance of Activity is created.
      * One time initialization code goes here, e.g., UI layout and
@@ -71,6 +142,85 @@ public class MainActivity extends LifecycleLoggingActivity {
         // Cache the EditText that holds the urls entered by the user
         // (if any).
         mUrlEditText = (EditText)findViewById(R.id.url);
+
+        // Speculatively prefetch the URL once the user stops typing,
+        // if they opted in.
+        mPrefetchCheckBox = (CheckBox)findViewById(R.id.prefetch);
+        mPrefetchCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                ImagePrefetcher.setEnabled(isChecked);
+                if (isChecked)
+                    schedulePrefetch();
+                else {
+                    mPrefetchHandler.removeCallbacks(mPrefetchRunnable);
+                    ImagePrefetcher.cancel();
+                }
+            }
+        });
+        ImagePrefetcher.setEnabled(mPrefetchCheckBox.isChecked());
+        mUrlEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (mPrefetchCheckBox.isChecked())
+                    schedulePrefetch();
+            }
+        });
+
+        // Set up batch downloads of many URLs at once, taking over
+        // the batch of the instance destroyed by a configuration
+        // change, if any.
+        mBatchStatusView = (TextView)findViewById(R.id.batch_status);
+        mSelectorEngineCheckBox = (CheckBox)findViewById(R.id.selector_engine);
+        mBatchDownloader = (BatchDownloader) getLastNonConfigurationInstance();
+        if (mBatchDownloader == null)
+            mBatchDownloader =
+                new BatchDownloader(this, BatchDownloader.DEFAULT_PARALLELISM);
+        else if (mBatchDownloader.isRunning()) {
+            mBatchDownloader.setListener(mBatchListener);
+            mBatchStatusView.setVisibility(View.VISIBLE);
+            mBatchStatusView.setText("Downloading images...");
+        }
+
+        // Set up the in-app gallery.  Tapping a thumbnail opens the
+        // full image in the Gallery app.
+        mThumbnailAdapter = new ThumbnailAdapter(this);
+        GridView thumbnailGrid = (GridView)findViewById(R.id.thumbnail_grid);
+        thumbnailGrid.setAdapter(mThumbnailAdapter);
+        thumbnailGrid.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                viewImage(mThumbnailAdapter.getItem(position));
+            }
+        });
+
+        if (savedInstanceState != null
+            && savedInstanceState.getStringArrayList(IMAGE_PATHS_KEY) != null) {
+            // Restore the gallery without touching the file system.
+            mThumbnailAdapter.addAll(savedInstanceState.getStringArrayList(IMAGE_PATHS_KEY));
+        } else {
+            // List the images downloaded earlier in the background.
+            new ListDownloadedImagesTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Hook method called to save the gallery contents before the
+     * Activity may be destroyed.
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putStringArrayList(IMAGE_PATHS_KEY,
+                                    mThumbnailAdapter.getImagePaths());
     }
 
     /**
@@ -94,6 +244,11 @@ public class MainActivity extends LifecycleLoggingActivity {
             Intent downloadIntent = null;
 
             if (downloadLocationUrl != null) {
+                // The user is now waiting for this URL, so a pending
+                // prefetch of it must no longer run at low priority.
+                mPrefetchHandler.removeCallbacks(mPrefetchRunnable);
+                ImagePrefetcher.promote(downloadLocationUrl);
+
                 // Create the intent to implicitly start the activity for result
                 // The activity that will be started is configured in AndroidManifest.xml
                 downloadIntent = makeDownloadImageIntent(downloadLocationUrl);
@@ -113,6 +268,44 @@ public class MainActivity extends LifecycleLoggingActivity {
         }
     }
 
+    /**
+     * Called by the Android Activity framework when the user clicks
+     * the "Download All" button.  Every whitespace-separated URL in
+     * the EditText is downloaded concurrently.
+     *
+     * @param view The view.
+     */
+    public void downloadAllImages(View view) {
+        hideKeyboard(this,
+                     mUrlEditText.getWindowToken());
+
+        List<Uri> urls = BatchDownloader.parseUrls(mUrlEditText.getText());
+        if (urls.isEmpty())
+            Toast.makeText(this,
+                           "Invalid URL",
+                           Toast.LENGTH_SHORT).show();
+        else
+            startBatch(urls);
+    }
+
+    /**
+     * Called by the Android Activity framework when the user clicks
+     * the "Import URL List" button.  Lets the user pick a text file
+     * of URLs, which are then all downloaded concurrently.
+     *
+     * @param view The view.
+     */
+    public void importUrlList(View view) {
+        Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+        pickIntent.setType("text/plain");
+        pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+        try {
+            startActivityForResult(pickIntent, IMPORT_URL_LIST_REQUEST);
+        } catch (ActivityNotFoundException e) {
+            Log.i(TAG, "No activity started due to ActivityNotFoundException");
+        }
+    }
+
     /**
      * Hook method called back by the Android Activity framework when
      * an Activity that's been launched exits, giving the requestCode
@@ -130,26 +323,24 @@ public class MainActivity extends LifecycleLoggingActivity {
         if (resultCode == RESULT_OK) {
             // right code.
             if (requestCode == DOWNLOAD_IMAGE_REQUEST) {
-                // Call the makeGalleryIntent() factory method to
-                // create an Intent that will launch the "Gallery" app
-                // by passing in the path to the downloaded image
-                // file.
+                // Add the downloaded image to the in-app gallery.
+                // Its thumbnails are already being generated in the
+                // background.
                 String imagePath = data.getStringExtra("image");
                 if (imagePath != null) {
 
                     Log.i(TAG, "File downloaded at " + imagePath);
 
-                    try {
-                        Intent viewBitmapIntent = makeGalleryIntent(data.getStringExtra("image"));
-
-                        // Start the Gallery Activity.
-                        startActivity(viewBitmapIntent);
-                    }
-                    catch (ActivityNotFoundException e) {
-                        Log.i(TAG, "No activity started due to ActivityNotFoundException");
-                    }
+                    mThumbnailAdapter.add(imagePath);
                 }
             }
+            else if (requestCode == IMPORT_URL_LIST_REQUEST
+                     && data != null
+                     && data.getData() != null) {
+                // Read the list off the UI thread, then download it.
+                new ReadUrlListTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                                                        data.getData());
+            }
         }
         // Check if the started Activity did not complete successfully
         // and inform the user a problem occurred when trying to
@@ -162,6 +353,148 @@ public class MainActivity extends LifecycleLoggingActivity {
         }
     }    
 
+    /**
+     * Launch the "Gallery" app to view the image at the given path.
+     */
+    private void viewImage(String pathToImageFile) {
+        try {
+            // Call the makeGalleryIntent() factory method to create
+            // an Intent that will launch the "Gallery" app by passing
+            // in the path to the downloaded image file.
+            Intent viewBitmapIntent = makeGalleryIntent(pathToImageFile);
+
+            // Start the Gallery Activity.
+            startActivity(viewBitmapIntent);
+        }
+        catch (ActivityNotFoundException e) {
+            Log.i(TAG, "No activity started due to ActivityNotFoundException");
+        }
+    }
+
+    /**
+     * Hook method that hands the batch download, if any, over to the
+     * instance that replaces this one after a configuration change.
+     */
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        return mBatchDownloader;
+    }
+
+    /**
+     * Hook method that cancels a prefetch and a batch download the
+     * user can no longer claim.  Neither is cancelled by a
+     * configuration change, e.g., a rotation.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPrefetchHandler.removeCallbacks(mPrefetchRunnable);
+        if (isFinishing()) {
+            mBatchDownloader.cancel();
+            ImagePrefetcher.cancel();
+            Log.i(TAG, ImagePrefetcher.getStats());
+        }
+    }
+
+    /**
+     * Download the given URLs concurrently, adding each image to the
+     * gallery as soon as it is saved.
+     */
+    private void startBatch(List<Uri> urls) {
+        if (mBatchDownloader.isRunning()) {
+            Toast.makeText(this,
+                           "A batch download is already running",
+                           Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Switch engines between batches if the user asked to.
+        BatchDownloader.Engine engine = mSelectorEngineCheckBox.isChecked()
+            ? BatchDownloader.Engine.SELECTOR
+            : BatchDownloader.Engine.THREADS;
+        if (mBatchDownloader.getEngine() != engine)
+            mBatchDownloader =
+                new BatchDownloader(this, BatchDownloader.DEFAULT_PARALLELISM, engine);
+
+        mBatchStatusView.setVisibility(View.VISIBLE);
+        mBatchStatusView.setText("Downloading " + urls.size() + " images...");
+        mBatchDownloader.start(urls, mBatchListener);
+    }
+
+    /**
+     * Adds each image of a batch download to the gallery as soon as
+     * it is saved and reports the progress.
+     */
+    private final BatchDownloader.Listener mBatchListener =
+        new BatchDownloader.Listener() {
+            @Override
+            public void onImageCompleted(Uri url,
+                                         Uri imagePath,
+                                         int completed,
+                                         int failed,
+                                         int total) {
+                if (imagePath != null)
+                    mThumbnailAdapter.add(imagePath.toString());
+                mBatchStatusView.setText(completed + "/" + total + " done, "
+                                         + failed + " failed");
+            }
+
+            @Override
+            public void onBatchCompleted(BatchDownloader.Summary summary) {
+                mBatchStatusView.setText(summary.toString());
+            }
+        };
+
+    /**
+     * Reads a picked list of URLs in the background and starts a
+     * batch download of them.
+     */
+    private class ReadUrlListTask extends AsyncTask<Uri, Void, List<Uri>> {
+        // Inherited
+        protected List<Uri> doInBackground(Uri... listFile) {
+            try {
+                return BatchDownloader.readUrls(MainActivity.this, listFile[0]);
+            } catch (Exception e) {
+                Log.e(TAG, "unable to read URL list " + listFile[0]);
+                return null;
+            }
+        }
+
+        // Inherited
+        protected void onPostExecute(List<Uri> urls) {
+            if (urls == null || urls.isEmpty())
+                Toast.makeText(MainActivity.this,
+                               "No valid URLs in the list",
+                               Toast.LENGTH_SHORT).show();
+            else
+                startBatch(urls);
+        }
+    }
+
+    /**
+     * (Re)start the debounce timer for a speculative prefetch.
+     */
+    private void schedulePrefetch() {
+        mPrefetchHandler.removeCallbacks(mPrefetchRunnable);
+        mPrefetchHandler.postDelayed(mPrefetchRunnable, PREFETCH_DEBOUNCE_MS);
+    }
+
+    /**
+     * Lists the images downloaded by earlier runs in the background
+     * and adds them to the gallery.
+     */
+    private class ListDownloadedImagesTask extends AsyncTask<Void, Void, List<String>> {
+        // Inherited
+        protected List<String> doInBackground(Void... params) {
+            return DownloadUtils.listDownloadedImages();
+        }
+
+        // Inherited
+        protected void onPostExecute(List<String> imagePaths) {
+            mThumbnailAdapter.addAll(imagePaths);
+        }
+    }
+
     /**
      * Factory method that returns an Intent for viewing the
      * downloaded image in the Gallery app.
@@ -216,6 +549,16 @@ public class MainActivity extends LifecycleLoggingActivity {
         } 
     }
 
+    /**
+     * Return the URL the user has entered (or the default URL) if it
+     * is valid, without notifying the user otherwise.
+     */
+    private Uri peekUrl() {
+        String text = mUrlEditText.getText().toString();
+        Uri url = text.equals("") ? mDefaultUrl : Uri.parse(text);
+        return URLUtil.isValidUrl(url.toString()) ? url : null;
+    }
+
     /**
      * This method is used to hide a keyboard after a user has
      * finished typing the url.
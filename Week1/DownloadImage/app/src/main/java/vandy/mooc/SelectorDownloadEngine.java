@@ -0,0 +1,580 @@
+package vandy.mooc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads many files concurrently over HTTP/1.1 on one or a few
+ * I/O threads, instead of a thread per download as
+ * DownloadUtils.downloadImage() does.  Each I/O thread multiplexes
+ * its connections with a Selector, so a slow server costs a socket
+ * and a few hundred bytes of state rather than a blocked thread.
+ * Response bodies are read into a direct buffer shared by the
+ * connections of an I/O thread and written straight into a
+ * FileChannel, without decoding the image.
+ *
+ * Only plain http URLs are supported, one request per connection
+ * (Connection: close), with a Content-Length, chunked or
+ * close-delimited body.  Any status other than 200 fails the
+ * download; redirects are not followed.
+ *
+ * This class uses only java.nio, so it can be tested on the JVM
+ * against a loopback server.
+ */
+public class SelectorDownloadEngine implements Closeable {
+    /**
+     * Callback that reports the result of a download.  It is called
+     * on an I/O thread, so it must return quickly and hand any
+     * further work, e.g., decoding the image, to another thread.
+     */
+    public interface Listener {
+        /**
+         * Called when @a url has been saved to @a file, which is
+         * @a bytes long, or has failed with @a error, in which case
+         * @a file has been deleted.
+         */
+        void onDownloadCompleted(URI url, File file, long bytes, IOException error);
+    }
+
+    /**
+     * Size of the buffer each I/O thread reads into.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Longest status, header or chunk-size line accepted.
+     */
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /**
+     * How often the I/O threads check for idle connections.
+     */
+    private static final long TIMEOUT_CHECK_MS = 100;
+
+    /**
+     * Encoding of the request and response headers.
+     */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * How long a connection may go without any progress before its
+     * download fails.
+     */
+    private final long mIdleTimeoutNanos;
+
+    /**
+     * The I/O threads.
+     */
+    private final IoThread[] mIoThreads;
+
+    /**
+     * Picks the I/O thread of the next download, round-robin.
+     */
+    private final AtomicInteger mNextIoThread = new AtomicInteger();
+
+    /**
+     * Number of downloads submitted and not yet completed.
+     */
+    private final AtomicInteger mActive = new AtomicInteger();
+
+    /**
+     * Set once close() has been called.
+     */
+    private volatile boolean mClosed;
+
+    /**
+     * Constructor starts @a ioThreads I/O threads, which fail a
+     * download after @a idleTimeoutMs without progress.
+     */
+    public SelectorDownloadEngine(int ioThreads, long idleTimeoutMs) throws IOException {
+        if (ioThreads <= 0)
+            throw new IllegalArgumentException("no I/O threads");
+        mIdleTimeoutNanos = idleTimeoutMs * 1000000L;
+        mIoThreads = new IoThread[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            mIoThreads[i] = new IoThread("SelectorDownloadEngine-" + (i + 1));
+            mIoThreads[i].start();
+        }
+    }
+
+    /**
+     * Download @a url into @a file, replacing it, and report the
+     * result to @a listener.  The host name is resolved on the
+     * calling thread.
+     *
+     * @throws IllegalArgumentException if @a url isn't an http URL.
+     * @throws IllegalStateException if the engine is closed.
+     */
+    public void download(URI url, File file, Listener listener) {
+        if (!"http".equalsIgnoreCase(url.getScheme()) || url.getHost() == null)
+            throw new IllegalArgumentException("not an http URL: " + url);
+        if (mClosed)
+            throw new IllegalStateException("engine is closed");
+
+        Download download = new Download(url, file, listener);
+        mActive.incrementAndGet();
+        IoThread ioThread = mIoThreads[(mNextIoThread.getAndIncrement() & Integer.MAX_VALUE)
+                                       % mIoThreads.length];
+        ioThread.mSubmitted.add(download);
+
+        // If the engine was closed meanwhile, the I/O thread may
+        // already have failed the downloads it had been submitted,
+        // and would never see this one.  Take it back unless the
+        // I/O thread got to it first.
+        if (mClosed && ioThread.mSubmitted.remove(download)) {
+            mActive.decrementAndGet();
+            throw new IllegalStateException("engine is closed");
+        }
+        ioThread.mSelector.wakeup();
+    }
+
+    /**
+     * Return the number of downloads submitted and not yet completed.
+     */
+    public int getActiveDownloads() {
+        return mActive.get();
+    }
+
+    /**
+     * Stop the I/O threads, which fail the downloads still under way
+     * as they exit.  Never blocks, so it can be called from the UI
+     * thread; call awaitTermination() to wait for the threads.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        for (IoThread ioThread : mIoThreads)
+            ioThread.mSelector.wakeup();
+    }
+
+    /**
+     * Wait for the I/O threads to exit after close(), by which time
+     * every download has been reported to its listener.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (IoThread ioThread : mIoThreads)
+            ioThread.join();
+    }
+
+    /**
+     * Where a download is in its exchange.
+     */
+    private enum Phase {
+        CONNECTING,
+        SENDING,
+        STATUS_LINE,
+        HEADERS,
+        BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_END,
+        TRAILERS,
+        DONE
+    }
+
+    /**
+     * The state of one download, confined to its I/O thread.
+     */
+    private class Download {
+        final URI mUrl;
+        final File mFile;
+        final Listener mListener;
+        final InetSocketAddress mAddress;
+
+        /**
+         * The request, until it has been sent.
+         */
+        ByteBuffer mRequest;
+
+        SocketChannel mChannel;
+        FileChannel mFileChannel;
+        Phase mPhase = Phase.CONNECTING;
+
+        /**
+         * The line being read, which may span several reads.
+         */
+        final StringBuilder mLine = new StringBuilder();
+
+        /**
+         * Body length from Content-Length, or -1 if not given.
+         */
+        long mContentLength = -1;
+
+        boolean mChunked;
+
+        /**
+         * Bytes left in the current chunk.
+         */
+        long mChunkRemaining;
+
+        /**
+         * Body bytes written so far.
+         */
+        long mBytes;
+
+        long mLastProgressNanos;
+
+        Download(URI url, File file, Listener listener) {
+            mUrl = url;
+            mFile = file;
+            mListener = listener;
+            int port = url.getPort() == -1 ? 80 : url.getPort();
+            mAddress = new InetSocketAddress(url.getHost(), port);
+
+            String path = url.getRawPath();
+            if (path == null || path.length() == 0)
+                path = "/";
+            if (url.getRawQuery() != null)
+                path += "?" + url.getRawQuery();
+            String host = url.getPort() == -1
+                ? url.getHost()
+                : url.getHost() + ":" + url.getPort();
+            mRequest = ByteBuffer.wrap(("GET " + path + " HTTP/1.1\r\n"
+                                        + "Host: " + host + "\r\n"
+                                        + "Accept: image/*\r\n"
+                                        + "Connection: close\r\n"
+                                        + "\r\n").getBytes(ASCII));
+        }
+
+        /**
+         * Read one line ending in CRLF from @a buffer into mLine.
+         * Returns the line, or null if @a buffer ran out first.
+         */
+        String readLine(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                char c = (char) (buffer.get() & 0xff);
+                if (c == '\n') {
+                    int length = mLine.length();
+                    if (length > 0 && mLine.charAt(length - 1) == '\r')
+                        mLine.setLength(length - 1);
+                    String line = mLine.toString();
+                    mLine.setLength(0);
+                    return line;
+                }
+                if (mLine.length() == MAX_LINE_LENGTH)
+                    throw new IOException("response line too long");
+                mLine.append(c);
+            }
+            return null;
+        }
+
+        /**
+         * Consume the response bytes in @a buffer.
+         */
+        void process(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining() && mPhase != Phase.DONE) {
+                String line;
+                switch (mPhase) {
+                case STATUS_LINE:
+                    if ((line = readLine(buffer)) == null)
+                        return;
+                    String[] parts = line.split(" ", 3);
+                    if (parts.length < 2 || !parts[0].startsWith("HTTP/1."))
+                        throw new IOException("bad status line: " + line);
+                    if (!"200".equals(parts[1]))
+                        throw new IOException("HTTP " + line.substring(parts[0].length() + 1));
+                    mPhase = Phase.HEADERS;
+                    break;
+
+                case HEADERS:
+                    if ((line = readLine(buffer)) == null)
+                        return;
+                    if (line.length() > 0)
+                        header(line);
+                    else
+                        startBody();
+                    break;
+
+                case BODY:
+                    write(buffer, mContentLength < 0
+                          ? buffer.remaining()
+                          : mContentLength - mBytes);
+                    if (mBytes == mContentLength)
+                        mPhase = Phase.DONE;
+                    break;
+
+                case CHUNK_SIZE:
+                    if ((line = readLine(buffer)) == null)
+                        return;
+                    int extension = line.indexOf(';');
+                    try {
+                        mChunkRemaining = Long.parseLong
+                            ((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("bad chunk size: " + line);
+                    }
+                    mPhase = mChunkRemaining == 0 ? Phase.TRAILERS : Phase.CHUNK_DATA;
+                    break;
+
+                case CHUNK_DATA:
+                    mChunkRemaining -= write(buffer, mChunkRemaining);
+                    if (mChunkRemaining == 0)
+                        mPhase = Phase.CHUNK_END;
+                    break;
+
+                case CHUNK_END:
+                    if ((line = readLine(buffer)) == null)
+                        return;
+                    if (line.length() > 0)
+                        throw new IOException("chunk not followed by CRLF");
+                    mPhase = Phase.CHUNK_SIZE;
+                    break;
+
+                case TRAILERS:
+                    if ((line = readLine(buffer)) == null)
+                        return;
+                    if (line.length() == 0)
+                        mPhase = Phase.DONE;
+                    break;
+
+                default:
+                    throw new IllegalStateException("unexpected " + mPhase);
+                }
+            }
+        }
+
+        /**
+         * Note the response header in @a line.
+         */
+        private void header(String line) throws IOException {
+            int colon = line.indexOf(':');
+            if (colon <= 0)
+                throw new IOException("bad header: " + line);
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                try {
+                    mContentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("bad Content-Length: " + value);
+                }
+            } else if (name.equals("transfer-encoding"))
+                mChunked = value.toLowerCase(Locale.US).contains("chunked");
+        }
+
+        /**
+         * Open the file once the headers are complete.
+         */
+        private void startBody() throws IOException {
+            mFileChannel = new FileOutputStream(mFile).getChannel();
+            if (mChunked)
+                mPhase = Phase.CHUNK_SIZE;
+            else if (mContentLength == 0)
+                mPhase = Phase.DONE;
+            else
+                mPhase = Phase.BODY;
+        }
+
+        /**
+         * Write up to @a max bytes of @a buffer to the file.  Returns
+         * the number written.
+         */
+        private int write(ByteBuffer buffer, long max) throws IOException {
+            int count = (int) Math.min(buffer.remaining(), max);
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + count);
+            while (buffer.hasRemaining())
+                mFileChannel.write(buffer);
+            buffer.limit(limit);
+            mBytes += count;
+            return count;
+        }
+
+        /**
+         * Handle the end of the response stream.
+         */
+        void endOfStream() throws IOException {
+            // Only a body without length or chunking ends at close.
+            if (mPhase == Phase.BODY && mContentLength < 0)
+                mPhase = Phase.DONE;
+            else if (mPhase != Phase.DONE)
+                throw new IOException("connection closed after " + mBytes + " body bytes");
+        }
+
+        /**
+         * Close the channels, delete the file if @a error is set, and
+         * report the result.
+         */
+        void complete(IOException error) {
+            closeQuietly(mChannel);
+            closeQuietly(mFileChannel);
+            if (error != null)
+                mFile.delete();
+            mActive.decrementAndGet();
+            mListener.onDownloadCompleted(mUrl, mFile, error == null ? mBytes : 0, error);
+        }
+    }
+
+    /**
+     * An I/O thread, which drives its downloads with a Selector.
+     */
+    private class IoThread extends Thread {
+        /**
+         * Downloads submitted to this thread and not yet registered.
+         */
+        final ConcurrentLinkedQueue<Download> mSubmitted =
+            new ConcurrentLinkedQueue<Download>();
+
+        final Selector mSelector;
+
+        /**
+         * The buffer every connection of this thread reads into.
+         */
+        private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        private long mLastTimeoutCheckNanos = System.nanoTime();
+
+        IoThread(String name) throws IOException {
+            super(name);
+            mSelector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!mClosed) {
+                    mSelector.select(TIMEOUT_CHECK_MS);
+                    registerSubmitted();
+                    Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                    failIdle();
+                }
+            } catch (IOException e) {
+                // The selector itself failed; fail everything below.
+            } finally {
+                IOException closed = new IOException("engine closed");
+                for (Download download; (download = mSubmitted.poll()) != null; )
+                    download.complete(closed);
+                for (SelectionKey key : mSelector.keys())
+                    if (key.isValid())
+                        ((Download) key.attachment()).complete(closed);
+                closeQuietly(mSelector);
+            }
+        }
+
+        /**
+         * Open and register the connections of the submitted
+         * downloads.
+         */
+        private void registerSubmitted() {
+            long nowNanos = System.nanoTime();
+            for (Download download; (download = mSubmitted.poll()) != null; ) {
+                download.mLastProgressNanos = nowNanos;
+                try {
+                    if (download.mAddress.isUnresolved())
+                        throw new IOException("unknown host " + download.mAddress.getHostName());
+                    download.mChannel = SocketChannel.open();
+                    download.mChannel.configureBlocking(false);
+                    int ops = SelectionKey.OP_CONNECT;
+                    if (download.mChannel.connect(download.mAddress)) {
+                        download.mPhase = Phase.SENDING;
+                        ops = SelectionKey.OP_WRITE;
+                    }
+                    download.mChannel.register(mSelector, ops, download);
+                } catch (IOException e) {
+                    download.complete(e);
+                }
+            }
+        }
+
+        /**
+         * Make what progress the ready operations of @a key allow.
+         */
+        private void handle(SelectionKey key) {
+            Download download = (Download) key.attachment();
+            download.mLastProgressNanos = System.nanoTime();
+            try {
+                if (key.isConnectable() && download.mChannel.finishConnect()) {
+                    download.mPhase = Phase.SENDING;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    download.mChannel.write(download.mRequest);
+                    if (!download.mRequest.hasRemaining()) {
+                        download.mRequest = null;
+                        download.mPhase = Phase.STATUS_LINE;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                if (key.isValid() && key.isReadable())
+                    read(download);
+            } catch (IOException e) {
+                download.complete(e);
+            }
+        }
+
+        /**
+         * Read what has arrived for @a download and complete it if
+         * its response is over.
+         */
+        private void read(Download download) throws IOException {
+            mReadBuffer.clear();
+            int count = download.mChannel.read(mReadBuffer);
+            if (count < 0)
+                download.endOfStream();
+            else {
+                mReadBuffer.flip();
+                download.process(mReadBuffer);
+            }
+            if (download.mPhase == Phase.DONE)
+                download.complete(null);
+        }
+
+        /**
+         * Fail the downloads that made no progress within the idle
+         * timeout.
+         */
+        private void failIdle() {
+            long nowNanos = System.nanoTime();
+            if (nowNanos - mLastTimeoutCheckNanos < TIMEOUT_CHECK_MS * 1000000L)
+                return;
+            mLastTimeoutCheckNanos = nowNanos;
+
+            List<Download> idle = new ArrayList<Download>();
+            for (SelectionKey key : mSelector.keys()) {
+                // Keys of completed downloads stay until the next
+                // select(), but are no longer valid.
+                if (!key.isValid())
+                    continue;
+                Download download = (Download) key.attachment();
+                if (nowNanos - download.mLastProgressNanos > mIdleTimeoutNanos)
+                    idle.add(download);
+            }
+            for (Download download : idle)
+                download.complete(new IOException("timed out in phase " + download.mPhase));
+        }
+    }
+
+    /**
+     * Close @a closeable, if any, ignoring errors.
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+    }
+}
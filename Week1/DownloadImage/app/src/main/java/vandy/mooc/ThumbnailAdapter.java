@@ -0,0 +1,176 @@
+package vandy.mooc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+
+/**
+ * Adapter that backs the thumbnail grid in MainActivity.  Each cell
+ * shows the thumbnail of one downloaded image.  Thumbnails are taken
+ * from the ThumbnailCache when possible and are otherwise decoded by
+ * an AsyncTask off the UI thread, so scrolling never blocks on disk
+ * I/O or bitmap decoding.
+ */
+public class ThumbnailAdapter extends BaseAdapter {
+    /**
+     * The context used to inflate cells and locate thumbnails.
+     */
+    private final Context mContext;
+
+    /**
+     * Absolute paths of the downloaded images, newest first.
+     */
+    private final List<String> mImagePaths = new ArrayList<String>();
+
+    /**
+     * Cache of decoded thumbnails shared with other activities.
+     */
+    private final ThumbnailCache mCache;
+
+    /**
+     * The fixed thumbnail size that covers one grid cell.
+     */
+    private final int mThumbnailSize;
+
+    /**
+     * Constructor initializes the fields.
+     */
+    public ThumbnailAdapter(Context context) {
+        mContext = context;
+        mCache = ThumbnailCache.getInstance(context);
+        mThumbnailSize =
+            ThumbnailGenerator.sizeFor(context.getResources()
+                                       .getDimensionPixelSize(R.dimen.thumbnail_size));
+    }
+
+    /**
+     * Add a newly downloaded image to the front of the grid.
+     */
+    public void add(String pathToImageFile) {
+        mImagePaths.remove(pathToImageFile);
+        mImagePaths.add(0, pathToImageFile);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Add images that were downloaded earlier to the end of the grid.
+     */
+    public void addAll(List<String> pathsToImageFiles) {
+        for (String path : pathsToImageFiles)
+            if (!mImagePaths.contains(path))
+                mImagePaths.add(path);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Return a copy of the image paths, e.g., to save instance state.
+     */
+    public ArrayList<String> getImagePaths() {
+        return new ArrayList<String>(mImagePaths);
+    }
+
+    @Override
+    public int getCount() {
+        return mImagePaths.size();
+    }
+
+    @Override
+    public String getItem(int position) {
+        return mImagePaths.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    /**
+     * Bind a (possibly recycled) cell to the image at the given
+     * position.
+     */
+    @Override
+    public View getView(int position,
+                        View convertView,
+                        ViewGroup parent) {
+        ImageView imageView = (ImageView) convertView;
+        if (imageView == null)
+            imageView = (ImageView) LayoutInflater.from(mContext)
+                .inflate(R.layout.thumbnail_item, parent, false);
+
+        String path = getItem(position);
+
+        // Cancel any load still running for the image this cell
+        // showed before it was recycled.
+        LoadThumbnailTask previousTask = (LoadThumbnailTask) imageView.getTag();
+        if (previousTask != null) {
+            if (previousTask.mPath.equals(path))
+                return imageView;
+            previousTask.cancel(false);
+            imageView.setTag(null);
+        }
+
+        Bitmap cached = mCache.get(ThumbnailCache.keyFor(path, mThumbnailSize));
+        if (cached != null) {
+            imageView.setImageBitmap(cached);
+        } else {
+            // Show an empty cell until the thumbnail is decoded.
+            imageView.setImageBitmap(null);
+            LoadThumbnailTask task = new LoadThumbnailTask(imageView, path);
+            imageView.setTag(task);
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return imageView;
+    }
+
+    /**
+     * Decodes one thumbnail in the background and binds it to its
+     * cell on the UI thread if the cell still shows the same image.
+     */
+    private class LoadThumbnailTask extends AsyncTask<Void, Void, Bitmap> {
+        /**
+         * The cell the thumbnail is destined for.
+         */
+        private final ImageView mImageView;
+
+        /**
+         * Absolute path of the image whose thumbnail is loaded.
+         */
+        final String mPath;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        LoadThumbnailTask(ImageView imageView, String path) {
+            mImageView = imageView;
+            mPath = path;
+        }
+
+        // Inherited
+        protected Bitmap doInBackground(Void... params) {
+            if (isCancelled())
+                return null;
+            Bitmap thumbnail =
+                ThumbnailGenerator.loadThumbnail(mContext, mPath, mThumbnailSize);
+            if (thumbnail != null)
+                mCache.put(ThumbnailCache.keyFor(mPath, mThumbnailSize), thumbnail);
+            return thumbnail;
+        }
+
+        // Inherited
+        protected void onPostExecute(Bitmap thumbnail) {
+            // The cell may have been recycled for another image.
+            if (mImageView.getTag() != this)
+                return;
+            mImageView.setTag(null);
+            mImageView.setImageBitmap(thumbnail);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package vandy.mooc;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * A memory-bounded cache of decoded thumbnails.  The cache is sized
+ * in kilobytes as a fraction of the per-application memory class, so
+ * scrolling through many downloads never holds more than a fixed
+ * amount of bitmap memory.
+ */
+public class ThumbnailCache extends LruCache<String, Bitmap> {
+    /**
+     * Fraction of the application memory class given to the cache.
+     */
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    /**
+     * The single cache instance, shared by all activities so that it
+     * survives configuration changes.
+     */
+    private static ThumbnailCache sInstance;
+
+    /**
+     * Constructor initializes the super class with the maximum size
+     * in kilobytes.
+     */
+    private ThumbnailCache(int maxSizeKb) {
+        super(maxSizeKb);
+    }
+
+    /**
+     * Return the shared cache, creating it on first use.
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            ActivityManager activityManager =
+                (ActivityManager) context.getSystemService
+                (Context.ACTIVITY_SERVICE);
+            int memoryClassKb = activityManager.getMemoryClass() * 1024;
+            sInstance = new ThumbnailCache(memoryClassKb / MEMORY_CLASS_DIVISOR);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the key under which the thumbnail of the given size for
+     * the given image is cached.
+     */
+    public static String keyFor(String pathToImageFile, int size) {
+        return size + ":" + pathToImageFile;
+    }
+
+    /**
+     * Remove every cached thumbnail of the given image, e.g., because
+     * it was downloaded again.
+     */
+    public static synchronized void evict(String pathToImageFile) {
+        if (sInstance == null)
+            return;
+        for (int size : ThumbnailGenerator.THUMBNAIL_SIZES)
+            sInstance.remove(keyFor(pathToImageFile, size));
+    }
+
+    /**
+     * Measure entries by their bitmap size in kilobytes rather than
+     * by count.
+     */
+    @Override
+    protected int sizeOf(String key, Bitmap bitmap) {
+        return Math.max(1, bitmap.getByteCount() / 1024);
+    }
+}
@@ -0,0 +1,304 @@
+package vandy.mooc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+
+/**
+ * This helper class encapsulates several static methods that are used
+ * to generate and load thumbnails of downloaded image files.
+ * Thumbnails are generated at a few fixed sizes on a pool of
+ * background threads right after an image is saved, so the gallery
+ * in MainActivity only ever has to decode small files.
+ */
+public class ThumbnailGenerator {
+    /**
+     * Used for debugging.
+     */
+    private final static String TAG = "ThumbnailGenerator";
+
+    /**
+     * The fixed edge lengths (in pixels) of the generated thumbnails,
+     * from smallest to largest.
+     */
+    static final int[] THUMBNAIL_SIZES = { 96, 192, 384 };
+
+    /**
+     * Name of the directory (inside the application cache directory)
+     * that holds one subdirectory of thumbnails per size.
+     */
+    private static final String THUMBNAIL_DIR = "thumbnails";
+
+    /**
+     * JPEG quality used when compressing a thumbnail.
+     */
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    /**
+     * Number of threads used to generate thumbnails.  One core is
+     * left free for the UI thread.
+     */
+    private static final int POOL_SIZE =
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /**
+     * Pool of background threads that generate the thumbnails.
+     */
+    private static final ExecutorService sThumbnailPool =
+        Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                // Keep thumbnail work from competing
+                                // with the UI thread.
+                                Process.setThreadPriority
+                                    (Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ThumbnailGenerator-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Generations that are queued or running, keyed by the absolute
+     * path of the source image.  Used so that a load that races with
+     * a generation waits for it instead of decoding the original
+     * twice.
+     */
+    private static final ConcurrentHashMap<String, Future<Void>> sInFlight =
+        new ConcurrentHashMap<String, Future<Void>>();
+
+    /**
+     * Ensure this class is only used as a utility.
+     */
+    private ThumbnailGenerator() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Schedule generation of every thumbnail size for the image at
+     * the given path on the background pool, replacing thumbnails of
+     * an older image saved at the same path.  Returns immediately.
+     *
+     * @param context         the context whose cache directory holds the thumbnails.
+     * @param pathToImageFile the absolute path to the downloaded image file.
+     *
+     * @return a Future that completes when all the thumbnails exist.
+     */
+    public static Future<Void> generateAsync(Context context,
+                                             final String pathToImageFile) {
+        // Don't keep an Activity alive on the pool.
+        final Context appContext = context.getApplicationContext();
+        FutureTask<Void> task =
+            new FutureTask<Void>(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            generateAll(appContext, pathToImageFile);
+                        } finally {
+                            sInFlight.remove(pathToImageFile);
+                        }
+                        return null;
+                    }
+                });
+
+        // Only one generation per image may be in flight.
+        Future<Void> existing = sInFlight.putIfAbsent(pathToImageFile, task);
+        if (existing != null)
+            return existing;
+
+        sThumbnailPool.execute(task);
+        return task;
+    }
+
+    /**
+     * Load the thumbnail of the given size for the image at the given
+     * path, generating it first if it does not exist yet.  This
+     * method blocks and must not be called on the UI thread.
+     *
+     * @param context         the context whose cache directory holds the thumbnails.
+     * @param pathToImageFile the absolute path to the downloaded image file.
+     * @param size            one of THUMBNAIL_SIZES.
+     *
+     * @return the decoded thumbnail, or null if the image can't be decoded.
+     */
+    public static Bitmap loadThumbnail(Context context,
+                                       String pathToImageFile,
+                                       int size) {
+        // Wait for a generation that is already under way.
+        Future<Void> pending = sInFlight.get(pathToImageFile);
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (Exception e) {
+                AsyncLog.w(TAG, "thumbnail generation failed for {}", pathToImageFile);
+            }
+        }
+
+        File thumbnailFile = getThumbnailFile(context, pathToImageFile, size);
+        if (isStale(thumbnailFile, pathToImageFile))
+            generateAll(context, pathToImageFile);
+
+        return BitmapFactory.decodeFile(thumbnailFile.getAbsolutePath());
+    }
+
+    /**
+     * Return the smallest fixed thumbnail size that covers the given
+     * number of pixels, or the largest size if none does.
+     */
+    public static int sizeFor(int pixels) {
+        for (int size : THUMBNAIL_SIZES)
+            if (size >= pixels)
+                return size;
+        return THUMBNAIL_SIZES[THUMBNAIL_SIZES.length - 1];
+    }
+
+    /**
+     * Decode the source image once (subsampled to the largest
+     * thumbnail size) and write every thumbnail size that is missing
+     * or older than the image from it.
+     */
+    private static void generateAll(Context context,
+                                    String pathToImageFile) {
+        int largest = THUMBNAIL_SIZES[THUMBNAIL_SIZES.length - 1];
+        Bitmap source = decodeSampled(pathToImageFile, largest);
+        if (source == null) {
+            AsyncLog.w(TAG, "unable to decode {}", pathToImageFile);
+            return;
+        }
+
+        boolean written = false;
+        for (int size : THUMBNAIL_SIZES) {
+            File thumbnailFile =
+                getThumbnailFile(context, pathToImageFile, size);
+            if (!isStale(thumbnailFile, pathToImageFile))
+                continue;
+
+            Bitmap thumbnail = scaleToFit(source, size);
+            writeThumbnail(thumbnail, thumbnailFile);
+            if (thumbnail != source)
+                thumbnail.recycle();
+            written = true;
+        }
+        source.recycle();
+
+        // Drop the decoded thumbnails of an image previously saved at
+        // the same path.
+        if (written)
+            ThumbnailCache.evict(pathToImageFile);
+    }
+
+    /**
+     * Return true if @a thumbnailFile is missing or older than the
+     * image at the given path, which is replaced in place when the
+     * same URL is downloaded again.
+     */
+    private static boolean isStale(File thumbnailFile,
+                                   String pathToImageFile) {
+        return !thumbnailFile.exists()
+            || thumbnailFile.lastModified() < new File(pathToImageFile).lastModified();
+    }
+
+    /**
+     * Decode the image at the given path using the largest power of
+     * two subsampling that keeps both edges at least @a size pixels.
+     */
+    private static Bitmap decodeSampled(String pathToImageFile,
+                                        int size) {
+        // First decode only the bounds to find the source dimensions.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(pathToImageFile, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size
+               && options.outHeight / (sampleSize * 2) >= size)
+            sampleSize *= 2;
+
+        // Then decode the pixels at the reduced resolution.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFile(pathToImageFile, options);
+    }
+
+    /**
+     * Scale the bitmap so its longest edge is @a size pixels,
+     * preserving the aspect ratio.  Bitmaps that are already small
+     * enough are returned unchanged.
+     */
+    private static Bitmap scaleToFit(Bitmap source, int size) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int longest = Math.max(width, height);
+        if (longest <= size)
+            return source;
+
+        float scale = (float) size / longest;
+        return Bitmap.createScaledBitmap(source,
+                                         Math.max(1, Math.round(width * scale)),
+                                         Math.max(1, Math.round(height * scale)),
+                                         true);
+    }
+
+    /**
+     * Compress the thumbnail into the given file.
+     */
+    private static void writeThumbnail(Bitmap thumbnail,
+                                       File thumbnailFile) {
+        File directory = thumbnailFile.getParentFile();
+        if (!directory.exists())
+            directory.mkdirs();
+
+        // Write to a temporary file first so that a concurrent reader
+        // never sees a partially written thumbnail.
+        File tempFile = new File(directory, thumbnailFile.getName() + ".tmp");
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG,
+                                   THUMBNAIL_QUALITY,
+                                   outputStream);
+            } finally {
+                outputStream.close();
+            }
+            if (!tempFile.renameTo(thumbnailFile))
+                tempFile.delete();
+        } catch (Exception e) {
+            AsyncLog.e(TAG, "unable to write thumbnail {}", thumbnailFile);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Return the file that holds the thumbnail of the given size for
+     * the image at the given path.
+     */
+    static File getThumbnailFile(Context context,
+                                 String pathToImageFile,
+                                 int size) {
+        File sizeDirectory =
+            new File(new File(context.getCacheDir(), THUMBNAIL_DIR),
+                     String.valueOf(size));
+        return new File(sizeDirectory, new File(pathToImageFile).getName());
+    }
+}
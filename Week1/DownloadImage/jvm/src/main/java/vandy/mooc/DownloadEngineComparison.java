@@ -0,0 +1,248 @@
+package vandy.mooc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class DownloadEngineComparison
+ *
+ * @brief Downloads a batch of images from a LoopbackImageServer with
+ *        artificial latency, with each engine in turn:
+ *
+ *        - threads: blocking HttpURLConnection downloads on a fixed
+ *          pool, as BatchDownloader's THREADS engine does through
+ *          DownloadUtils.downloadImage().
+ *        - thread per download: the same with a thread per image.
+ *        - selector: a SelectorDownloadEngine with one I/O thread.
+ *
+ *        It first checks the selector engine against Content-Length,
+ *        chunked and 404 responses, then reports for each engine the
+ *        wall time, images/s, how many downloads the server saw at
+ *        once and how many files came out wrong.  Usage:
+ *
+ *        java vandy.mooc.DownloadEngineComparison [downloads]
+ *             [firstByteMs] [imageKB] [chunkKB] [chunkDelayMs] [poolThreads]
+ */
+public class DownloadEngineComparison {
+    /**
+     * How long a selector download may make no progress.
+     */
+    private static final long IDLE_TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * Default size of the blocking pool, as
+     * BatchDownloader.DEFAULT_PARALLELISM, which can't be loaded
+     * without Android.
+     */
+    private static final int DEFAULT_POOL_THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int downloads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long firstByteMs = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int imageBytes = (args.length > 2 ? Integer.parseInt(args[2]) : 64) * 1024;
+        int chunkBytes = (args.length > 3 ? Integer.parseInt(args[3]) : 8) * 1024;
+        long chunkDelayMs = args.length > 4 ? Long.parseLong(args[4]) : 20;
+        int poolThreads = args.length > 5
+            ? Integer.parseInt(args[5])
+            : DEFAULT_POOL_THREADS;
+
+        File directory = Files.createTempDirectory("downloads").toFile();
+        LoopbackImageServer server =
+            new LoopbackImageServer(imageBytes, firstByteMs, chunkBytes, chunkDelayMs);
+        try {
+            check(server, directory);
+
+            System.out.println("engine                  threads  wall ms  images/s  peak open  wrong");
+            runBlocking(server, directory, downloads, poolThreads, "threads");
+            runBlocking(server, directory, downloads, downloads, "thread per download");
+            runSelector(server, directory, downloads);
+        } finally {
+            server.close();
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Download each kind of response once with the selector engine
+     * and check the results.
+     */
+    private static void check(final LoopbackImageServer server, File directory)
+        throws Exception {
+        final String[] paths = { "/plain.jpg", "/chunked.jpg", "/missing.jpg" };
+        final String[] results = new String[paths.length];
+        final CountDownLatch done = new CountDownLatch(paths.length);
+        SelectorDownloadEngine engine = new SelectorDownloadEngine(1, IDLE_TIMEOUT_MS);
+        for (int i = 0; i < paths.length; i++) {
+            final int index = i;
+            engine.download(server.url(paths[i]),
+                            new File(directory, "check-" + i),
+                            new SelectorDownloadEngine.Listener() {
+                                @Override
+                                public void onDownloadCompleted(URI url,
+                                                                File file,
+                                                                long bytes,
+                                                                IOException error) {
+                                    results[index] = error != null
+                                        ? error.getMessage()
+                                        : isImage(server, file) ? "ok" : "wrong content";
+                                    done.countDown();
+                                }
+                            });
+        }
+        done.await();
+        engine.close();
+        engine.awaitTermination();
+
+        boolean passed = "ok".equals(results[0])
+            && "ok".equals(results[1])
+            && results[2] != null && results[2].startsWith("HTTP 404");
+        System.out.println("checks " + (passed ? "passed" : "FAILED") + ": "
+                           + Arrays.toString(results));
+    }
+
+    /**
+     * Download @a downloads images with blocking I/O on a pool of
+     * @a threads threads and report the results as @a name.
+     */
+    private static void runBlocking(final LoopbackImageServer server,
+                                    final File directory,
+                                    int downloads,
+                                    int threads,
+                                    String name) throws InterruptedException {
+        server.takePeakOpen();
+        final AtomicInteger wrong = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(downloads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < downloads; i++) {
+            final int index = i;
+            pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        File file = new File(directory, "blocking-" + index);
+                        try {
+                            download(server.url("/image-" + index + ".jpg"), file);
+                            if (!isImage(server, file))
+                                wrong.incrementAndGet();
+                        } catch (IOException e) {
+                            wrong.incrementAndGet();
+                        }
+                        file.delete();
+                        done.countDown();
+                    }
+                });
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        pool.shutdown();
+
+        report(name, threads, downloads, elapsedNanos, server.takePeakOpen(), wrong.get());
+    }
+
+    /**
+     * Download @a downloads images with a SelectorDownloadEngine and
+     * report the results.
+     */
+    private static void runSelector(final LoopbackImageServer server,
+                                    File directory,
+                                    int downloads) throws Exception {
+        server.takePeakOpen();
+        final AtomicInteger wrong = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(downloads);
+        SelectorDownloadEngine engine = new SelectorDownloadEngine(1, IDLE_TIMEOUT_MS);
+        SelectorDownloadEngine.Listener listener = new SelectorDownloadEngine.Listener() {
+                @Override
+                public void onDownloadCompleted(URI url,
+                                                File file,
+                                                long bytes,
+                                                IOException error) {
+                    // A real client would hand the check off the I/O
+                    // thread, but it's cheap next to the latency.
+                    if (error != null || !isImage(server, file))
+                        wrong.incrementAndGet();
+                    file.delete();
+                    done.countDown();
+                }
+            };
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < downloads; i++)
+            engine.download(server.url("/image-" + i + ".jpg"),
+                            new File(directory, "selector-" + i),
+                            listener);
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        engine.close();
+        engine.awaitTermination();
+
+        report("selector", 1, downloads, elapsedNanos, server.takePeakOpen(), wrong.get());
+    }
+
+    /**
+     * Download @a url into @a file with blocking I/O.
+     */
+    private static void download(URI url, File file) throws IOException {
+        HttpURLConnection connection =
+            (HttpURLConnection) url.toURL().openConnection();
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException("HTTP " + connection.getResponseCode());
+            InputStream input = connection.getInputStream();
+            OutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                for (int count; (count = input.read(buffer)) >= 0; )
+                    output.write(buffer, 0, count);
+            } finally {
+                output.close();
+                input.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Return true if @a file holds the image @a server serves.
+     */
+    private static boolean isImage(LoopbackImageServer server, File file) {
+        try {
+            return Arrays.equals(server.getImage(), Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Print one row of results.
+     */
+    private static void report(String name,
+                               int threads,
+                               int downloads,
+                               long elapsedNanos,
+                               int peakOpen,
+                               int wrong) {
+        System.out.printf(Locale.US, "%-22s  %7d  %7.0f  %8.1f  %9d  %5d%n",
+                          name,
+                          threads,
+                          elapsedNanos / 1e6,
+                          downloads * 1e9 / elapsedNanos,
+                          peakOpen,
+                          wrong);
+    }
+}
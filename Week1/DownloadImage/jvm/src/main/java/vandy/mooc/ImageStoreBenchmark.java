@@ -0,0 +1,326 @@
+package vandy.mooc;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class ImageStoreBenchmark
+ *
+ * @brief Benchmarks ImageStore in two parts:
+ *
+ *        - durability: concurrent writers save files with each
+ *          Durability, and with a GroupCommit, reporting files/s
+ *          and how many files were synced per batch.
+ *        - growth: one writer fills a flat and a sharded store, and
+ *          at each checkpoint reports the files/s since the last one,
+ *          the time to look up an existing and a missing file, and
+ *          the time to list the store.
+ *
+ *        Usage:
+ *
+ *        java vandy.mooc.ImageStoreBenchmark [files] [writers] [syncedFiles]
+ */
+public class ImageStoreBenchmark {
+    /**
+     * Size of the files written by the durability part, about a
+     * downloaded image.
+     */
+    private static final int IMAGE_BYTES = 16 * 1024;
+
+    /**
+     * Size of the files written by the growth part, kept small so
+     * that directory operations dominate.
+     */
+    private static final int SMALL_BYTES = 1024;
+
+    /**
+     * Lookups timed per checkpoint, of each kind.
+     */
+    private static final int LOOKUPS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int syncedFiles = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        System.out.println("durability     writers  files/s  files per batch");
+        for (ImageStore.Durability durability : ImageStore.Durability.values())
+            runDurability(durability.name(), durability, false, writers, syncedFiles);
+        runDurability("GROUP_COMMIT", ImageStore.Durability.NONE, true, writers, syncedFiles);
+
+        System.out.println();
+        System.out.println("layout    files  files/s  hit us  miss us  list ms");
+        runGrowth(false, files);
+        runGrowth(true, files);
+    }
+
+    /**
+     * Save @a files files from @a writers threads with @a durability,
+     * through a GroupCommit if @a groupCommit, and report the
+     * throughput as @a name.
+     */
+    private static void runDurability(String name,
+                                      ImageStore.Durability durability,
+                                      final boolean groupCommit,
+                                      int writers,
+                                      final int files) throws Exception {
+        File root = Files.createTempDirectory("images").toFile();
+        final ImageStore store = new ImageStore(root, true, durability);
+        final GroupCommit committer = new GroupCommit(store);
+        final ImageStore.Writer contents = writerOf(IMAGE_BYTES);
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(writers);
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < writers; i++)
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int index; (index = next.getAndIncrement()) < files; )
+                            if (groupCommit)
+                                committer.save(nameOf(index), contents);
+                            else
+                                store.save(nameOf(index), contents);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        String filesPerBatch = groupCommit
+            ? String.format(Locale.US, "%.1f", committer.getFilesPerBatch())
+            : durability == ImageStore.Durability.SYNC_EACH ? "1.0" : "-";
+        System.out.printf(Locale.US, "%-13s  %7d  %7.0f  %15s%n",
+                          name,
+                          writers,
+                          files * 1e9 / elapsedNanos,
+                          filesPerBatch);
+        delete(root);
+    }
+
+    /**
+     * Fill a flat or @a sharded store with @a files files, reporting
+     * at each checkpoint.
+     */
+    private static void runGrowth(boolean sharded, int files) throws Exception {
+        File root = Files.createTempDirectory("images").toFile();
+        ImageStore store = new ImageStore(root, sharded, ImageStore.Durability.NONE);
+        ImageStore.Writer contents = writerOf(SMALL_BYTES);
+        Random random = new Random(files);
+
+        int written = 0;
+        for (int checkpoint = 1000; ; checkpoint *= 10) {
+            checkpoint = Math.min(checkpoint, files);
+            int segment = checkpoint - written;
+            long startNanos = System.nanoTime();
+            for (; written < checkpoint; written++)
+                store.save(nameOf(written), contents);
+            long writeNanos = System.nanoTime() - startNanos;
+
+            startNanos = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++)
+                if (!store.fileFor(nameOf(random.nextInt(written))).exists())
+                    throw new IllegalStateException("lost a file");
+            long hitNanos = System.nanoTime() - startNanos;
+
+            startNanos = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++)
+                if (store.fileFor(nameOf(written + i)).exists())
+                    throw new IllegalStateException("found a missing file");
+            long missNanos = System.nanoTime() - startNanos;
+
+            startNanos = System.nanoTime();
+            int listed = store.listFiles().size();
+            long listNanos = System.nanoTime() - startNanos;
+            if (listed != written)
+                throw new IllegalStateException("listed " + listed + " of " + written);
+
+            System.out.printf(Locale.US, "%-7s  %6d  %7.0f  %6.2f  %7.2f  %7.1f%n",
+                              sharded ? "sharded" : "flat",
+                              written,
+                              segment * 1e9 / writeNanos,
+                              hitNanos / 1e3 / LOOKUPS,
+                              missNanos / 1e3 / LOOKUPS,
+                              listNanos / 1e6);
+            if (checkpoint == files)
+                break;
+        }
+        delete(root);
+    }
+
+    /**
+     * The group commit ImageStore once offered, kept here for
+     * comparison.  A writer that finishes its file while another is
+     * syncing queues it and waits, and one of the waiting writers
+     * then syncs the whole queue.  Each file still gets its own
+     * fsync, so this only pays off on file systems where one fsync
+     * commits the others' journal entries.  Writes through a store
+     * with Durability.NONE, whose commit() only renames.
+     */
+    private static class GroupCommit {
+        /**
+         * A written file waiting to be synced.
+         */
+        private static class Entry {
+            final FileDescriptor mDescriptor;
+
+            /**
+             * Set, with mError if the sync failed, once synced.
+             * Guarded by GroupCommit.mLock.
+             */
+            boolean mDone;
+            IOException mError;
+
+            Entry(FileDescriptor descriptor) {
+                mDescriptor = descriptor;
+            }
+        }
+
+        private final ImageStore mStore;
+
+        /**
+         * Guards the state below.
+         */
+        private final Object mLock = new Object();
+
+        /**
+         * Files waiting for the next batch.
+         */
+        private List<Entry> mQueue = new ArrayList<Entry>();
+
+        /**
+         * True while a writer is syncing a batch.
+         */
+        private boolean mSyncing;
+
+        /**
+         * Number of files and batches synced.
+         */
+        private long mFiles;
+        private long mBatches;
+
+        GroupCommit(ImageStore store) {
+            mStore = store;
+        }
+
+        /**
+         * Write the file named @a name with @a writer, sync it in a
+         * batch and rename it into place.
+         */
+        void save(String name, ImageStore.Writer writer) throws IOException {
+            File temp = mStore.newTempFile(name);
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                writer.writeTo(output);
+                sync(new Entry(output.getFD()));
+            } catch (IOException e) {
+                output.close();
+                temp.delete();
+                throw e;
+            }
+            output.close();
+            mStore.commit(temp, name);
+        }
+
+        /**
+         * Queue @a entry and either wait for another writer to sync
+         * it or sync the queued batch, @a entry included, itself.
+         */
+        private void sync(Entry entry) throws IOException {
+            List<Entry> batch;
+            synchronized (mLock) {
+                mQueue.add(entry);
+                while (mSyncing && !entry.mDone) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("interrupted waiting for a sync");
+                    }
+                }
+                if (entry.mDone) {
+                    if (entry.mError != null)
+                        throw entry.mError;
+                    return;
+                }
+                mSyncing = true;
+                batch = mQueue;
+                mQueue = new ArrayList<Entry>();
+            }
+
+            for (Entry queued : batch) {
+                try {
+                    queued.mDescriptor.sync();
+                } catch (IOException e) {
+                    queued.mError = e;
+                }
+            }
+            synchronized (mLock) {
+                for (Entry queued : batch)
+                    queued.mDone = true;
+                mFiles += batch.size();
+                mBatches++;
+                mSyncing = false;
+                mLock.notifyAll();
+            }
+            if (entry.mError != null)
+                throw entry.mError;
+        }
+
+        /**
+         * Return the average number of files synced per batch.
+         */
+        double getFilesPerBatch() {
+            synchronized (mLock) {
+                return mBatches == 0 ? 0 : (double) mFiles / mBatches;
+            }
+        }
+    }
+
+    /**
+     * Return the name of file @a index, like those DownloadUtils
+     * gives downloaded images.
+     */
+    private static String nameOf(int index) {
+        return "aHR0cDovL2V4YW1wbGUuY29tL2ltYWdlcy8" + index + ".jpg";
+    }
+
+    /**
+     * Return a Writer of @a bytes bytes.
+     */
+    private static ImageStore.Writer writerOf(int bytes) {
+        final byte[] contents = new byte[bytes];
+        new Random(bytes).nextBytes(contents);
+        return new ImageStore.Writer() {
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(contents);
+            }
+        };
+    }
+
+    /**
+     * Delete @a file and, if it's a directory, its contents.
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+}
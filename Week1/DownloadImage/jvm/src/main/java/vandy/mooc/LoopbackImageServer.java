@@ -0,0 +1,271 @@
+package vandy.mooc;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class LoopbackImageServer
+ *
+ * @brief A minimal HTTP/1.1 server on the loopback interface that
+ *        stands in for a slow image server.  Every response waits
+ *        firstByteDelayMs before its first byte, then trickles its
+ *        body out in chunkBytes pieces every chunkDelayMs, so a
+ *        download spends most of its time waiting, as on a slow
+ *        network.  Connections are served by a small scheduled pool
+ *        whose threads never sleep, so the server itself can keep
+ *        thousands of slow responses going.
+ *
+ *        Every path returns the same image, which getImage()
+ *        returns for comparison, with a Content-Length, except:
+ *
+ *        - /chunked...: the image with chunked transfer encoding.
+ *        - /missing...: 404 Not Found.
+ */
+public class LoopbackImageServer implements Closeable {
+    /**
+     * Number of threads that serve the connections.
+     */
+    private static final int POOL_SIZE = 2;
+
+    /**
+     * Ends each chunk of a chunked body.
+     */
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final byte[] mImage;
+    private final long mFirstByteDelayMs;
+    private final int mChunkBytes;
+    private final long mChunkDelayMs;
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptor;
+    private final ScheduledExecutorService mPool;
+
+    /**
+     * Number of connections accepted, and the most that were open at
+     * once.
+     */
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private final AtomicInteger mOpen = new AtomicInteger();
+    private final AtomicInteger mPeakOpen = new AtomicInteger();
+
+    /**
+     * Constructor starts serving an image of @a imageBytes bytes with
+     * the given latencies.
+     */
+    public LoopbackImageServer(int imageBytes,
+                               long firstByteDelayMs,
+                               int chunkBytes,
+                               long chunkDelayMs) throws IOException {
+        mImage = new byte[imageBytes];
+        // Deterministic content, so every run downloads the same.
+        new Random(imageBytes).nextBytes(mImage);
+        mFirstByteDelayMs = firstByteDelayMs;
+        mChunkBytes = Math.max(1, chunkBytes);
+        mChunkDelayMs = chunkDelayMs;
+
+        mServerSocket = new ServerSocket(0, 4096, InetAddress.getByName("127.0.0.1"));
+        mPool = Executors.newScheduledThreadPool(POOL_SIZE, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread =
+                        new Thread(runnable, "LoopbackImageServer-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        mAcceptor = new Thread("LoopbackImageServer-acceptor") {
+                @Override
+                public void run() {
+                    accept();
+                }
+            };
+        mAcceptor.setDaemon(true);
+        mAcceptor.start();
+    }
+
+    /**
+     * Return the URL of @a path on this server.
+     */
+    public URI url(String path) {
+        return URI.create("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    /**
+     * Return the image every successful response carries.
+     */
+    public byte[] getImage() {
+        return mImage;
+    }
+
+    /**
+     * Return the number of connections accepted so far.
+     */
+    public int getConnections() {
+        return mConnections.get();
+    }
+
+    /**
+     * Return the most connections open at once since the last call,
+     * and start counting again.
+     */
+    public int takePeakOpen() {
+        return mPeakOpen.getAndSet(mOpen.get());
+    }
+
+    /**
+     * Stop accepting connections and drop the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        mPool.shutdownNow();
+    }
+
+    /**
+     * Accept connections until the server is closed.
+     */
+    private void accept() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnections.incrementAndGet();
+            int open = mOpen.incrementAndGet();
+            for (int peak; open > (peak = mPeakOpen.get()); )
+                if (mPeakOpen.compareAndSet(peak, open))
+                    break;
+            mPool.execute(new Response(socket));
+        }
+    }
+
+    /**
+     * Serves one connection: reads the request, then writes the
+     * response one scheduled piece at a time.
+     */
+    private class Response implements Runnable {
+        private final Socket mSocket;
+        private OutputStream mOutput;
+        private byte[] mHead;
+        private boolean mChunked;
+        private int mSent;
+
+        Response(Socket socket) {
+            mSocket = socket;
+        }
+
+        /**
+         * Read the request and schedule the first piece.
+         */
+        @Override
+        public void run() {
+            try {
+                BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(mSocket.getInputStream(),
+                                                             "US-ASCII"));
+                String requestLine = reader.readLine();
+                if (requestLine == null) {
+                    finish();
+                    return;
+                }
+                // Skip the headers.
+                for (String line; (line = reader.readLine()) != null && line.length() > 0; )
+                    continue;
+
+                String[] parts = requestLine.split(" ");
+                String path = parts.length > 1 ? parts[1] : "/";
+                mOutput = mSocket.getOutputStream();
+                if (path.startsWith("/missing")) {
+                    mHead = ("HTTP/1.1 404 Not Found\r\n"
+                             + "Content-Length: 0\r\n"
+                             + "Connection: close\r\n\r\n").getBytes("US-ASCII");
+                    mSent = mImage.length;
+                } else {
+                    mChunked = path.startsWith("/chunked");
+                    mHead = ("HTTP/1.1 200 OK\r\n"
+                             + "Content-Type: image/jpeg\r\n"
+                             + (mChunked
+                                ? "Transfer-Encoding: chunked\r\n"
+                                : "Content-Length: " + mImage.length + "\r\n")
+                             + "Connection: close\r\n\r\n").getBytes("US-ASCII");
+                }
+                mPool.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendPiece();
+                        }
+                    }, mFirstByteDelayMs, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                finish();
+            }
+        }
+
+        /**
+         * Send the head, if not sent yet, and the next piece of the
+         * body, then schedule the next piece or close.
+         */
+        private void sendPiece() {
+            try {
+                if (mHead != null) {
+                    mOutput.write(mHead);
+                    mHead = null;
+                }
+                int count = Math.min(mChunkBytes, mImage.length - mSent);
+                if (count > 0) {
+                    if (mChunked)
+                        mOutput.write((Integer.toHexString(count) + "\r\n").getBytes("US-ASCII"));
+                    mOutput.write(mImage, mSent, count);
+                    if (mChunked)
+                        mOutput.write(CRLF);
+                    mSent += count;
+                }
+                if (mSent < mImage.length) {
+                    mOutput.flush();
+                    mPool.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                sendPiece();
+                            }
+                        }, mChunkDelayMs, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                if (mChunked)
+                    mOutput.write("0\r\n\r\n".getBytes("US-ASCII"));
+                mOutput.flush();
+            } catch (IOException e) {
+                // The client went away.
+            }
+            finish();
+        }
+
+        /**
+         * Close the connection.
+         */
+        private void finish() {
+            mOpen.decrementAndGet();
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+}
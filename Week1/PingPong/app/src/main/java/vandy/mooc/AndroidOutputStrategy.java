@@ -0,0 +1,63 @@
+package vandy.mooc;
+
+import java.lang.ref.WeakReference;
+
+
+/**
+ * Implements the OutputStrategy API by outputting data to the Android
+ * UI thread via MainActivity.
+ */
+public class AndroidOutputStrategy implements OutputStrategy {
+
+    /**
+     * Debugging tag
+     */
+    private final String TAG = getClass().getSimpleName();
+
+    /** 
+     * Define a WeakReference to avoid memory leaks.  See
+     * www.androiddesignpatterns.com/2013/01/inner-class-handler-memory-leak.html
+     * for an explanation of why we need this WeakReference.
+     */
+    private final WeakReference<MainActivity> mOuterClass;
+
+    /**
+     * Constructor initializes the field.
+     */
+    public AndroidOutputStrategy(final MainActivity activity) {
+        // Keep track of the MainActivity.
+        mOuterClass =
+            new WeakReference<MainActivity> (activity);
+    }
+
+    /** 
+     * Output the string from a background thread to the Android
+     * display managed by the UI thread.
+     */
+    @Override
+    public void print(final String outputString) {
+        // Call the MainActivity.print() method, which hands the
+        // string to a FrameOutputScheduler that applies it to the UI
+        // Thread, paced so the user can see what's going on.
+        MainActivity activity = mOuterClass.get();
+        activity.print(outputString);
+    }
+
+    /**
+     * Output a volley by passing its cached line to print().
+     */
+    @Override
+    public void printVolley(String player, int iteration) {
+        print(VolleyLines.lineOf(player, iteration));
+    }
+
+    /**
+     * Error log formats the message and displays it for the debugging
+     * purposes.
+     */
+    @Override
+    public void errorLog(String javaFile,
+                         String errorMessage) {
+        AsyncLog.e(javaFile, errorMessage);
+    }
+}
@@ -0,0 +1,376 @@
+package vandy.mooc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * A logging facade for hot paths that records log calls into a
+ * preallocated lock-free ring buffer and leaves the formatting and
+ * the call to the Android logger to a background thread.
+ *
+ * Messages are format strings with up to two "{}" placeholders whose
+ * arguments are kept as references or primitives until the
+ * background thread formats them, so a log call on a worker thread
+ * doesn't concatenate strings or box primitives.  A message logged
+ * without arguments is written as is.  Calls below the minimum level
+ * return after a single volatile read.  When the ring buffer is full
+ * the message is dropped and counted rather than blocking the
+ * caller.
+ */
+public final class AsyncLog {
+    /**
+     * Debugging tag used for the logger's own messages.
+     */
+    private static final String TAG = "AsyncLog";
+
+    /**
+     * Number of messages the ring buffer holds.  Must be a power of
+     * two.
+     */
+    private static final int CAPACITY = 1024;
+
+    /**
+     * Mask that maps a sequence number to a ring slot.
+     */
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * Bits of a slot's argument kinds that mark primitive arguments.
+     */
+    private static final int ARG0_IS_LONG = 1;
+    private static final int ARG1_IS_LONG = 2;
+
+    /**
+     * Bit of a slot's argument kinds that marks a message logged
+     * without arguments, which is written as is rather than parsed
+     * as a format, so a "{}" in caller text survives.
+     */
+    private static final int LITERAL = 4;
+
+    /**
+     * Messages below this level are discarded at the call site.
+     */
+    private static volatile int sMinLevel = Log.DEBUG;
+
+    /**
+     * Per-slot sequence numbers of the bounded multi-producer queue.
+     * A slot whose sequence equals the enqueue position is free; one
+     * whose sequence is one past it holds a published message.
+     */
+    private static final AtomicLongArray sSequences = new AtomicLongArray(CAPACITY);
+
+    /**
+     * The preallocated message slots, one array per attribute.  A
+     * slot is written only by the producer that claimed it and read
+     * only after its sequence number has been published.
+     */
+    private static final int[] sLevels = new int[CAPACITY];
+    private static final String[] sTags = new String[CAPACITY];
+    private static final String[] sFormats = new String[CAPACITY];
+    private static final int[] sArgKinds = new int[CAPACITY];
+    private static final Object[] sObjectArgs0 = new Object[CAPACITY];
+    private static final Object[] sObjectArgs1 = new Object[CAPACITY];
+    private static final long[] sLongArgs0 = new long[CAPACITY];
+    private static final long[] sLongArgs1 = new long[CAPACITY];
+
+    /**
+     * Next position producers enqueue at.
+     */
+    private static final AtomicLong sTail = new AtomicLong();
+
+    /**
+     * Number of messages dropped because the ring buffer was full.
+     */
+    private static final AtomicLong sDropped = new AtomicLong();
+
+    /**
+     * True while the drain thread is (about to be) parked, so that
+     * producers only pay for an unpark when it is needed.
+     */
+    private static volatile boolean sDrainerWaiting;
+
+    /**
+     * The background thread that formats and writes the messages.
+     */
+    private static final Thread sDrainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "AsyncLog");
+
+    static {
+        for (int i = 0; i < CAPACITY; i++)
+            sSequences.set(i, i);
+        sDrainer.setDaemon(true);
+        sDrainer.setPriority(Thread.MIN_PRIORITY);
+        sDrainer.start();
+    }
+
+    /**
+     * Ensure this class is only used as a utility.
+     */
+    private AsyncLog() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Set the minimum level (one of the android.util.Log constants)
+     * that is logged.
+     */
+    public static void setMinLevel(int level) {
+        sMinLevel = level;
+    }
+
+    /**
+     * Return true if messages of the given level are logged.
+     */
+    public static boolean isLoggable(int level) {
+        return level >= sMinLevel;
+    }
+
+    /**
+     * Return the number of messages dropped because the ring buffer
+     * was full.
+     */
+    public static long getDroppedCount() {
+        return sDropped.get();
+    }
+
+    public static void v(String tag, String format, Object arg0) {
+        if (Log.VERBOSE >= sMinLevel)
+            enqueue(Log.VERBOSE, tag, format, 0, arg0, null, 0, 0);
+    }
+
+    public static void v(String tag, String format, Object arg0, long arg1) {
+        if (Log.VERBOSE >= sMinLevel)
+            enqueue(Log.VERBOSE, tag, format, ARG1_IS_LONG, arg0, null, 0, arg1);
+    }
+
+    public static void d(String tag, String message) {
+        if (Log.DEBUG >= sMinLevel)
+            enqueue(Log.DEBUG, tag, message, LITERAL, null, null, 0, 0);
+    }
+
+    public static void d(String tag, String format, Object arg0) {
+        if (Log.DEBUG >= sMinLevel)
+            enqueue(Log.DEBUG, tag, format, 0, arg0, null, 0, 0);
+    }
+
+    public static void d(String tag, String format, Object arg0, long arg1) {
+        if (Log.DEBUG >= sMinLevel)
+            enqueue(Log.DEBUG, tag, format, ARG1_IS_LONG, arg0, null, 0, arg1);
+    }
+
+    public static void i(String tag, String message) {
+        if (Log.INFO >= sMinLevel)
+            enqueue(Log.INFO, tag, message, LITERAL, null, null, 0, 0);
+    }
+
+    public static void i(String tag, String format, Object arg0) {
+        if (Log.INFO >= sMinLevel)
+            enqueue(Log.INFO, tag, format, 0, arg0, null, 0, 0);
+    }
+
+    public static void i(String tag, String format, long arg0) {
+        if (Log.INFO >= sMinLevel)
+            enqueue(Log.INFO, tag, format, ARG0_IS_LONG, null, null, arg0, 0);
+    }
+
+    public static void i(String tag, String format, Object arg0, Object arg1) {
+        if (Log.INFO >= sMinLevel)
+            enqueue(Log.INFO, tag, format, 0, arg0, arg1, 0, 0);
+    }
+
+    public static void i(String tag, String format, Object arg0, long arg1) {
+        if (Log.INFO >= sMinLevel)
+            enqueue(Log.INFO, tag, format, ARG1_IS_LONG, arg0, null, 0, arg1);
+    }
+
+    public static void w(String tag, String message) {
+        if (Log.WARN >= sMinLevel)
+            enqueue(Log.WARN, tag, message, LITERAL, null, null, 0, 0);
+    }
+
+    public static void w(String tag, String format, Object arg0) {
+        if (Log.WARN >= sMinLevel)
+            enqueue(Log.WARN, tag, format, 0, arg0, null, 0, 0);
+    }
+
+    public static void w(String tag, String format, Object arg0, Object arg1) {
+        if (Log.WARN >= sMinLevel)
+            enqueue(Log.WARN, tag, format, 0, arg0, arg1, 0, 0);
+    }
+
+    public static void e(String tag, String message) {
+        if (Log.ERROR >= sMinLevel)
+            enqueue(Log.ERROR, tag, message, LITERAL, null, null, 0, 0);
+    }
+
+    public static void e(String tag, String format, Object arg0) {
+        if (Log.ERROR >= sMinLevel)
+            enqueue(Log.ERROR, tag, format, 0, arg0, null, 0, 0);
+    }
+
+    /**
+     * Log an error with the stack trace of the given exception.  The
+     * message is an argument rather than part of the format, so any
+     * "{}" in it is logged as is, and nothing is concatenated.
+     */
+    public static void e(String tag, String message, Throwable throwable) {
+        if (Log.ERROR >= sMinLevel)
+            enqueue(Log.ERROR, tag, "{}\n{}", 0, message, throwable, 0, 0);
+    }
+
+    /**
+     * Claim a slot, fill it in and publish it, or drop the message
+     * if the ring buffer is full.  Doesn't allocate or block.
+     */
+    private static void enqueue(int level,
+                                String tag,
+                                String format,
+                                int argKinds,
+                                Object objectArg0,
+                                Object objectArg1,
+                                long longArg0,
+                                long longArg1) {
+        long position = sTail.get();
+        int slot;
+        for (;;) {
+            slot = (int) (position & MASK);
+            long sequence = sSequences.get(slot);
+            if (sequence == position) {
+                // The slot is free; try to claim it.
+                if (sTail.compareAndSet(position, position + 1))
+                    break;
+                position = sTail.get();
+            } else if (sequence < position) {
+                // The drain thread hasn't consumed this slot's
+                // previous message yet, so the ring buffer is full.
+                sDropped.incrementAndGet();
+                return;
+            } else {
+                // Another producer claimed this position first.
+                position = sTail.get();
+            }
+        }
+
+        sLevels[slot] = level;
+        sTags[slot] = tag;
+        sFormats[slot] = format;
+        sArgKinds[slot] = argKinds;
+        sObjectArgs0[slot] = objectArg0;
+        sObjectArgs1[slot] = objectArg1;
+        sLongArgs0[slot] = longArg0;
+        sLongArgs1[slot] = longArg1;
+
+        // Publish the message to the drain thread.  A volatile write,
+        // unlike lazySet(), can't be reordered with the read of
+        // sDrainerWaiting below, so either the drain thread sees the
+        // message when it rechecks or we see that it's waiting.
+        sSequences.set(slot, position + 1);
+
+        if (sDrainerWaiting) {
+            sDrainerWaiting = false;
+            LockSupport.unpark(sDrainer);
+        }
+    }
+
+    /**
+     * Body of the drain thread: format and write published messages
+     * in order, parking when there are none.
+     */
+    private static void drain() {
+        StringBuilder builder = new StringBuilder(256);
+        long head = 0;
+        long reportedDropped = 0;
+
+        for (;;) {
+            int slot = (int) (head & MASK);
+            if (sSequences.get(slot) != head + 1) {
+                // Nothing to write.  Report drops, then park until a
+                // producer unparks us.
+                long dropped = sDropped.get();
+                if (dropped != reportedDropped) {
+                    Log.w(TAG, "dropped " + (dropped - reportedDropped) + " messages");
+                    reportedDropped = dropped;
+                }
+                sDrainerWaiting = true;
+                if (sSequences.get(slot) != head + 1)
+                    LockSupport.park();
+                sDrainerWaiting = false;
+                continue;
+            }
+
+            // Format the message lazily, here rather than at the call
+            // site.
+            builder.setLength(0);
+            format(builder,
+                   sFormats[slot],
+                   sArgKinds[slot],
+                   sObjectArgs0[slot],
+                   sObjectArgs1[slot],
+                   sLongArgs0[slot],
+                   sLongArgs1[slot]);
+            int level = sLevels[slot];
+            String tag = sTags[slot];
+
+            // Release the references and hand the slot back to the
+            // producers.
+            sObjectArgs0[slot] = null;
+            sObjectArgs1[slot] = null;
+            sSequences.lazySet(slot, head + CAPACITY);
+            head++;
+
+            Log.println(level, tag, builder.toString());
+        }
+    }
+
+    /**
+     * Append @a format to @a builder, substituting each "{}" with the
+     * next argument, or as is if @a argKinds has LITERAL set.
+     */
+    private static void format(StringBuilder builder,
+                               String format,
+                               int argKinds,
+                               Object objectArg0,
+                               Object objectArg1,
+                               long longArg0,
+                               long longArg1) {
+        if ((argKinds & LITERAL) != 0) {
+            builder.append(format);
+            return;
+        }
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = format.indexOf("{}", start)) >= 0 && argIndex < 2) {
+            builder.append(format, start, placeholder);
+            if (argIndex == 0)
+                appendArg(builder, (argKinds & ARG0_IS_LONG) != 0, objectArg0, longArg0);
+            else
+                appendArg(builder, (argKinds & ARG1_IS_LONG) != 0, objectArg1, longArg1);
+            argIndex++;
+            start = placeholder + 2;
+        }
+        builder.append(format, start, format.length());
+    }
+
+    /**
+     * Append a single argument to @a builder.
+     */
+    private static void appendArg(StringBuilder builder,
+                                  boolean isLong,
+                                  Object objectArg,
+                                  long longArg) {
+        if (isLong)
+            builder.append(longArg);
+        else if (objectArg instanceof Throwable)
+            builder.append(Log.getStackTraceString((Throwable) objectArg));
+        else
+            builder.append(objectArg);
+    }
+}
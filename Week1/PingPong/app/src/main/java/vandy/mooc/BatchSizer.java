@@ -0,0 +1,137 @@
+package vandy.mooc;
+
+/**
+ * Chooses how many volleys the serving player plays per message in
+ * PlayPingPong's throughput mode.  Each message hand-off costs about
+ * the same however many volleys the message stands for, so playing
+ * K volleys per message divides the hand-off cost per volley by K.
+ *
+ * A fixed sizer always returns the same K.  An adaptive sizer
+ * measures, once per exchange of batches, how long its own batch
+ * took and how long the whole exchange took.  What's left after both
+ * players' batches is the cost of the two hand-offs, and K is set so
+ * that the hand-offs are about TARGET_OVERHEAD of the time per
+ * volley.
+ *
+ * A sizer is only used by the thread of the serving player.
+ */
+public class BatchSizer {
+    /**
+     * Pass as the batch size to adapt it.
+     */
+    public static final int ADAPTIVE = 0;
+
+    /**
+     * Largest batch an adaptive sizer chooses.
+     */
+    public static final int MAX_ADAPTIVE_BATCH = 4096;
+
+    /**
+     * Share of the time per volley an adaptive sizer aims to spend
+     * on hand-offs.
+     */
+    private static final double TARGET_OVERHEAD = 0.1;
+
+    /**
+     * Weight of the latest measurement in the moving averages.
+     */
+    private static final double SMOOTHING = 0.125;
+
+    /**
+     * The fixed batch size, or ADAPTIVE.
+     */
+    private final int mFixedBatch;
+
+    /**
+     * The clock batches are timed on.
+     */
+    private final NanoClock mClock;
+
+    /**
+     * The batch size chosen last.
+     */
+    private int mBatch;
+
+    /**
+     * When the previous batch started and finished, and how many
+     * volleys it played, or 0 before the first batch.
+     */
+    private long mBatchStartNanos;
+    private long mBatchEndNanos;
+    private int mBatchVolleys;
+
+    /**
+     * Moving averages of the cost of one volley and of the two
+     * hand-offs of an exchange, or -1 before they're measured.
+     */
+    private double mVolleyNanos = -1;
+    private double mHandOffNanos = -1;
+
+    /**
+     * Constructor for a sizer that always returns @a batch, or that
+     * adapts, timing batches on @a clock, if @a batch is ADAPTIVE.
+     */
+    public BatchSizer(int batch, NanoClock clock) {
+        if (batch < 0)
+            throw new IllegalArgumentException("negative batch size " + batch);
+        mFixedBatch = batch;
+        mClock = clock;
+        mBatch = batch == ADAPTIVE ? 1 : batch;
+    }
+
+    /**
+     * Return the size of the next batch, which starts now.
+     */
+    public int nextBatch() {
+        long nowNanos = mClock.nanoTime();
+        if (mFixedBatch == ADAPTIVE && mBatchVolleys > 0)
+            adapt(nowNanos);
+        mBatchStartNanos = nowNanos;
+        return mBatch;
+    }
+
+    /**
+     * Note that the batch started by nextBatch() has played
+     * @a volleys volleys.
+     */
+    public void batchPlayed(int volleys) {
+        mBatchEndNanos = mClock.nanoTime();
+        mBatchVolleys = volleys;
+    }
+
+    /**
+     * Return the batch size chosen last.
+     */
+    public int getBatchSize() {
+        return mBatch;
+    }
+
+    /**
+     * Update the estimates with the exchange that ended at
+     * @a nowNanos and choose the next batch size.
+     */
+    private void adapt(long nowNanos) {
+        long ownNanos = mBatchEndNanos - mBatchStartNanos;
+        long exchangeNanos = nowNanos - mBatchStartNanos;
+
+        // The other player played as many volleys as this one.
+        double volleyNanos = (double) ownNanos / mBatchVolleys;
+        double handOffNanos = Math.max(0, exchangeNanos - 2 * ownNanos);
+        mVolleyNanos = smooth(mVolleyNanos, volleyNanos);
+        mHandOffNanos = smooth(mHandOffNanos, handOffNanos);
+
+        // Each volley bears hand-off / (2 * batch) of the hand-offs.
+        double batch = mHandOffNanos
+            / (2 * TARGET_OVERHEAD * Math.max(1, mVolleyNanos));
+        mBatch = (int) Math.max(1, Math.min(MAX_ADAPTIVE_BATCH, Math.ceil(batch)));
+    }
+
+    /**
+     * Return the moving @a average updated with @a sample.
+     */
+    private static double smooth(double average, double sample) {
+        return average < 0
+            ? sample
+            : average + SMOOTHING * (sample - average);
+    }
+}
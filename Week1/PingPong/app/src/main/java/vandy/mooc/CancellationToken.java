@@ -0,0 +1,88 @@
+package vandy.mooc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signals that a game should stop as soon as possible.  One token is
+ * shared by everything that runs a game: the runner (PlayPingPong),
+ * the transport's player threads and the output scheduler.  Each of
+ * them either polls isCancelled() or registers a listener that stops
+ * it, e.g., by quitting a Looper.
+ *
+ * A token is cancelled at most once and records when, so the time
+ * from cancellation until the game is idle can be measured.
+ */
+public class CancellationToken {
+    /**
+     * Listeners to run on cancel().  Guarded by "this".
+     */
+    private final List<Runnable> mListeners = new ArrayList<Runnable>();
+
+    /**
+     * Set by cancel().
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * When cancel() was first called.  Written before mCancelled is
+     * set, which publishes it.
+     */
+    private long mCancelNanos;
+
+    /**
+     * Cancel the token and run the registered listeners on the
+     * calling thread.  Returns false if it was already cancelled.
+     */
+    public boolean cancel() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mCancelled)
+                return false;
+            mCancelNanos = System.nanoTime();
+            mCancelled = true;
+            listeners = new ArrayList<Runnable>(mListeners);
+            mListeners.clear();
+        }
+        for (Runnable listener : listeners)
+            listener.run();
+        return true;
+    }
+
+    /**
+     * Return true once the token is cancelled.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Return the System.nanoTime() at which the token was cancelled,
+     * or 0 if it hasn't been.
+     */
+    public long getCancelNanos() {
+        return mCancelled ? mCancelNanos : 0;
+    }
+
+    /**
+     * Run @a listener when the token is cancelled, or right away if
+     * it already is.  Listeners run on the thread that cancels, which
+     * may be the UI thread, so they must not block.
+     */
+    public void register(Runnable listener) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Stop running @a listener when the token is cancelled.
+     */
+    public synchronized void unregister(Runnable listener) {
+        mListeners.remove(listener);
+    }
+}
@@ -0,0 +1,48 @@
+package vandy.mooc;
+
+import java.io.PrintStream;
+
+/**
+ * Implements the OutputStrategy API by writing output to a
+ * PrintStream (System.out by default) and errors to System.err, so
+ * the ping-pong application can run on a plain JVM.
+ */
+public class ConsoleOutputStrategy implements OutputStrategy {
+    /**
+     * Where output is written.
+     */
+    private final PrintStream mOut;
+
+    /**
+     * Constructor writes output to System.out.
+     */
+    public ConsoleOutputStrategy() {
+        this(System.out);
+    }
+
+    /**
+     * Constructor initializes the field.
+     */
+    public ConsoleOutputStrategy(PrintStream out) {
+        mOut = out;
+    }
+
+    @Override
+    public void print(String outputString) {
+        mOut.print(outputString);
+    }
+
+    /**
+     * Output a volley's cached line.
+     */
+    @Override
+    public void printVolley(String player, int iteration) {
+        mOut.print(VolleyLines.lineOf(player, iteration));
+    }
+
+    @Override
+    public void errorLog(String javaFile,
+                         String errorMessage) {
+        System.err.println(javaFile + ": " + errorMessage);
+    }
+}
@@ -0,0 +1,90 @@
+package vandy.mooc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implements the OutputStrategy API by counting the strings and
+ * characters output instead of displaying them, which lets a
+ * headless run check that the expected output was produced.  Errors
+ * are counted and logged.
+ */
+public class CountingOutputStrategy implements OutputStrategy {
+    /**
+     * Number of strings output.
+     */
+    private final AtomicLong mPrints = new AtomicLong();
+
+    /**
+     * Number of characters output.
+     */
+    private final AtomicLong mChars = new AtomicLong();
+
+    /**
+     * Number of errors logged.
+     */
+    private final AtomicLong mErrors = new AtomicLong();
+
+    @Override
+    public void print(String outputString) {
+        mPrints.incrementAndGet();
+        mChars.addAndGet(outputString.length());
+    }
+
+    /**
+     * Count a volley, and the characters print() would have been
+     * given for it, without formatting it.
+     */
+    @Override
+    public void printVolley(String player, int iteration) {
+        mPrints.incrementAndGet();
+        // "<player>(<iteration>)\n"
+        mChars.addAndGet(player.length() + digits(iteration) + 3);
+    }
+
+    /**
+     * Return the number of characters in the decimal form of @a n.
+     */
+    private static int digits(int n) {
+        if (n == Integer.MIN_VALUE)
+            return 11;
+        int digits = n < 0 ? 2 : 1;
+        for (n = Math.abs(n); n >= 10; n /= 10)
+            digits++;
+        return digits;
+    }
+
+    @Override
+    public void errorLog(String javaFile,
+                         String errorMessage) {
+        mErrors.incrementAndGet();
+        AsyncLog.e(javaFile, errorMessage);
+    }
+
+    public long getPrintCount() {
+        return mPrints.get();
+    }
+
+    public long getCharCount() {
+        return mChars.get();
+    }
+
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * Reset all counts to zero.
+     */
+    public void reset() {
+        mPrints.set(0);
+        mChars.set(0);
+        mErrors.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return mPrints.get() + " prints, "
+            + mChars.get() + " chars, "
+            + mErrors.get() + " errors";
+    }
+}
@@ -0,0 +1,126 @@
+package vandy.mooc;
+
+/**
+ * @class DeterministicTransport
+ *
+ * @brief A VolleyTransport that runs both players on the calling
+ *        thread, driven by the scheduler of a VirtualClock.  Each
+ *        volley is delivered a fixed virtual hop latency after it's
+ *        sent, so a game takes no real time beyond the players' own
+ *        work and the order of every volley and line of output is
+ *        the same on every run, which makes games reproducible for
+ *        regression checks.  Other tasks on the same clock, e.g., a
+ *        PacedOutputStrategy releasing lines, run interleaved with
+ *        the volleys in virtual-time order.
+ */
+public class DeterministicTransport implements VolleyTransport {
+    /**
+     * Debugging tag
+     */
+    private final String TAG = getClass().getSimpleName();
+
+    /**
+     * The clock whose scheduler delivers the volleys.
+     */
+    private final VirtualClock mClock;
+
+    /**
+     * Virtual time from sending a volley to its delivery.
+     */
+    private final long mHopNanos;
+
+    /**
+     * Constructor delivers volleys on @a clock, @a hopNanos after
+     * they're sent.
+     */
+    public DeterministicTransport(VirtualClock clock, long hopNanos) {
+        mClock = clock;
+        mHopNanos = hopNanos;
+    }
+
+    /**
+     * One player, run by tasks on the clock.
+     */
+    class SimulatedPlayer implements Endpoint {
+        /**
+         * The game logic of this player.
+         */
+        private final Player mPlayer;
+
+        /**
+         * The other player.
+         */
+        private SimulatedPlayer mPeer;
+
+        /**
+         * Set once this player has stopped.
+         */
+        private boolean mStopped;
+
+        SimulatedPlayer(Player player) {
+            mPlayer = player;
+        }
+
+        /**
+         * Schedule delivery of @a volley to this player after the hop
+         * latency.
+         */
+        void deliver(final int volley) {
+            mClock.schedule(mHopNanos, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mStopped)
+                            mPlayer.onVolley(SimulatedPlayer.this, volley);
+                    }
+                });
+        }
+
+        @Override
+        public boolean send(int volley) {
+            if (mPeer.mStopped)
+                return false;
+            mPeer.deliver(volley);
+            return true;
+        }
+
+        @Override
+        public void stopPlaying() {
+            mStopped = true;
+        }
+    }
+
+    /**
+     * Run the clock's tasks until both players have stopped, the
+     * game is cancelled, or there's nothing left to run.  Tasks still
+     * scheduled afterwards, e.g., output that's due later, are left
+     * for the caller to run.
+     */
+    @Override
+    public void play(Player first,
+                     Player second,
+                     int firstVolley,
+                     CancellationToken cancellation) {
+        SimulatedPlayer firstPlayer = new SimulatedPlayer(first);
+        SimulatedPlayer secondPlayer = new SimulatedPlayer(second);
+        firstPlayer.mPeer = secondPlayer;
+        secondPlayer.mPeer = firstPlayer;
+
+        firstPlayer.deliver(firstVolley);
+        while (!(firstPlayer.mStopped && secondPlayer.mStopped)
+               && !cancellation.isCancelled())
+            if (!mClock.runOne()) {
+                AsyncLog.w(TAG, "game stalled with no volley in flight");
+                break;
+            }
+
+        // Volleys still scheduled, e.g., after a cancellation, are
+        // dropped when they come due.
+        firstPlayer.stopPlaying();
+        secondPlayer.stopPlaying();
+    }
+
+    @Override
+    public String toString() {
+        return "Deterministic";
+    }
+}
@@ -0,0 +1,301 @@
+package vandy.mooc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.view.Choreographer;
+
+/**
+ * @class FrameOutputScheduler
+ *
+ * @brief Collects lines of output from any thread and applies them to
+ *        the UI at most once per display frame via the Choreographer.
+ *        With a pacing delay, one line is released per delay so the
+ *        user can follow the game; with a pacing delay of zero
+ *        (throughput mode), all pending lines are coalesced into a
+ *        single update per frame.
+ *
+ *        Pending lines are held in a bounded queue, so output uses
+ *        constant memory however far the game runs ahead of the
+ *        display.  What happens when the queue is full is selected
+ *        by an OverflowPolicy.
+ */
+public class FrameOutputScheduler implements Choreographer.FrameCallback {
+    /**
+     * Applies coalesced output to the UI.  Called on the UI thread.
+     */
+    public interface Sink {
+        /**
+         * Apply the lines released in this frame.  @a text holds all
+         * of them and is only valid during the call; @a lastLine is
+         * the most recent one.
+         */
+        void apply(CharSequence text, String lastLine);
+    }
+
+    /**
+     * What print() does when the queue of pending lines is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the producer until there's room, so the game runs at
+         * the pace of the display and no output is lost.
+         */
+        BLOCK,
+
+        /**
+         * Discard the oldest pending line to make room.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Discard the new line and count it; the count is shown as a
+         * single summary line once there's room again.
+         */
+        SUMMARIZE
+    }
+
+    /**
+     * Maximum number of lines applied in one frame, which bounds the
+     * work done per frame in throughput mode.
+     */
+    private static final int MAX_LINES_PER_FRAME = 500;
+
+    /**
+     * The Choreographer of the UI thread.
+     */
+    private final Choreographer mChoreographer;
+
+    /**
+     * Where released lines are applied.
+     */
+    private final Sink mSink;
+
+    /**
+     * Lines waiting to be released.
+     */
+    private final ArrayBlockingQueue<String> mPending;
+
+    /**
+     * What print() does when mPending is full.
+     */
+    private final OverflowPolicy mPolicy;
+
+    /**
+     * Number of lines discarded (DROP_OLDEST) or merged into summary
+     * lines (SUMMARIZE) since this scheduler was created.
+     */
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * Number of merged lines not yet reported in a summary line.
+     */
+    private final AtomicLong mUnsummarized = new AtomicLong();
+
+    /**
+     * True while a frame callback is posted, so that print() posts at
+     * most one.
+     */
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+
+    /**
+     * Reused to coalesce the lines of a frame.  Accessed only on the
+     * UI thread.
+     */
+    private final StringBuilder mBatch = new StringBuilder();
+
+    /**
+     * Minimum time between released lines, or 0 for throughput mode.
+     */
+    private volatile long mPacingNanos;
+
+    /**
+     * Cancels the game whose output is being shown, or null.  Once
+     * it's cancelled, output is discarded instead of applied.
+     */
+    private volatile CancellationToken mCancellation;
+
+    /**
+     * Frame time at which the last line was released.  Accessed only
+     * on the UI thread.
+     */
+    private long mLastReleaseNanos;
+
+    /**
+     * Constructor must be called on the UI thread.  At most @a
+     * capacity lines are kept pending; beyond that @a policy applies.
+     */
+    public FrameOutputScheduler(Sink sink,
+                                long pacingMs,
+                                int capacity,
+                                OverflowPolicy policy) {
+        mChoreographer = Choreographer.getInstance();
+        mSink = sink;
+        mPending = new ArrayBlockingQueue<String>(capacity);
+        mPolicy = policy;
+        setPacing(pacingMs);
+    }
+
+    /**
+     * Set the minimum time between released lines, or 0 for
+     * throughput mode.
+     */
+    public void setPacing(long pacingMs) {
+        mPacingNanos = pacingMs * 1000000L;
+    }
+
+    /**
+     * Set the token that cancels the game whose output is printed
+     * from now on.  Output printed after it's cancelled, including a
+     * line whose print() was blocked at the time, is discarded.
+     */
+    public void setCancellationToken(CancellationToken cancellation) {
+        mCancellation = cancellation;
+    }
+
+    /**
+     * Return true if the game being shown has been cancelled.
+     */
+    private boolean isCancelled() {
+        CancellationToken cancellation = mCancellation;
+        return cancellation != null && cancellation.isCancelled();
+    }
+
+    /**
+     * Queue a line of output.  May be called from any thread; it
+     * blocks only with the BLOCK policy while the queue is full.
+     */
+    public void print(String line) {
+        if (isCancelled())
+            return;
+
+        switch (mPolicy) {
+        case BLOCK:
+            try {
+                mPending.put(line);
+            } catch (InterruptedException e) {
+                mDropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            break;
+        case DROP_OLDEST:
+            while (!mPending.offer(line))
+                if (mPending.poll() != null)
+                    mDropped.incrementAndGet();
+            break;
+        case SUMMARIZE:
+            // Report the lines merged so far before this one.
+            if (!offerSummary() || !mPending.offer(line)) {
+                merge();
+                return;
+            }
+            break;
+        }
+
+        if (mFrameScheduled.compareAndSet(false, true))
+            mChoreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Queue a summary line for the lines merged so far, if any.
+     * Returns false if there's no room for it.
+     */
+    private boolean offerSummary() {
+        long merged = mUnsummarized.getAndSet(0);
+        if (merged == 0)
+            return true;
+        if (mPending.offer("(" + merged + " lines merged)\n"))
+            return true;
+        mUnsummarized.addAndGet(merged);
+        return false;
+    }
+
+    /**
+     * Count a line that's merged into a summary line.
+     */
+    private void merge() {
+        mDropped.incrementAndGet();
+        mUnsummarized.incrementAndGet();
+    }
+
+    /**
+     * Discard the lines that haven't been released yet.  Producers
+     * blocked by the BLOCK policy are released.
+     */
+    public void clear() {
+        mPending.clear();
+        mUnsummarized.set(0);
+    }
+
+    /**
+     * Return the number of lines waiting to be released.
+     */
+    public int getQueueDepth() {
+        return mPending.size();
+    }
+
+    /**
+     * Return the number of lines discarded or merged into summary
+     * lines since this scheduler was created.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Hook method called back by the Choreographer on the UI thread
+     * to release pending lines.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled.set(false);
+
+        // Lines that got in after the game was cancelled (e.g., from
+        // a print() that was blocked by a full queue) are stale.
+        if (isCancelled()) {
+            clear();
+            return;
+        }
+
+        long pacingNanos = mPacingNanos;
+        String lastLine = null;
+        if (pacingNanos == 0) {
+            for (int i = 0; i < MAX_LINES_PER_FRAME; i++) {
+                String line = mPending.poll();
+                if (line == null)
+                    break;
+                mBatch.append(line);
+                lastLine = line;
+            }
+        } else if (frameTimeNanos - mLastReleaseNanos >= pacingNanos) {
+            lastLine = mPending.poll();
+            if (lastLine != null) {
+                mBatch.append(lastLine);
+                mLastReleaseNanos = frameTimeNanos;
+            }
+        }
+
+        if (lastLine != null) {
+            mSink.apply(mBatch, lastLine);
+            mBatch.setLength(0);
+        }
+
+        // Don't leave merged lines unreported if the game has gone
+        // quiet.
+        if (mPolicy == OverflowPolicy.SUMMARIZE && mPending.isEmpty())
+            offerSummary();
+
+        // Come back when the next line is due.
+        if (!mPending.isEmpty()
+            && mFrameScheduled.compareAndSet(false, true)) {
+            long waitNanos = mLastReleaseNanos + pacingNanos - frameTimeNanos;
+            if (pacingNanos == 0 || waitNanos <= 0)
+                mChoreographer.postFrameCallback(this);
+            else
+                mChoreographer.postFrameCallbackDelayed(this,
+                                                        waitNanos / 1000000L);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package vandy.mooc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class HandlerTransport
+ *
+ * @brief The default VolleyTransport, which uses elements of the
+ *        Android HaMeR framework: each player runs in its own
+ *        HandlerThread and volleys are Messages sent to the other
+ *        player's Handler.
+ */
+public class HandlerTransport implements VolleyTransport {
+    /**
+     * Debugging tag
+     */
+    private final String TAG = getClass().getSimpleName();
+
+    /**
+     * Where the latency of each hop is recorded, or null.
+     */
+    private final HopLatencyStats mStats;
+
+    /**
+     * Constructor for a transport that doesn't record hop latencies.
+     */
+    public HandlerTransport() {
+        this(null);
+    }
+
+    /**
+     * Constructor for a transport that records the latency of each
+     * hop in @a stats, which must have room for two players.
+     */
+    public HandlerTransport(HopLatencyStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Return a volley Message for @a handler, stamped in arg2 with
+     * the low 32 bits of the send time.
+     */
+    static Message obtainVolley(Handler handler, int volley) {
+        return handler.obtainMessage(0, volley, (int) System.nanoTime());
+    }
+
+    /**
+     * Record the latency of the hop that delivered @a msg, a Message
+     * from obtainVolley(), in @a histogram if it isn't null.  The
+     * 32-bit difference is exact for hops shorter than about 2 s.
+     */
+    static void recordHop(LatencyHistogram histogram, Message msg) {
+        if (histogram != null)
+            histogram.record((int) System.nanoTime() - msg.arg2);
+    }
+
+    /**
+     * Runs one player in a HandlerThread.  The class (1) extends the
+     * HandlerThread superclass to enable it to run in the background
+     * and (2) implements the Handler.Callback interface so its
+     * handleMessage() method can be dispatched without requiring
+     * additional subclassing.
+     */
+    class PingPongThread extends HandlerThread
+        implements Handler.Callback, Endpoint {
+        /**
+         * The game logic of this player.
+         */
+        private final Player mPlayer;
+
+        /**
+         * Tells the player that's ready last to start the game, so
+         * neither player waits for the other before it loops.
+         */
+        private final StartupGate mStartupGate;
+
+        /**
+         * The volley to deliver to this player once both players are
+         * ready, or null if this player doesn't serve.
+         */
+        private final Integer mFirstVolley;
+
+        /**
+         * The Handler of this player.  Written before this player
+         * arrives at the StartupGate, which safely publishes it (see
+         * StartupGate).
+         */
+        private Handler mHandler;
+
+        /**
+         * The thread of the other player.
+         */
+        private PingPongThread mPeer;
+
+        /**
+         * Where this player records the hops it receives, or null.
+         */
+        private final LatencyHistogram mHopLatencies;
+
+        /**
+         * Constructor initializes the superclass and fields.
+         */
+        PingPongThread(Player player,
+                       StartupGate startupGate,
+                       Integer firstVolley,
+                       LatencyHistogram hopLatencies) {
+            super(player.getName());
+            mPlayer = player;
+            mHopLatencies = hopLatencies;
+            mStartupGate = startupGate;
+            mFirstVolley = firstVolley;
+        }
+
+        /**
+         * This hook method is dispatched after the HandlerThread has
+         * been started.  It performs ping-pong initialization prior
+         * to the HandlerThread running its event loop.
+         */
+        @Override
+        protected void onLooperPrepared() {
+            // Create and publish the Handler that will service this
+            // player.
+            mHandler = new Handler(getLooper(), this);
+
+            // Whichever player is ready last serves, by sending the
+            // first volley to the serving player's Handler.
+            if (mStartupGate.arrive()) {
+                PingPongThread server = mFirstVolley != null ? this : mPeer;
+                obtainVolley(server.mHandler, server.mFirstVolley).sendToTarget();
+            }
+        }
+
+        /**
+         * Hook method called back by HandlerThread to deliver a
+         * volley to the player.
+         */
+        @Override
+        public boolean handleMessage(Message reqMsg) {
+            recordHop(mHopLatencies, reqMsg);
+            mPlayer.onVolley(this, reqMsg.arg1);
+            return true;
+        }
+
+        /**
+         * Send a volley to the other player's Handler.
+         */
+        @Override
+        public boolean send(int volley) {
+            try {
+                // Returns false if the other player's Looper has quit.
+                return mPeer.mHandler.sendMessage
+                    (obtainVolley(mPeer.mHandler, volley));
+            } catch (RuntimeException e) {
+                // The exception can be thrown in case the thread to
+                // which this message is sent is already dead.
+                AsyncLog.w(TAG, "volley to a finished thread dropped: {}", e);
+                return false;
+            }
+        }
+
+        /**
+         * Shutdown the HandlerThread so the main PingPong thread can
+         * join with it.
+         */
+        @Override
+        public void stopPlaying() {
+            getLooper().quit();
+        }
+    }
+
+    /**
+     * Run each player in its own HandlerThread until both have
+     * stopped or @a cancellation is cancelled.
+     */
+    @Override
+    public void play(Player first,
+                     Player second,
+                     int firstVolley,
+                     CancellationToken cancellation) throws InterruptedException {
+        StartupGate startupGate = new StartupGate(2);
+        PingPongThread firstThread =
+            new PingPongThread(first, startupGate, firstVolley,
+                               mStats == null ? null : mStats.get(0));
+        PingPongThread secondThread =
+            new PingPongThread(second, startupGate, null,
+                               mStats == null ? null : mStats.get(1));
+        firstThread.mPeer = secondThread;
+        secondThread.mPeer = firstThread;
+
+        // Start both threads, which cause their Looper to loop.
+        firstThread.start();
+        secondThread.start();
+
+        // On cancellation quit both Loopers, which discards the
+        // volleys still queued.  quit() only waits for a Looper that
+        // is still being prepared.
+        Runnable quitter = quitter(firstThread, secondThread);
+        cancellation.register(quitter);
+
+        // Barrier synchronization to wait for all work to be done
+        // before returning.
+        try {
+            firstThread.join();
+            secondThread.join();
+        } catch (InterruptedException e) {
+            firstThread.quit();
+            secondThread.quit();
+            throw e;
+        } finally {
+            cancellation.unregister(quitter);
+        }
+    }
+
+    /**
+     * Return a Runnable that quits the Loopers of @a first and
+     * @a second.
+     */
+    private static Runnable quitter(final HandlerThread first,
+                                    final HandlerThread second) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                first.quit();
+                second.quit();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Handler";
+    }
+}
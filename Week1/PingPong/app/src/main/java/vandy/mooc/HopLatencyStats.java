@@ -0,0 +1,101 @@
+package vandy.mooc;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects the latency of each hop (a volley sent by one player and
+ * handled by the other) in a LatencyHistogram per player, so each
+ * histogram has a single writer.  sample() summarizes the hops since
+ * the previous sample, for a live display.
+ */
+public class HopLatencyStats {
+    /**
+     * One histogram per player, written by that player's thread.
+     */
+    private final LatencyHistogram[] mHistograms;
+
+    /**
+     * Reused by sample(): the counts now, at the previous sample, and
+     * the difference.  Guarded by "this".
+     */
+    private long[] mCurrent = new long[LatencyHistogram.BUCKETS];
+    private long[] mPrevious = new long[LatencyHistogram.BUCKETS];
+    private final long[] mWindow = new long[LatencyHistogram.BUCKETS];
+
+    /**
+     * When the previous sample was taken.  Guarded by "this".
+     */
+    private long mPreviousNanos = System.nanoTime();
+
+    /**
+     * Constructor creates a histogram for each of @a players players.
+     */
+    public HopLatencyStats(int players) {
+        mHistograms = new LatencyHistogram[players];
+        for (int i = 0; i < players; i++)
+            mHistograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Return the histogram of @a player, which only that player's
+     * thread may record into.
+     */
+    public LatencyHistogram get(int player) {
+        return mHistograms[player];
+    }
+
+    /**
+     * Return p50, p99, max and volleys per second of the hops since
+     * the previous call, or null if there were none.  The max is the
+     * largest hop recorded, and the percentiles never exceed it.
+     */
+    public synchronized String sample() {
+        long nowNanos = System.nanoTime();
+        Arrays.fill(mCurrent, 0);
+        for (LatencyHistogram histogram : mHistograms)
+            histogram.addTo(mCurrent);
+
+        int highest = -1;
+        for (int i = 0; i < mWindow.length; i++) {
+            mWindow[i] = mCurrent[i] - mPrevious[i];
+            if (mWindow[i] > 0)
+                highest = i;
+        }
+        long max = 0;
+        for (LatencyHistogram histogram : mHistograms)
+            max = Math.max(max, histogram.takeWindowMax());
+        long hops = LatencyHistogram.totalOf(mWindow);
+        long elapsedNanos = nowNanos - mPreviousNanos;
+
+        long[] swap = mPrevious;
+        mPrevious = mCurrent;
+        mCurrent = swap;
+        mPreviousNanos = nowNanos;
+
+        if (hops == 0)
+            return null;
+        // The window's maximum is lost only if its hops all raced
+        // with the previous sample, in which case the upper bound of
+        // its highest bucket is the best estimate left.
+        if (max == 0)
+            max = LatencyHistogram.upperBoundOf(highest);
+        return String.format(Locale.US,
+                             "p50 %s\np99 %s\nmax %s\n%.0f volleys/s",
+                             format(LatencyHistogram.valueAtPercentile(mWindow, 50, max)),
+                             format(LatencyHistogram.valueAtPercentile(mWindow, 99, max)),
+                             format(max),
+                             hops * 1e9 / elapsedNanos);
+    }
+
+    /**
+     * Format a latency in the most readable unit.
+     */
+    private static String format(long nanos) {
+        if (nanos < 10000)
+            return nanos + " ns";
+        if (nanos < 10000000)
+            return nanos / 1000 + " us";
+        return nanos / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,168 @@
+package vandy.mooc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with log-linear
+ * buckets: exact below 16 ns, then 8 buckets per power of two, so
+ * any value is reported within 12.5%.  Values of about a minute or
+ * more go in the last bucket.
+ *
+ * Recording is a bucket lookup and an ordered store, cheap enough to
+ * leave on, but each histogram must have a single writer thread.
+ * Any thread may read it at any time with addTo().
+ */
+public class LatencyHistogram {
+    /**
+     * Values below this get a bucket each.
+     */
+    private static final int LINEAR_LIMIT = 16;
+
+    /**
+     * log2 of the number of buckets per power of two above
+     * LINEAR_LIMIT.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * log2 of LINEAR_LIMIT.
+     */
+    private static final int LINEAR_BITS = 4;
+
+    /**
+     * Largest power of two covered, i.e., values up to about 68 s.
+     */
+    private static final int MAX_EXPONENT = 35;
+
+    /**
+     * Number of buckets.
+     */
+    public static final int BUCKETS =
+        LINEAR_LIMIT + ((MAX_EXPONENT - LINEAR_BITS + 1) << SUB_BUCKET_BITS);
+
+    /**
+     * The count of each bucket.
+     */
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The largest value recorded.
+     */
+    private volatile long mMax;
+
+    /**
+     * The largest value recorded since the last takeWindowMax().
+     */
+    private volatile long mWindowMax;
+
+    /**
+     * Record one latency.  Must only be called by the histogram's
+     * writer thread.
+     */
+    public void record(long nanos) {
+        int bucket = bucketOf(nanos);
+        // A single writer can increment with a plain read and an
+        // ordered write instead of a CAS.
+        mCounts.lazySet(bucket, mCounts.get(bucket) + 1);
+        if (nanos > mMax)
+            mMax = nanos;
+        if (nanos > mWindowMax)
+            mWindowMax = nanos;
+    }
+
+    /**
+     * Add the bucket counts of this histogram to @a counts, which
+     * must have BUCKETS elements.
+     */
+    public void addTo(long[] counts) {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] += mCounts.get(i);
+    }
+
+    /**
+     * Return the largest value recorded.
+     */
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * Return the largest value recorded since the previous call and
+     * start a new window.  The reader's reset races with the writer,
+     * so a value recorded right at the boundary may be counted in
+     * either window, or lost, but the result is always a value that
+     * was actually recorded, or 0.
+     */
+    public long takeWindowMax() {
+        long max = mWindowMax;
+        mWindowMax = 0;
+        return max;
+    }
+
+    /**
+     * Return the bucket of @a nanos.
+     */
+    static int bucketOf(long nanos) {
+        if (nanos < LINEAR_LIMIT)
+            return nanos < 0 ? 0 : (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS))
+            & ((1 << SUB_BUCKET_BITS) - 1);
+        return LINEAR_LIMIT
+            + ((exponent - LINEAR_BITS) << SUB_BUCKET_BITS)
+            + subBucket;
+    }
+
+    /**
+     * Return the largest value that falls in @a bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+        int exponent = ((bucket - LINEAR_LIMIT) >> SUB_BUCKET_BITS) + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_LIMIT) & ((1 << SUB_BUCKET_BITS) - 1);
+        return (1L << exponent)
+            + ((long) (subBucket + 1) << (exponent - SUB_BUCKET_BITS))
+            - 1;
+    }
+
+    /**
+     * Return the total of @a counts.
+     */
+    public static long totalOf(long[] counts) {
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        return total;
+    }
+
+    /**
+     * Return the value at @a percentile (0-100) of the bucket counts
+     * in @a counts, as the upper bound of its bucket, or 0 if
+     * @a counts is empty.
+     */
+    public static long valueAtPercentile(long[] counts, double percentile) {
+        long total = totalOf(counts);
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return upperBoundOf(i);
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+
+    /**
+     * Return the value at @a percentile (0-100) of @a counts as
+     * above, but no more than @a max, the largest value recorded,
+     * which the upper bound of its bucket may exceed.
+     */
+    public static long valueAtPercentile(long[] counts, double percentile, long max) {
+        return Math.min(valueAtPercentile(counts, percentile), max);
+    }
+}
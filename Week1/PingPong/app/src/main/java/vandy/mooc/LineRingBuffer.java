@@ -0,0 +1,124 @@
+package vandy.mooc;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity ring buffer of lines of text.  Text is appended
+ * the way TextView.append() would show it: it's split at newlines,
+ * and text that doesn't end in a newline leaves the last line open
+ * so the next append continues it.  Once the buffer is full, each
+ * new line overwrites the oldest one, so memory stays bounded
+ * however much text is appended.  Not thread-safe; MainActivity
+ * only uses it on the UI thread.
+ */
+public class LineRingBuffer {
+    /**
+     * The lines, with the oldest at mHead.
+     */
+    private final String[] mLines;
+
+    /**
+     * Index of the oldest line.
+     */
+    private int mHead;
+
+    /**
+     * Number of lines held.
+     */
+    private int mSize;
+
+    /**
+     * True if the newest line hasn't been terminated by a newline.
+     */
+    private boolean mLastLineOpen;
+
+    /**
+     * Total number of lines overwritten since the last clear().
+     */
+    private long mOverwritten;
+
+    /**
+     * Constructor allocates room for @a capacity lines.
+     */
+    public LineRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        mLines = new String[capacity];
+    }
+
+    /**
+     * Append @a text, splitting it into lines.
+     */
+    public void append(CharSequence text) {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++)
+            if (text.charAt(i) == '\n') {
+                appendPiece(text.subSequence(start, i).toString(), true);
+                start = i + 1;
+            }
+        if (start < text.length())
+            appendPiece(text.subSequence(start, text.length()).toString(),
+                        false);
+    }
+
+    /**
+     * Append one piece of a line, which ends the line if @a closed.
+     */
+    private void appendPiece(String piece, boolean closed) {
+        if (mLastLineOpen) {
+            int last = index(mSize - 1);
+            mLines[last] = mLines[last].concat(piece);
+        } else if (mSize < mLines.length) {
+            mLines[index(mSize++)] = piece;
+        } else {
+            // Full: overwrite the oldest line.
+            mLines[mHead] = piece;
+            mHead = index(1);
+            mOverwritten++;
+        }
+        mLastLineOpen = !closed;
+    }
+
+    /**
+     * Return the @a position'th line, where 0 is the oldest.
+     */
+    public String get(int position) {
+        if (position < 0 || position >= mSize)
+            throw new IndexOutOfBoundsException("position " + position
+                                                + ", size " + mSize);
+        return mLines[index(position)];
+    }
+
+    /**
+     * Return the number of lines held.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Return the number of lines overwritten since the last clear().
+     */
+    public long getOverwrittenCount() {
+        return mOverwritten;
+    }
+
+    /**
+     * Remove all lines.
+     */
+    public void clear() {
+        Arrays.fill(mLines, null);
+        mHead = 0;
+        mSize = 0;
+        mLastLineOpen = false;
+        mOverwritten = 0;
+    }
+
+    /**
+     * Map a position relative to the oldest line to an array index.
+     */
+    private int index(int position) {
+        int i = mHead + position;
+        return i < mLines.length ? i : i - mLines.length;
+    }
+}
@@ -0,0 +1,78 @@
+package vandy.mooc;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Adapter that backs the ping-pong log in MainActivity with a
+ * LineRingBuffer.  The ListView only binds the rows that are
+ * visible and recycles their TextViews, so the cost of an update
+ * doesn't grow with the length of the game.
+ */
+public class LogLineAdapter extends BaseAdapter {
+    /**
+     * Inflates the rows.
+     */
+    private final LayoutInflater mInflater;
+
+    /**
+     * The most recent lines of the log.
+     */
+    private final LineRingBuffer mLines;
+
+    /**
+     * Constructor keeps at most @a capacity lines.
+     */
+    public LogLineAdapter(Context context, int capacity) {
+        mInflater = LayoutInflater.from(context);
+        mLines = new LineRingBuffer(capacity);
+    }
+
+    /**
+     * Append text to the log, as TextView.append() would.
+     */
+    public void append(CharSequence text) {
+        mLines.append(text);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Empty the log.
+     */
+    public void clear() {
+        mLines.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mLines.size();
+    }
+
+    @Override
+    public String getItem(int position) {
+        return mLines.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position,
+                        View convertView,
+                        ViewGroup parent) {
+        TextView row = (TextView) convertView;
+        if (row == null)
+            row = (TextView) mInflater.inflate(R.layout.log_line,
+                                               parent,
+                                               false);
+        row.setText(mLines.get(position));
+        return row;
+    }
+}
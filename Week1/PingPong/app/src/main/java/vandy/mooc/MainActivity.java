@@ -1,15 +1,16 @@
 package vandy.mooc;
 
-import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Activity;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ListView;
+import android.widget.Spinner;
 import android.widget.TextView;
 
 /**
@@ -18,9 +19,15 @@ import android.widget.TextView;
  */
 public class MainActivity extends Activity {
     /** 
-     * A plain TextView that PingPong will be "played" upon. 
+     * A plain list of lines that PingPong will be "played" upon. 
      */
-    private TextView mPingPongTextViewLog;
+    private ListView mPingPongLogView;
+
+    /**
+     * Holds the most recent lines of the log shown in
+     * mPingPongLogView.
+     */
+    private LogLineAdapter mPingPongLog;
 
     /** 
      * A more colorful TextView that prints "Ping" or "Pong" to the
@@ -28,11 +35,23 @@ public class MainActivity extends Activity {
      */
     private TextView mPingPongColorOutput;
 
+    /**
+     * Shows live hop latency percentiles and volleys/sec next to
+     * mPingPongColorOutput.
+     */
+    private TextView mPingPongStats;
+
     /** 
      * Button that allows playing and resetting the concurrent
      * ping/pong algorithm.
      */
     private Button mPlayButton;
+
+    /**
+     * Spinner that selects the VolleyTransport the next game is
+     * played over.
+     */
+    private Spinner mTransportSpinner;
     
     /**
      * Possible states that the ping/pong program can be in.
@@ -63,6 +82,104 @@ public class MainActivity extends Activity {
      */
     private int mMaxIterations = 5;
 
+    /**
+     * Number of volleys each player plays per message.  1 alternates
+     * single pings and pongs; larger values, or BatchSizer.ADAPTIVE,
+     * play in throughput mode.
+     */
+    private int mBatchSize = 1;
+
+    /**
+     * Milliseconds between lines shown on the display, so the "ping"
+     * and "pong" output is visually discernable by the user.  0 shows
+     * output as fast as the display refreshes (throughput mode).
+     */
+    private long mOutputPacingMs = 500;
+
+    /**
+     * Maximum number of lines waiting to be displayed.
+     */
+    private int mOutputCapacity = 64;
+
+    /**
+     * What happens to output when mOutputCapacity lines are already
+     * waiting.  BLOCK slows the game down to the pace of the display.
+     */
+    private FrameOutputScheduler.OverflowPolicy mOutputPolicy =
+        FrameOutputScheduler.OverflowPolicy.BLOCK;
+
+    /**
+     * Applies output to the display at most once per frame.
+     */
+    private FrameOutputScheduler mOutputScheduler;
+
+    /**
+     * Maximum number of lines kept in the log.  Older lines are
+     * discarded, so long games use constant memory.
+     */
+    private int mLogCapacity = 1000;
+
+    /**
+     * Runs the games.  A single long-lived thread, so starting a game
+     * doesn't create one.
+     */
+    private ExecutorService mGameExecutor;
+
+    /**
+     * Cancels the game started last, or null if none has been.
+     */
+    private CancellationToken mGameCancellation;
+
+    /**
+     * Handler transport whose player threads are reused by every
+     * game played over it.
+     */
+    private PooledHandlerTransport mPooledHandlerTransport;
+
+    /**
+     * Hop latencies recorded by the Handler transports.
+     */
+    private final HopLatencyStats mHopStats = new HopLatencyStats(2);
+
+    /**
+     * How often the stats panel is refreshed while a game runs.
+     */
+    private static final long STATS_PERIOD_MS = 250;
+
+    /**
+     * Posts mStatsUpdater on the UI thread.
+     */
+    private final Handler mStatsHandler = new Handler();
+
+    /**
+     * Refreshes the stats panel every STATS_PERIOD_MS until the game
+     * is over.
+     */
+    private final Runnable mStatsUpdater = new Runnable() {
+            @Override
+            public void run() {
+                updateStats();
+                mStatsHandler.postDelayed(this, STATS_PERIOD_MS);
+            }
+        };
+
+    /**
+     * Number of the game started last, so the end of an earlier game
+     * doesn't stop the stats of a later one.  Only used on the UI
+     * thread.
+     */
+    private int mStatsGame;
+
+    /**
+     * Ring sizes played by the token ring benchmark.
+     */
+    private int[] mRingSizes = { 2, 4, 8, 16, 32 };
+
+    /**
+     * Number of laps the token travels around each ring.
+     */
+    private int mRingLaps = 1000;
+
     /**
      * Hook method called when the Activity is first launched.
      */
@@ -75,16 +192,54 @@ public class MainActivity extends Activity {
 
         // Cache various TextView and Button widgets used to interact
         // with the user.
-        mPingPongTextViewLog =
-            (TextView) findViewById(R.id.pingpong_text_output);
+        mPingPongLogView =
+            (ListView) findViewById(R.id.pingpong_text_output);
         mPingPongColorOutput =
             (TextView) findViewById(R.id.pingpong_color_output);
+        mPingPongStats =
+            (TextView) findViewById(R.id.pingpong_stats);
         mPlayButton =
             (Button) findViewById(R.id.play_button);
+        mTransportSpinner =
+            (Spinner) findViewById(R.id.transport_spinner);
+
+        // Create the long-lived threads that games run on.
+        mGameExecutor = Executors.newSingleThreadExecutor();
+        mPooledHandlerTransport = new PooledHandlerTransport(mHopStats);
+
+        // Back the log with a fixed-capacity buffer of lines.
+        mPingPongLog = new LogLineAdapter(this, mLogCapacity);
+        mPingPongLogView.setAdapter(mPingPongLog);
 
         // Create a new OutputStrategy that displays the ping and pong
         // output to the user.
-        mOutputStrategy = new OutputStrategy(this);
+        mOutputStrategy = new AndroidOutputStrategy(this);
+
+        // Create the scheduler that paces and coalesces the output.
+        FrameOutputScheduler.Sink sink = new FrameOutputScheduler.Sink() {
+                @Override
+                public void apply(CharSequence text, String lastLine) {
+                    showOutput(text, lastLine);
+                }
+            };
+        mOutputScheduler = new FrameOutputScheduler(sink,
+                                                    mOutputPacingMs,
+                                                    mOutputCapacity,
+                                                    mOutputPolicy);
+    }
+
+    /**
+     * Hook method called when the Activity is being destroyed.
+     */
+    @Override
+    protected void onDestroy() {
+        // Stop the game, stop refreshing the stats and release the
+        // long-lived game and player threads.
+        cancelGame();
+        mStatsHandler.removeCallbacks(mStatsUpdater);
+        mGameExecutor.shutdownNow();
+        mPooledHandlerTransport.release();
+        super.onDestroy();
     }
 
     /** 
@@ -103,87 +258,137 @@ public class MainActivity extends Activity {
         switch(mProgramState) {
         case RUN:
             // Create the object that plays ping-pong.
-            Runnable runnable = new PlayPingPong(mMaxIterations,
-                                                 mOutputStrategy);
-
-            // Create and start a background thread that uses the
-            // Android HaMeR concurrency framework to run calls to
-            // print() on the UI thread after a short 0.5 sec delay.
-            mDelayedOutputThread =
-                new DelayedOutputThread(runnable);
-            mDelayedOutputThread.start();
-
-            mPlayButton.setText(R.string.reset_button);
-            mProgramState = ProgramState.RESET;
+            PlayPingPong playPingPong = new PlayPingPong(mMaxIterations,
+                                                         mOutputStrategy,
+                                                         makeTransport(),
+                                                         mBatchSize);
+            startGame(playPingPong, playPingPong.getCancellationToken());
             break;
         case RESET:
-            // Stop the thread that handles calls to print();
-            mDelayedOutputThread.interrupt();
+            // Stop the game: its players quit and its queued volleys
+            // are discarded.
+            cancelGame();
+
+            // Discard output that hasn't been displayed yet, which
+            // also unblocks a player waiting for room.
+            AsyncLog.i("MainActivity",
+                       "{} lines pending at reset, {} dropped so far",
+                       Integer.valueOf(mOutputScheduler.getQueueDepth()),
+                       mOutputScheduler.getDroppedCount());
+            mOutputScheduler.clear();
+            // Stop the stats, and don't let the end of the game
+            // show them again.
+            mStatsGame++;
+            mStatsHandler.removeCallbacks(mStatsUpdater);
+            mPingPongStats.setText("");
         	
             // Reset the color output.
             mPingPongColorOutput.setText("");
             mPingPongColorOutput.setBackgroundColor(Color.TRANSPARENT);
         	
-            // Empty TextView and prepare the UI to start another run
+            // Empty the log and prepare the UI to start another run
             // of the concurrent ping/pong algorithm.
-            mPingPongTextViewLog.setText(R.string.empty_string);
+            mPingPongLog.clear();
             mPlayButton.setText(R.string.play_button);
             mProgramState = ProgramState.RUN;
             break;
         }
     }
 
-    /** 
-     * Instance of DelayedOutputThread that's described below.
+    /**
+     * Called when the "Token Ring" button is clicked.  Plays the
+     * token ring benchmark for each ring size, unless a game is
+     * already running.
      */
-    private DelayedOutputThread mDelayedOutputThread;
-    
-    /*
-     * Defines a HandlerThread that waits 0.5 seconds between handling
-     * messages so the "ping" and "pong" output is visually
-     * discernable by the user.
+    public void ringButtonClicked(View view) {
+        if (mProgramState != ProgramState.RUN)
+            return;
+        CancellationToken cancellation = new CancellationToken();
+        startGame(TokenRing.sweep(mRingSizes,
+                                  mRingLaps,
+                                  mOutputStrategy,
+                                  cancellation),
+                  cancellation);
+    }
+
+    /**
+     * Factory method that returns the VolleyTransport selected in the
+     * transport spinner, in the order of the R.array.transports
+     * entries.
      */
-    class DelayedOutputThread extends HandlerThread {
-        /**
-         * Handler that's used to post Runnables to the
-         * HandlerThread's Looper.
-         */
-        private volatile Handler mDelayedOutputHandler;
+    private VolleyTransport makeTransport() {
+        switch (mTransportSpinner.getSelectedItemPosition()) {
+        case 1:
+            return new HandlerTransport(mHopStats);
+        case 2:
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.PARK);
+        case 3:
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.YIELD);
+        case 4:
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.SPIN_THEN_PARK);
+        default:
+            return mPooledHandlerTransport;
+        }
+    }
 
-        /**
-         * Completion hook that's dispatched once the Handler is
-         * initialized.
-         */
-        private final Runnable mCompletionHook;
+    /**
+     * Start running the given game, which stops once @a cancellation
+     * is cancelled, and switch the play button to "reset".
+     */
+    private void startGame(final Runnable game,
+                           final CancellationToken cancellation) {
+        mGameCancellation = cancellation;
+        final int statsGame = ++mStatsGame;
 
-        /**
-         * Constructor initializes the super class and completion hook.
-         */
-        DelayedOutputThread(Runnable completionHook) {
-            super ("DelayedOutputThread");
-            mCompletionHook = completionHook;
-        }
-            
-        /**
-         * Hook method called back by HandlerThread.run() after the
-         * Looper is initialized.
-         */
-        protected void onLooperPrepared() {
-            // Create the Handler in the context of the
-            // HandlerThread's Looper.
-            mDelayedOutputHandler = new Handler();
+        // Run the game on the game thread, after any game still
+        // running.  Its output is handed to the FrameOutputScheduler,
+        // which discards it once the game is cancelled.
+        mGameExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mOutputScheduler.setCancellationToken(cancellation);
+                        game.run();
+                    } finally {
+                        // Stop refreshing the stats panel once the
+                        // game is over, after showing its last hops.
+                        mStatsHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (statsGame != mStatsGame)
+                                        return;
+                                    mStatsHandler.removeCallbacks(mStatsUpdater);
+                                    updateStats();
+                                }
+                            });
+                    }
+                }
+            });
 
-            // Start a Thread to run the mRunnable.
-            new Thread(mCompletionHook).start();
-        }
+        // Refresh the stats panel while the game runs.
+        mStatsHandler.removeCallbacks(mStatsUpdater);
+        mStatsHandler.post(mStatsUpdater);
 
-        /**
-         * Run the specified command in the context of the
-         * HandlerThread's Looper.
-         */
-        public void runOnDelayedOutputThread(Runnable command) {
-            mDelayedOutputHandler.post(command);
-        }
+        mPlayButton.setText(R.string.reset_button);
+        mProgramState = ProgramState.RESET;
+    }
+
+    /**
+     * Show the hop latencies since the last update, if there were
+     * any hops.
+     */
+    private void updateStats() {
+        String stats = mHopStats.sample();
+        if (stats != null)
+            mPingPongStats.setText(stats);
+    }
+
+    /**
+     * Cancel the game started last, if any.
+     */
+    private void cancelGame() {
+        if (mGameCancellation != null)
+            mGameCancellation.cancel();
     }
 
     /**
@@ -193,48 +398,44 @@ public class MainActivity extends Activity {
      * strings containing "pong".
      * 
      * This method is called from a background thread and will not
-     * block the caller. However, the code to display this output will
-     * be posted to the UI thread in such a way that any changes to
-     * the UI will be spaced out by 0.5 seconds, thereby giving the
-     * user an appropriate amount of time to appreciate the ping'ing
-     * and the pong'ing that is happening.
+     * block the caller. However, the output is applied to the UI
+     * thread by the FrameOutputScheduler, which spaces the lines out
+     * by mOutputPacingMs, thereby giving the user an appropriate
+     * amount of time to appreciate the ping'ing and the pong'ing
+     * that is happening.
      */
     public void print(final String output) {
-        // Post a Runnable task that prints the output with a 0.5
-        // second delay between displaying the output.
-    	mDelayedOutputThread.runOnDelayedOutputThread(new Runnable() {
-            @Override
-            public void run() {
-                // Post a Runnable whose run() method instructs the UI
-                // to print the output.
-                runOnUiThread(new Runnable() {	
-                    @Override
-                    public void run() {
-                        mPingPongTextViewLog.append(output);
-				        
-                        // If we encounter a ping, throw it up on the
-                        // screen in color.
-                        if (output.toLowerCase(Locale.US).contains("ping")) {
-                            mPingPongColorOutput.setBackgroundColor(Color.WHITE);
-                            mPingPongColorOutput.setTextColor(Color.BLACK);
-                            mPingPongColorOutput.setText("PING");
-                        }
-                        else if (output.toLowerCase(Locale.US).contains("pong")) {
-                            mPingPongColorOutput.setBackgroundColor(Color.BLACK);
-                            mPingPongColorOutput.setTextColor(Color.WHITE);
-                            mPingPongColorOutput.setText("PONG");
-                        }
-                    }
-                });
-				
-                // Wait 0.5 seconds before handling the next message.
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    // If we get interrupted, stop the looper.
-                    Looper.myLooper().quit();
-                }
-            }
-        });
+        mOutputScheduler.print(output);
+    }
+
+    /**
+     * Append the output released in a frame to the text log and show
+     * the last "ping" or "pong" in color.  Runs on the UI thread.
+     */
+    private void showOutput(CharSequence text, String lastLine) {
+        mPingPongLog.append(text);
+
+        // If we encounter a ping, throw it up on the screen in color.
+        if (containsIgnoreCase(lastLine, "ping")) {
+            mPingPongColorOutput.setBackgroundColor(Color.WHITE);
+            mPingPongColorOutput.setTextColor(Color.BLACK);
+            mPingPongColorOutput.setText("PING");
+        }
+        else if (containsIgnoreCase(lastLine, "pong")) {
+            mPingPongColorOutput.setBackgroundColor(Color.BLACK);
+            mPingPongColorOutput.setTextColor(Color.WHITE);
+            mPingPongColorOutput.setText("PONG");
+        }
+    }
+
+    /**
+     * Return true if @a s contains @a word, ignoring case, without
+     * allocating a lower-cased copy of @a s.
+     */
+    private static boolean containsIgnoreCase(String s, String word) {
+        for (int i = 0; i + word.length() <= s.length(); i++)
+            if (s.regionMatches(true, i, word, 0, word.length()))
+                return true;
+        return false;
     }
 }
@@ -0,0 +1,24 @@
+package vandy.mooc;
+
+/**
+ * A source of nanosecond timestamps, so that code which measures or
+ * paces time can run either on real time (SYSTEM) or on the
+ * simulated time of a VirtualClock.
+ */
+public interface NanoClock {
+    /**
+     * The real clock, i.e., System.nanoTime().
+     */
+    NanoClock SYSTEM = new NanoClock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+    /**
+     * Return the current time in nanoseconds, measured from an
+     * arbitrary origin.
+     */
+    long nanoTime();
+}
@@ -0,0 +1,22 @@
+package vandy.mooc;
+
+/**
+ * Implements the OutputStrategy API by discarding all output, so
+ * that benchmarks and profiles of the game logic aren't dominated by
+ * formatting and I/O.  Errors are still logged.
+ */
+public class NoOpOutputStrategy implements OutputStrategy {
+    @Override
+    public void print(String outputString) {
+    }
+
+    @Override
+    public void printVolley(String player, int iteration) {
+    }
+
+    @Override
+    public void errorLog(String javaFile,
+                         String errorMessage) {
+        AsyncLog.e(javaFile, errorMessage);
+    }
+}
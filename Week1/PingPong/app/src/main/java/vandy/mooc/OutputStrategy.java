@@ -1,55 +1,30 @@
 package vandy.mooc;
 
-import java.lang.ref.WeakReference;
-
-import android.util.Log;
-
 /**
- * Implements a API for outputting data to Android UI thread and
- * synchronizing on thread completion in the ping-pong application.
+ * Defines an API for outputting data and logging errors in the
+ * ping-pong application.  Implementations decide where the output
+ * goes, so the game logic can run on an Android device
+ * (AndroidOutputStrategy) or on a plain JVM
+ * (ConsoleOutputStrategy, NoOpOutputStrategy,
+ * CountingOutputStrategy).
  */
-public class OutputStrategy {
-
+public interface OutputStrategy {
     /**
-     * Debugging tag
+     * Output the string.  May be called from any thread.
      */
-    private final String TAG = getClass().getSimpleName();
-
-    /** 
-     * Define a WeakReference to avoid memory leaks.  See
-     * www.androiddesignpatterns.com/2013/01/inner-class-handler-memory-leak.html
-     * for an explanation of why we need this WeakReference.
-     */
-    private final WeakReference<MainActivity> mOuterClass;
+    void print(String outputString);
 
     /**
-     * Constructor initializes the field.
-     */
-    public OutputStrategy(final MainActivity activity) {
-        // Keep track of the MainActivity.
-        mOuterClass =
-            new WeakReference<MainActivity> (activity);
-    }
-
-    /** 
-     * Output the string from a background thread to the Android
-     * display managed by the UI thread.
+     * Output one volley of the game, i.e., "<player>(<iteration>)\n".
+     * Kept separate from print() so that strategies which don't
+     * display the text can avoid formatting it, which keeps the
+     * volley path free of allocation.  May be called from any thread.
      */
-    public void print(final String outputString) {
-        // Call the MainActivity.print() method, which create a
-        // Runnable that's ultimately posted to the UI Thread via
-        // another Thread that sleeps for 0.5 seconds to let the user
-        // see what's going on.
-        MainActivity activity = mOuterClass.get();
-        activity.print(outputString);
-    }
+    void printVolley(String player, int iteration);
 
     /**
      * Error log formats the message and displays it for the debugging
      * purposes.
      */
-    public void errorLog(String javaFile,
-                         String errorMessage) {
-        Log.e(javaFile, errorMessage);
-    }
+    void errorLog(String javaFile, String errorMessage);
 }
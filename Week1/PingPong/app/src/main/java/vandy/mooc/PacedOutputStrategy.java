@@ -0,0 +1,126 @@
+package vandy.mooc;
+
+/**
+ * Implements the OutputStrategy API by pacing output the way
+ * MainActivity's FrameOutputScheduler does with the BLOCK policy,
+ * but in the virtual time of a VirtualClock: lines are passed on to
+ * another OutputStrategy one per pacing delay, at display frame
+ * boundaries, and a player that prints while @a capacity lines are
+ * already waiting is held up (its virtual time advances) until there
+ * is room.  A game paced at 500 ms per line thus reports the same
+ * timings as on a device, without waiting for them.
+ *
+ * Like the VirtualClock, it's confined to one thread.
+ */
+public class PacedOutputStrategy implements OutputStrategy {
+    /**
+     * Length of a display frame at 60 Hz.
+     */
+    public static final long FRAME_NANOS = 16666667;
+
+    /**
+     * Where released lines go.
+     */
+    private final OutputStrategy mTarget;
+
+    /**
+     * The clock that paces the output.
+     */
+    private final VirtualClock mClock;
+
+    /**
+     * Minimum time between released lines.
+     */
+    private final long mPacingNanos;
+
+    /**
+     * Release times of the lines waiting to be released, oldest
+     * first, in a ring of capacity entries.
+     */
+    private final long[] mPending;
+    private int mHead;
+    private int mSize;
+
+    /**
+     * Release time of the most recent line, or a pacing delay before
+     * 0 if there's been none.
+     */
+    private long mLastReleaseNanos;
+
+    /**
+     * Constructor passes lines on to @a target, paced by @a pacingMs
+     * on @a clock, with at most @a capacity lines waiting.
+     */
+    public PacedOutputStrategy(OutputStrategy target,
+                               VirtualClock clock,
+                               long pacingMs,
+                               int capacity) {
+        mTarget = target;
+        mClock = clock;
+        mPacingNanos = pacingMs * 1000000L;
+        mPending = new long[capacity];
+        mLastReleaseNanos = -mPacingNanos;
+    }
+
+    /**
+     * Schedule @a outputString to be passed on once it's due, after
+     * waiting for room if the queue is full.
+     */
+    @Override
+    public void print(final String outputString) {
+        // Forget the lines released by now.
+        long nowNanos = mClock.nanoTime();
+        while (mSize > 0 && mPending[mHead] <= nowNanos)
+            removeOldest();
+
+        // Block (in virtual time) until the oldest line is released.
+        if (mSize == mPending.length) {
+            mClock.sleepUntil(mPending[mHead]);
+            removeOldest();
+        }
+
+        // Released at the first frame at least a pacing delay after
+        // the previous line.
+        long releaseNanos = nextFrame(Math.max(mClock.nanoTime(),
+                                               mLastReleaseNanos + mPacingNanos));
+        mPending[(mHead + mSize) % mPending.length] = releaseNanos;
+        mSize++;
+        mLastReleaseNanos = releaseNanos;
+
+        mClock.scheduleAt(releaseNanos, new Runnable() {
+                @Override
+                public void run() {
+                    mTarget.print(outputString);
+                }
+            });
+    }
+
+    /**
+     * Output a volley by passing its cached line to print().
+     */
+    @Override
+    public void printVolley(String player, int iteration) {
+        print(VolleyLines.lineOf(player, iteration));
+    }
+
+    @Override
+    public void errorLog(String javaFile,
+                         String errorMessage) {
+        mTarget.errorLog(javaFile, errorMessage);
+    }
+
+    /**
+     * Forget the oldest waiting line.
+     */
+    private void removeOldest() {
+        mHead = (mHead + 1) % mPending.length;
+        mSize--;
+    }
+
+    /**
+     * Return the first frame boundary at or after @a nanos.
+     */
+    private static long nextFrame(long nanos) {
+        return (nanos + FRAME_NANOS - 1) / FRAME_NANOS * FRAME_NANOS;
+    }
+}
@@ -1,20 +1,13 @@
 package vandy.mooc;
 
-import java.util.concurrent.CyclicBarrier;
-
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.util.Log;
-
 /**
  * @class PlayPingPong
  *
- * @brief This class uses elements of the Android HaMeR framework to
- *        create two Threads that alternately print "Ping" and "Pong",
- *        respectively, on the display.
+ * @brief This class creates two players that alternately print
+ *        "Ping" and "Pong", respectively, on the display.  How the
+ *        volleys travel between the players is defined by a
+ *        VolleyTransport, which by default uses elements of the
+ *        Android HaMeR framework (see HandlerTransport).
  */
 public class PlayPingPong implements Runnable {
 
@@ -26,10 +19,19 @@ public class PlayPingPong implements Runnable {
     /**
      * Keep track of whether a Thread is printing "ping" or "pong".
      */
-    private enum PingPong {
+    enum PingPong {
         PING, PONG
     };
 
+    /**
+     * The serve.  Each later volley carries the number of volleys n
+     * the sender has just played: +n if it will keep playing, i.e.,
+     * expects a reply, or -n if it has completed all its iterations,
+     * so the receiver must not reply to it.  Without batching n is
+     * always 1.
+     */
+    private static final int VOLLEY = 1;
+
     /**
      * Number of iterations to run the ping-pong algorithm.
      */
@@ -41,35 +43,69 @@ public class PlayPingPong implements Runnable {
     private final OutputStrategy mOutputStrategy;
 
     /**
-     * Define a pair of Handlers used to send/handle Messages via the
-     * HandlerThreads.
+     * The transport that carries volleys between the players.
+     */
+    private final VolleyTransport mTransport;
+
+    /**
+     * Number of volleys each player plays per message, or
+     * BatchSizer.ADAPTIVE.
+     */
+    private final int mBatchSize;
+
+    /**
+     * Chooses the batch sizes of the current game.  Used by the PING
+     * player, which serves each batch; PONG mirrors them.  Created
+     * with the object, so players built without run(), e.g., by a
+     * benchmark, can play, and replaced for each game.
+     */
+    private BatchSizer mBatchSizer;
+
+    /**
+     * The clock the game's timings are measured on.
+     */
+    private NanoClock mClock = NanoClock.SYSTEM;
+
+    /**
+     * When run() started the game.
+     */
+    private long mStartNanos;
+
+    /**
+     * When the first volley reached the PING player, or NO_VOLLEY if
+     * it hasn't yet.
+     */
+    private volatile long mFirstVolleyNanos = NO_VOLLEY;
+
+    /**
+     * Value of mFirstVolleyNanos before the first volley.  Not 0,
+     * which is a valid time on a VirtualClock.
      */
-    private Handler pingHandler;
-    private Handler pongHandler;
+    private static final long NO_VOLLEY = Long.MIN_VALUE;
 
     /**
-     * Define a CyclicBarrier synchronizer that ensures the
-     * HandlerThreads are fully initialized before the ping-pong
-     * algorithm begins.
+     * Cancels the game.  Shared with the transport, which stops the
+     * players when it's cancelled.
      */
-    private final CyclicBarrier synchroniser = new CyclicBarrier(2);
+    private final CancellationToken mCancellation = new CancellationToken();
 
     /**
-     * Implements the concurrent ping/pong algorithm using a pair of
-     * Android Handlers (which are defined as an array field in the
-     * enclosing PlayPingPong class so they can be shared by the ping
-     * and pong objects).  The class (1) extends the HandlerThread
-     * superclass to enable it to run in the background and (2)
-     * implements the Handler.Callback interface so its
-     * handleMessage() method can be dispatched without requiring
-     * additional subclassing.
+     * Time from cancellation until both players had stopped, or -1
+     * if the game wasn't cancelled.
      */
-    class PingPongThread extends HandlerThread implements Handler.Callback {
+    private volatile long mResetToIdleNanos = -1;
+
+    /**
+     * Implements one side of the concurrent ping/pong algorithm.  The
+     * transport calls onVolley() on the player's own thread each time
+     * the other player returns the ball.
+     */
+    class PingPongPlayer implements VolleyTransport.Player {
         /**
-         * Keeps track of whether this Thread handles "pings" or
+         * Keeps track of whether this player handles "pings" or
          * "pongs".
          */
-        private PingPong mMyType;
+        private final PingPong mMyType;
 
         /**
          * Number of iterations completed thus far.
@@ -77,135 +113,103 @@ public class PlayPingPong implements Runnable {
         private int mIterationsCompleted;
 
         /**
-         * Constructor initializes the superclass and type field
-         * (which is either PING or PONG).
+         * Constructor initializes the type field (which is either
+         * PING or PONG).
          */
-        public PingPongThread(PingPong myType) {
-        	super(myType.toString());
+        PingPongPlayer(PingPong myType) {
             mMyType = myType;
             mIterationsCompleted = 1;
         }
 
-        /**
-         * This hook method is dispatched after the HandlerThread has
-         * been started.  It performs ping-pong initialization prior
-         * to the HandlerThread running its event loop.
-         */
-        @Override    
-        protected void onLooperPrepared() {
-            // Create the Handler that will service this type of
-            // Handler, i.e., either PING or PONG.
-            if (mMyType == PingPong.PING) {
-                pingHandler = new Handler(getLooper(), this);
-            }
-            else {
-                pongHandler = new Handler(getLooper(), this);
-            }
-
-            try {
-                // Wait for both Threads to initialize their Handlers.
-                synchroniser.await();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            // Start the PING_THREAD first by (1) creating a Message
-            // where the PING Handler is the "target" and the PONG
-            // Handler is the "obj" to use for the reply and (2)
-            // sending the Message to the PING_THREAD's Handler.
-            if (mMyType == PingPong.PING) {
-                //Obtain a new message from the "pingHandler" handler
-                //The created message will have the "target" of the created message set to "pingHandler"
-                Message pingToPongMessage = pingHandler.obtainMessage();
-                //Set the "pongHandler" handler as "obj" for the newly created message
-                //It will be used for reply
-                pingToPongMessage.obj = pongHandler;
-                //Send the message to the "PING" thread
-                pingHandler.sendMessage(pingToPongMessage);
-            }
+        @Override
+        public String getName() {
+            return mMyType.toString();
         }
 
         /**
-         * Hook method called back by HandlerThread to perform the
-         * ping-pong protocol concurrently.
+         * Hook method called back by the transport to perform the
+         * ping-pong protocol concurrently.  Plays a batch of volleys:
+         * PING chooses its size and PONG plays as many as PING just
+         * did, so both finish together.
          */
         @Override
-        public boolean handleMessage(Message reqMsg) {
-            // Print the appropriate string if this thread isn't done
+        public void onVolley(VolleyTransport.Endpoint endpoint,
+                             int volley) {
+            int batch = mMyType == PingPong.PING
+                ? mBatchSizer.nextBatch()
+                : Math.abs(volley);
+            batch = Math.min(batch, mMaxIterations - mIterationsCompleted + 1);
+
+            // Print the appropriate strings if this thread isn't done
             // with all its iterations yet.
-            // appropriate code.
-            if (mMyType == PingPong.PING) {
-                mOutputStrategy.print("PING(" + mIterationsCompleted +")\n");
-            }
-            else {
-                mOutputStrategy.print("PONG(" + mIterationsCompleted +")\n");
-            }
-            boolean boThreadLooperIsClosed = false;
-            if (++mIterationsCompleted <= mMaxIterations) {
-            } else {
-                // Shutdown the HandlerThread to the main PingPong
-                // thread can join with it.
-                getLooper().quit();
-
-                // Mark the looper as closed to stop the "ping - pong" of messages
-                // between threads
-                boThreadLooperIsClosed = true;
-            }
+            AsyncLog.v(TAG, "{} handling volley {}", mMyType, mIterationsCompleted);
+            if (mIterationsCompleted == 1 && mMyType == PingPong.PING)
+                mFirstVolleyNanos = mClock.nanoTime();
+            for (int i = 0; i < batch; i++)
+                // The enum's name is a constant String, so nothing is
+                // allocated here unless the strategy formats the
+                // volley.
+                mOutputStrategy.printVolley(mMyType.name(), mIterationsCompleted++);
+            if (mMyType == PingPong.PING)
+                mBatchSizer.batchPlayed(batch);
 
-            // Create a Message that contains the Handler as the
-            // reqMsg "target" and our Handler as the "obj" to use for
-            // the reply.
-            Handler responseMessageHandler;
-            //Initialize the sender handler with the "target" received inside the reqMsg message
-            Handler senderHandler = reqMsg.getTarget();
-            Message replyMessage = null;
-
-            //Try to cast the received "obj" to a Handler object
-            if ((reqMsg.obj != null) && (Handler.class.isInstance(reqMsg.obj))) {
-
-                //Initialize the response handler with the "obj" received inside the reqMsg message
-                responseMessageHandler = Handler.class.cast(reqMsg.obj);
-                //Obtain a new message from the response handler
-                //The created message will have the "target" of the created message set to "responseMessageHandler"
-                replyMessage = responseMessageHandler.obtainMessage();
-
-                //Set the "sender" handler as "obj" for the newly created message
-                if (boThreadLooperIsClosed) {
-                    // If the lopper of current thread is closed,
-                    // initialize the response Handler to null to avoid
-                    // sending messages to a dead thread
-                    replyMessage.obj = null;
-                }
-                else {
-                    // Set the "sender" handler as "obj" for the newly created message
-                    // It will be used in the receiver thread for the reply
-                    replyMessage.obj = senderHandler;
-                }
-            }
-            // Return control to the Handler in the other
-            // HandlerThread, which is the "target" of the msg
-            // parameter.
-            if (replyMessage != null) {
-                try {
-                    //The exception can thrown in case the thread to which this message is sent is already dead
-                    replyMessage.getTarget().sendMessage(replyMessage);
-                }
-                catch (RuntimeException e) {
-                }
+            boolean done = mIterationsCompleted > mMaxIterations;
+            if (done) {
+                // Stop this player so the main PingPong thread can
+                // join with it.
+                endpoint.stopPlaying();
             }
-            return true;
+
+            // Return the ball unless the other player has already
+            // finished, telling it whether to expect another volley.
+            if (volley > 0)
+                endpoint.send(done ? -batch : batch);
         }
     }
 
     /**
-     * Constructor initializes the data members.
+     * Constructor initializes the data members and uses the default
+     * HandlerTransport.
      */
     public PlayPingPong(int maxIterations,
                         OutputStrategy outputStrategy) {
+        this(maxIterations,
+             outputStrategy,
+             new HandlerTransport());
+    }
+
+    /**
+     * Constructor initializes the data members, with each player
+     * playing one volley per message.
+     */
+    public PlayPingPong(int maxIterations,
+                        OutputStrategy outputStrategy,
+                        VolleyTransport transport) {
+        this(maxIterations, outputStrategy, transport, 1);
+    }
+
+    /**
+     * Constructor initializes the data members.  In throughput mode
+     * (@a batchSize greater than 1, or BatchSizer.ADAPTIVE) each
+     * message stands for a batch of volleys, played by the receiver
+     * before it replies.
+     */
+    public PlayPingPong(int maxIterations,
+                        OutputStrategy outputStrategy,
+                        VolleyTransport transport,
+                        int batchSize) {
         // Number of iterations to perform pings and pongs.
         mMaxIterations = maxIterations;
 
+        // Number of volleys per message.
+        mBatchSize = batchSize;
+        mBatchSizer = new BatchSizer(batchSize, mClock);
+
         // Strategy that controls how output is displayed to the user.
         mOutputStrategy = outputStrategy;
+
+        // Transport that carries the volleys between the players.
+        mTransport = transport;
     }
 
     /**
@@ -213,28 +217,140 @@ public class PlayPingPong implements Runnable {
      * main() method in a Java class, an Android Activity, etc.
      */
     public void run() {
-        // Let the user know we're starting. 
-        mOutputStrategy.print("Ready...Set...Go!\n");
-       
-        // Create the ping and pong threads.
-        PingPongThread pingThread = new PingPongThread(PingPong.PING);
-        PingPongThread pongThread = new PingPongThread(PingPong.PONG);
-
-        // Start ping and pong threads, which cause their Looper to
-        // loop.
-        pingThread.start();
-        pongThread.start();
-
-        // Barrier synchronization to wait for all work to be done
-        // before exiting play().
+        begin();
+
+        // Play until both players are done or the game is
+        // cancelled, with PING serving.
         try {
-            pingThread.join();
-            pongThread.join();
+            mTransport.play(new PingPongPlayer(PingPong.PING),
+                            new PingPongPlayer(PingPong.PONG),
+                            VOLLEY,
+                            mCancellation);
         }
         catch (InterruptedException e) {
+            // Stop the players and let the caller see the interrupt.
+            mCancellation.cancel();
+            Thread.currentThread().interrupt();
+        }
+
+        end();
+    }
+
+    /**
+     * Start the game without blocking, so one thread can run many
+     * games at once, and call @a onDone once it's over.  @a onDone
+     * runs on a thread of the transport, which must be a
+     * ShardedHandlerTransport, so it must not block.
+     */
+    public void start(final Runnable onDone) {
+        if (!(mTransport instanceof ShardedHandlerTransport))
+            throw new IllegalStateException(mTransport
+                                            + " can't play without blocking");
+        begin();
+        ((ShardedHandlerTransport) mTransport).start
+            (new PingPongPlayer(PingPong.PING),
+             new PingPongPlayer(PingPong.PONG),
+             VOLLEY,
+             mCancellation,
+             new Runnable() {
+                 @Override
+                 public void run() {
+                     end();
+                     onDone.run();
+                 }
+             });
+    }
+
+    /**
+     * Announce the game and note when it started.
+     */
+    private void begin() {
+        // Let the user know we're starting.
+        mOutputStrategy.print("Ready...Set...Go!\n");
+
+        mStartNanos = mClock.nanoTime();
+        mFirstVolleyNanos = NO_VOLLEY;
+        mBatchSizer = new BatchSizer(mBatchSize, mClock);
+    }
+
+    /**
+     * Report how the game ended, once both players have stopped.
+     */
+    private void end() {
+        long endNanos = mClock.nanoTime();
+        if (mCancellation.isCancelled()) {
+            // Cancellation is always timed in real time.
+            mResetToIdleNanos = System.nanoTime() - mCancellation.getCancelNanos();
+            AsyncLog.i(TAG, "cancelled, idle after {} us",
+                       mResetToIdleNanos / 1000);
+            mOutputStrategy.print("Cancelled! (" + mTransport
+                                  + ", idle " + mResetToIdleNanos / 1000
+                                  + " us after cancel)\n");
+            return;
         }
 
         // Let the user know we're done.
-        mOutputStrategy.print("Done!");
+        mOutputStrategy.print("Done! (" + mTransport
+                              + (mBatchSize == 1
+                                 ? ""
+                                 : ", batches of " + mBatchSizer.getBatchSize())
+                              + ", first volley " + getTimeToFirstVolleyNanos() / 1000
+                              + " us, total " + (endNanos - mStartNanos) / 1000
+                              + " us)\n");
+    }
+
+    /**
+     * Measure the game's timings, and pace adaptive batching, on
+     * @a clock instead of real time, e.g., on the VirtualClock that
+     * drives a DeterministicTransport.  Call before the game starts.
+     */
+    public void setClock(NanoClock clock) {
+        mClock = clock;
+        mBatchSizer = new BatchSizer(mBatchSize, clock);
+    }
+
+    /**
+     * Stop the game as soon as possible: both players stop after the
+     * volley they're handling and run() returns once neither is
+     * running.  May be called from any thread, before or during the
+     * game.
+     */
+    public void cancel() {
+        mCancellation.cancel();
+    }
+
+    /**
+     * Return the token that cancels this game, e.g., to share it
+     * with the output scheduler.
+     */
+    public CancellationToken getCancellationToken() {
+        return mCancellation;
+    }
+
+    /**
+     * Return the time from cancel() until both players had stopped,
+     * or -1 if the game wasn't cancelled.
+     */
+    public long getResetToIdleNanos() {
+        return mResetToIdleNanos;
+    }
+
+    /**
+     * Return the number of volleys per message chosen last, which
+     * varies during a game with adaptive batching.
+     */
+    public int getBatchSize() {
+        return mBatchSizer.getBatchSize();
+    }
+
+    /**
+     * Return the time from the start of the last game to the first
+     * volley reaching a player, which is dominated by thread and
+     * Looper start-up unless the transport reuses its threads.
+     * Returns -1 if no volley was delivered.
+     */
+    public long getTimeToFirstVolleyNanos() {
+        long firstVolleyNanos = mFirstVolleyNanos;
+        return firstVolleyNanos == NO_VOLLEY ? -1 : firstVolleyNanos - mStartNanos;
     }
 }
@@ -0,0 +1,295 @@
+package vandy.mooc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class PooledHandlerTransport
+ *
+ * @brief A VolleyTransport that, like HandlerTransport, runs each
+ *        player in a HandlerThread and sends volleys as Messages, but
+ *        keeps its two HandlerThreads and their Loopers alive across
+ *        games.  Starting a game only swaps in the new players and
+ *        bumps a game number, so repeated games pay no thread
+ *        creation or Looper preparation.  Games are played one at a
+ *        time; call release() to quit the threads when the transport
+ *        is no longer needed.
+ */
+public class PooledHandlerTransport implements VolleyTransport {
+    /**
+     * Debugging tag
+     */
+    private final String TAG = getClass().getSimpleName();
+
+    /**
+     * The two long-lived player threads, or null until the first
+     * game or after release().  Guarded by mThreadsLock.
+     */
+    private PooledPlayerThread mFirstThread;
+    private PooledPlayerThread mSecondThread;
+
+    /**
+     * Guards the player threads.  Separate from the lock that
+     * serializes games, so release() never waits for a game.
+     */
+    private final Object mThreadsLock = new Object();
+
+    /**
+     * Number of the current game.  Each volley carries it in "what",
+     * so volleys left over from an abandoned game are dropped.  It's
+     * bumped by play(), by cancellation and by release(), which may
+     * run on different threads.
+     */
+    private final AtomicInteger mGame = new AtomicInteger();
+
+    /**
+     * Counted down by each player that stops in the current game.
+     */
+    private volatile CountDownLatch mGameOver;
+
+    /**
+     * Where the latency of each hop is recorded, or null.
+     */
+    private final HopLatencyStats mStats;
+
+    /**
+     * Constructor for a transport that doesn't record hop latencies.
+     */
+    public PooledHandlerTransport() {
+        this(null);
+    }
+
+    /**
+     * Constructor for a transport that records the latency of each
+     * hop in @a stats, which must have room for two players.
+     */
+    public PooledHandlerTransport(HopLatencyStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Runs one player of each game in a long-lived HandlerThread.
+     */
+    class PooledPlayerThread extends HandlerThread
+        implements Handler.Callback, Endpoint {
+        /**
+         * The Handler of this thread.
+         */
+        private Handler mHandler;
+
+        /**
+         * The thread of the other player.
+         */
+        private PooledPlayerThread mPeer;
+
+        /**
+         * Where this player records the hops it receives, or null.
+         */
+        private final LatencyHistogram mHopLatencies;
+
+        /**
+         * The game logic of the player in the current game.  Set
+         * before the game's first volley is sent, which publishes it.
+         */
+        private volatile Player mPlayer;
+
+        /**
+         * Set once the player has stopped in the current game.
+         * Cleared by reset() before the game's first volley is sent
+         * and otherwise accessed only by this thread.
+         */
+        private boolean mStopped;
+
+        /**
+         * Constructor initializes the superclass.
+         */
+        PooledPlayerThread(String name, LatencyHistogram hopLatencies) {
+            super(name);
+            mHopLatencies = hopLatencies;
+        }
+
+        /**
+         * Start the thread and create its Handler.
+         */
+        void startPlayer() {
+            start();
+            mHandler = new Handler(getLooper(), this);
+        }
+
+        /**
+         * Reset the per-game state for a new game with @a player.
+         */
+        void reset(Player player) {
+            mPlayer = player;
+            mStopped = false;
+        }
+
+        /**
+         * Send @a volley of the current game to this player.  The
+         * Message carries the volley in arg1, its send time in arg2
+         * (see HandlerTransport.obtainVolley()) and the game number
+         * in "what".
+         */
+        boolean deliver(int volley) {
+            Message msg = HandlerTransport.obtainVolley(mHandler, volley);
+            msg.what = mGame.get();
+            return mHandler.sendMessage(msg);
+        }
+
+        /**
+         * Hook method called back by HandlerThread to deliver a
+         * volley to the player.
+         */
+        @Override
+        public boolean handleMessage(Message reqMsg) {
+            // Drop volleys of earlier games and volleys that arrive
+            // after the player stopped.
+            if (reqMsg.what == mGame.get() && !mStopped) {
+                HandlerTransport.recordHop(mHopLatencies, reqMsg);
+                mPlayer.onVolley(this, reqMsg.arg1);
+            }
+            return true;
+        }
+
+        /**
+         * Send a volley to the other player's Handler.
+         */
+        @Override
+        public boolean send(int volley) {
+            return mPeer.deliver(volley);
+        }
+
+        /**
+         * Stop playing the current game.  Unlike HandlerTransport,
+         * the Looper keeps running for the next game.
+         */
+        @Override
+        public void stopPlaying() {
+            if (!mStopped) {
+                mStopped = true;
+                mGameOver.countDown();
+            }
+        }
+
+        /**
+         * Discard the volleys queued for this player and stop it
+         * once the volley it's handling, if any, returns, unless
+         * another game has started by then, i.e., the game number is
+         * no longer @a game.  May be called from any thread.
+         */
+        void cancel(final int game) {
+            mHandler.removeCallbacksAndMessages(null);
+            mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mGame.get() == game)
+                            stopPlaying();
+                    }
+                });
+        }
+    }
+
+    /**
+     * Play a game on the pooled threads, starting them for the first
+     * game, and return once both players have stopped, either at the
+     * end of the game or after @a cancellation is cancelled.  Games
+     * are played one at a time.
+     */
+    @Override
+    public synchronized void play(Player first,
+                                  Player second,
+                                  int firstVolley,
+                                  CancellationToken cancellation)
+        throws InterruptedException {
+        PooledPlayerThread firstThread;
+        PooledPlayerThread secondThread;
+        synchronized (mThreadsLock) {
+            if (mFirstThread == null) {
+                mFirstThread =
+                    new PooledPlayerThread("Player 1",
+                                           mStats == null ? null : mStats.get(0));
+                mSecondThread =
+                    new PooledPlayerThread("Player 2",
+                                           mStats == null ? null : mStats.get(1));
+                mFirstThread.mPeer = mSecondThread;
+                mSecondThread.mPeer = mFirstThread;
+                mFirstThread.startPlayer();
+                mSecondThread.startPlayer();
+            }
+            firstThread = mFirstThread;
+            secondThread = mSecondThread;
+        }
+
+        mGameOver = new CountDownLatch(2);
+        firstThread.reset(first);
+        secondThread.reset(second);
+        mGame.incrementAndGet();
+
+        // Serve by sending the first volley to the first player.
+        firstThread.deliver(firstVolley);
+
+        // On cancellation end the game: volleys sent from now on are
+        // dropped, queued ones are discarded, and each player stops
+        // on its own thread, so the game is over once both have.
+        final PooledPlayerThread cancelFirst = firstThread;
+        final PooledPlayerThread cancelSecond = secondThread;
+        Runnable canceller = new Runnable() {
+                @Override
+                public void run() {
+                    int game = mGame.incrementAndGet();
+                    cancelFirst.cancel(game);
+                    cancelSecond.cancel(game);
+                }
+            };
+        cancellation.register(canceller);
+
+        try {
+            mGameOver.await();
+        } catch (InterruptedException e) {
+            // Abandon the game; its remaining volleys are dropped.
+            mGame.incrementAndGet();
+            AsyncLog.w(TAG, "game interrupted");
+            throw e;
+        } finally {
+            cancellation.unregister(canceller);
+        }
+    }
+
+    /**
+     * Quit the pooled threads, ending any game in progress.  A later
+     * game starts new ones.  Never blocks, so it can be called from
+     * the UI thread.
+     */
+    public void release() {
+        PooledPlayerThread firstThread;
+        PooledPlayerThread secondThread;
+        synchronized (mThreadsLock) {
+            firstThread = mFirstThread;
+            secondThread = mSecondThread;
+            mFirstThread = null;
+            mSecondThread = null;
+        }
+        if (firstThread == null)
+            return;
+
+        mGame.incrementAndGet();
+        firstThread.quit();
+        secondThread.quit();
+
+        // Let a game in progress return.
+        CountDownLatch gameOver = mGameOver;
+        if (gameOver != null) {
+            gameOver.countDown();
+            gameOver.countDown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Handler (pooled)";
+    }
+}
@@ -0,0 +1,387 @@
+package vandy.mooc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class ShardedHandlerTransport
+ *
+ * @brief A VolleyTransport that multiplexes any number of concurrent
+ *        games onto a fixed set of HandlerThreads (shards), by
+ *        default one per core, so a game costs two small objects
+ *        instead of two threads.  Players are assigned to shards
+ *        round-robin, so the load is spread evenly.
+ *
+ *        Volleys aren't sent as a Message each: a MessageQueue is
+ *        kept in delivery-time order, so with many games each enqueue
+ *        would walk past the volleys of all the other games on the
+ *        shard.  Instead each shard has a FIFO ring of pending
+ *        deliveries, which serves its games in turn, and sends its
+ *        Looper at most one wake-up Message at a time.
+ *
+ *        play() blocks like any VolleyTransport; start() begins a
+ *        game and returns at once, so one thread can start hundreds
+ *        of games.  Call release() to quit the shards.
+ */
+public class ShardedHandlerTransport implements VolleyTransport {
+    /**
+     * Initial capacity of each shard's ring of pending deliveries,
+     * which grows as needed.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The shards.
+     */
+    private final Shard[] mShards;
+
+    /**
+     * Number of players assigned to shards so far, which picks the
+     * shard of the next player.
+     */
+    private final AtomicInteger mPlayersAssigned = new AtomicInteger();
+
+    /**
+     * Constructor starts a shard per available core.
+     */
+    public ShardedHandlerTransport() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor starts @a shards shard threads.
+     */
+    public ShardedHandlerTransport(int shards) {
+        mShards = new Shard[shards];
+        for (int i = 0; i < shards; i++)
+            mShards[i] = new Shard("Shard " + i);
+    }
+
+    /**
+     * Return the number of shard threads.
+     */
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    /**
+     * A HandlerThread that delivers the volleys of many players from
+     * a FIFO ring.
+     */
+    static class Shard extends HandlerThread implements Handler.Callback {
+        /**
+         * Maximum number of deliveries made per wake-up, after which
+         * the shard lets other Messages (e.g., cancellations) run.
+         */
+        private static final int MAX_BATCH = 256;
+
+        /**
+         * Wakes the shard to drain the ring.
+         */
+        private final Handler mHandler;
+
+        /**
+         * Guards the ring.  Not "this", which HandlerThread uses to
+         * publish its Looper.
+         */
+        private final Object mLock = new Object();
+
+        /**
+         * Ring of pending deliveries: the receiving player and the
+         * volley.  Guarded by mLock.
+         */
+        private ShardedPlayer[] mPlayers = new ShardedPlayer[INITIAL_CAPACITY];
+        private int[] mVolleys = new int[INITIAL_CAPACITY];
+        private int mHead;
+        private int mSize;
+
+        /**
+         * Set while a wake-up Message is pending or the ring is being
+         * drained.  Guarded by mLock.
+         */
+        private boolean mAwake;
+
+        /**
+         * Constructor starts the thread.
+         */
+        Shard(String name) {
+            super(name);
+            start();
+            mHandler = new Handler(getLooper(), this);
+        }
+
+        /**
+         * Queue @a volley for @a player, waking the shard if it's
+         * idle.  May be called from any thread.
+         */
+        void deliver(ShardedPlayer player, int volley) {
+            boolean wake;
+            synchronized (mLock) {
+                if (mSize == mPlayers.length)
+                    grow();
+                int tail = (mHead + mSize) & (mPlayers.length - 1);
+                mPlayers[tail] = player;
+                mVolleys[tail] = volley;
+                mSize++;
+                wake = !mAwake;
+                mAwake = true;
+            }
+            if (wake)
+                mHandler.sendEmptyMessage(0);
+        }
+
+        /**
+         * Double the capacity of the ring.  Called with mLock held.
+         */
+        private void grow() {
+            int capacity = mPlayers.length;
+            ShardedPlayer[] players = new ShardedPlayer[capacity * 2];
+            int[] volleys = new int[capacity * 2];
+            for (int i = 0; i < mSize; i++) {
+                players[i] = mPlayers[(mHead + i) & (capacity - 1)];
+                volleys[i] = mVolleys[(mHead + i) & (capacity - 1)];
+            }
+            mPlayers = players;
+            mVolleys = volleys;
+            mHead = 0;
+        }
+
+        /**
+         * Hook method called back by the Looper to drain the ring.
+         */
+        @Override
+        public boolean handleMessage(Message msg) {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                ShardedPlayer player;
+                int volley;
+                synchronized (mLock) {
+                    if (mSize == 0) {
+                        mAwake = false;
+                        return true;
+                    }
+                    player = mPlayers[mHead];
+                    volley = mVolleys[mHead];
+                    mPlayers[mHead] = null;
+                    mHead = (mHead + 1) & (mPlayers.length - 1);
+                    mSize--;
+                }
+                player.onVolley(volley);
+            }
+
+            // Still awake: come back after the Messages queued
+            // meanwhile.
+            mHandler.sendEmptyMessage(0);
+            return true;
+        }
+    }
+
+    /**
+     * The state of one game, shared by its two players.
+     */
+    static class Game {
+        /**
+         * Number of players that haven't stopped yet.
+         */
+        private final AtomicInteger mPlaying = new AtomicInteger(2);
+
+        /**
+         * Cancels the game.
+         */
+        private final CancellationToken mCancellation;
+
+        /**
+         * Stops both players on cancellation.  Set before the first
+         * volley is sent.
+         */
+        private Runnable mCanceller;
+
+        /**
+         * Run once both players have stopped.
+         */
+        private final Runnable mOnGameOver;
+
+        Game(CancellationToken cancellation, Runnable onGameOver) {
+            mCancellation = cancellation;
+            mOnGameOver = onGameOver;
+        }
+
+        /**
+         * Called by each player once it stops.  The last one ends
+         * the game.
+         */
+        void playerStopped() {
+            if (mPlaying.decrementAndGet() == 0) {
+                mCancellation.unregister(mCanceller);
+                mOnGameOver.run();
+            }
+        }
+    }
+
+    /**
+     * One player of a game, run by its shard.
+     */
+    static class ShardedPlayer implements Endpoint {
+        /**
+         * The game logic of this player.
+         */
+        private final Player mPlayer;
+
+        /**
+         * The game this player is in.
+         */
+        private final Game mGame;
+
+        /**
+         * Delivers volleys to this player.
+         */
+        private final Shard mShard;
+
+        /**
+         * The other player of the game.
+         */
+        private ShardedPlayer mPeer;
+
+        /**
+         * Set once this player has stopped.  Written on the shard
+         * thread and read by the other player's shard.
+         */
+        private volatile boolean mStopped;
+
+        /**
+         * Constructor assigns the player to @a shard.
+         */
+        ShardedPlayer(Player player, Game game, Shard shard) {
+            mPlayer = player;
+            mGame = game;
+            mShard = shard;
+        }
+
+        /**
+         * Called by the shard to deliver a volley to the player.
+         */
+        void onVolley(int volley) {
+            // Drop volleys that arrive after the player stopped or
+            // the game was cancelled.
+            if (!mStopped && !mGame.mCancellation.isCancelled())
+                mPlayer.onVolley(this, volley);
+        }
+
+        /**
+         * Queue a volley for the other player on its shard.
+         */
+        @Override
+        public boolean send(int volley) {
+            if (mPeer.mStopped)
+                return false;
+            mPeer.mShard.deliver(mPeer, volley);
+            return true;
+        }
+
+        /**
+         * Stop this player.  The shard keeps running the players of
+         * other games.
+         */
+        @Override
+        public void stopPlaying() {
+            if (!mStopped) {
+                mStopped = true;
+                mGame.playerStopped();
+            }
+        }
+
+        /**
+         * Stop this player on its shard.  Its pending volleys are
+         * dropped when the shard reaches them.  May be called from
+         * any thread.
+         */
+        void cancel() {
+            mShard.mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        stopPlaying();
+                    }
+                });
+        }
+    }
+
+    /**
+     * Start a game between @a first and @a second on the shards and
+     * return at once.  @a onGameOver runs on a shard thread once both
+     * players have stopped, either at the end of the game or after @a
+     * cancellation is cancelled, so it must not block.
+     */
+    public void start(Player first,
+                      Player second,
+                      int firstVolley,
+                      CancellationToken cancellation,
+                      Runnable onGameOver) {
+        Game game = new Game(cancellation, onGameOver);
+        final ShardedPlayer firstPlayer =
+            new ShardedPlayer(first, game, nextShard());
+        final ShardedPlayer secondPlayer =
+            new ShardedPlayer(second, game, nextShard());
+        firstPlayer.mPeer = secondPlayer;
+        secondPlayer.mPeer = firstPlayer;
+
+        game.mCanceller = new Runnable() {
+                @Override
+                public void run() {
+                    firstPlayer.cancel();
+                    secondPlayer.cancel();
+                }
+            };
+        cancellation.register(game.mCanceller);
+
+        // Serve by sending the first volley to the first player.
+        firstPlayer.mShard.deliver(firstPlayer, firstVolley);
+    }
+
+    /**
+     * Return the shard of the next player.
+     */
+    private Shard nextShard() {
+        int player = mPlayersAssigned.getAndIncrement() & Integer.MAX_VALUE;
+        return mShards[player % mShards.length];
+    }
+
+    /**
+     * Play one game on the shards and block until both players have
+     * stopped or @a cancellation is cancelled.
+     */
+    @Override
+    public void play(Player first,
+                     Player second,
+                     int firstVolley,
+                     CancellationToken cancellation) throws InterruptedException {
+        final CountDownLatch gameOver = new CountDownLatch(1);
+        start(first, second, firstVolley, cancellation, new Runnable() {
+                @Override
+                public void run() {
+                    gameOver.countDown();
+                }
+            });
+        try {
+            gameOver.await();
+        } catch (InterruptedException e) {
+            cancellation.cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Quit the shard threads.  Games still in progress never end.
+     */
+    public void release() {
+        for (Shard shard : mShards)
+            shard.quit();
+    }
+
+    @Override
+    public String toString() {
+        return "Handler (" + mShards.length + " shards)";
+    }
+}
@@ -0,0 +1,106 @@
+package vandy.mooc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue of ints for exactly one producer thread
+ * and one consumer thread.  Each side caches the other side's index
+ * so that, in the common case, an offer or poll touches only memory
+ * its own thread owns plus the slot itself.
+ */
+public class SpscIntRing {
+    /**
+     * Returned by poll() when the ring is empty.  It can't be used as
+     * a payload.
+     */
+    public static final int EMPTY = Integer.MIN_VALUE;
+
+    /**
+     * The slots, indexed by sequence number modulo the capacity.
+     */
+    private final int[] mBuffer;
+
+    /**
+     * Mask that maps a sequence number to a slot.
+     */
+    private final int mMask;
+
+    /**
+     * Sequence number of the next value to poll.  Written only by
+     * the consumer.
+     */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /**
+     * Sequence number of the next value to offer.  Written only by
+     * the producer.  Published with a volatile write so a consumer
+     * that is about to park is guaranteed to see it (see
+     * SpscRingTransport).
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * The producer's cached copy of mHead.
+     */
+    private long mCachedHead;
+
+    /**
+     * The consumer's cached copy of mTail.
+     */
+    private long mCachedTail;
+
+    /**
+     * Constructor initializes the ring with the given capacity,
+     * which must be a power of two.
+     */
+    public SpscIntRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("capacity must be a power of two");
+        mBuffer = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Add a value.  Called only by the producer thread.
+     *
+     * @return false if the ring is full.
+     */
+    public boolean offer(int value) {
+        long tail = mTail.get();
+        if (tail - mCachedHead >= mBuffer.length) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead >= mBuffer.length)
+                return false;
+        }
+        mBuffer[(int) (tail & mMask)] = value;
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * Remove the oldest value.  Called only by the consumer thread.
+     *
+     * @return the value, or EMPTY if the ring is empty.
+     */
+    public int poll() {
+        long head = mHead.get();
+        if (head >= mCachedTail) {
+            mCachedTail = mTail.get();
+            if (head >= mCachedTail)
+                return EMPTY;
+        }
+        int value = mBuffer[(int) (head & mMask)];
+        // The slot can be reused once the producer sees the new head,
+        // which needs no stronger ordering than a lazy write.
+        mHead.lazySet(head + 1);
+        return value;
+    }
+
+    /**
+     * Return true if the ring currently holds no values.  Exact when
+     * called by the consumer.
+     */
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+}
@@ -0,0 +1,237 @@
+package vandy.mooc;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @class SpscRingTransport
+ *
+ * @brief A VolleyTransport that gives each player a plain Thread and
+ *        an inbox that is a lock-free single-producer/single-consumer
+ *        ring buffer.  Sending a volley is a write into the other
+ *        player's inbox, with no MessageQueue lock, no Message
+ *        allocation and, depending on the WaitStrategy, no wake-up.
+ */
+public class SpscRingTransport implements VolleyTransport {
+    /**
+     * Capacity of each player's inbox.  A ping-pong game only ever
+     * has one volley in flight, so this is generous.
+     */
+    private static final int INBOX_CAPACITY = 64;
+
+    /**
+     * Number of busy-wait iterations and Thread.yield() calls that
+     * SPIN_THEN_PARK makes before it parks.
+     */
+    private static final int SPIN_TRIES = 1000;
+    private static final int YIELD_TRIES = 100;
+
+    /**
+     * How a player waits for the next volley when its inbox is empty.
+     */
+    public enum WaitStrategy {
+        /**
+         * Park the thread right away.  Cheapest on CPU, but every
+         * volley needs an unpark, which costs about as much as a
+         * looper wake-up.
+         */
+        PARK,
+        /**
+         * Call Thread.yield() in a loop.  Keeps a core busy but lets
+         * other threads run.
+         */
+        YIELD,
+        /**
+         * Busy-wait briefly, then yield, then park.  Lowest latency
+         * when volleys arrive quickly, without burning a core while
+         * idle.
+         */
+        SPIN_THEN_PARK
+    }
+
+    /**
+     * How the players wait for volleys.
+     */
+    private final WaitStrategy mWaitStrategy;
+
+    /**
+     * Constructor initializes the wait strategy.
+     */
+    public SpscRingTransport(WaitStrategy waitStrategy) {
+        mWaitStrategy = waitStrategy;
+    }
+
+    /**
+     * Runs one player, delivering the volleys from its inbox.
+     */
+    class RingPlayerThread extends Thread implements Endpoint {
+        /**
+         * The game logic of this player.
+         */
+        private final Player mPlayer;
+
+        /**
+         * Volleys sent to this player by the other player.
+         */
+        private final SpscIntRing mInbox = new SpscIntRing(INBOX_CAPACITY);
+
+        /**
+         * The thread of the other player.
+         */
+        private RingPlayerThread mPeer;
+
+        /**
+         * Set once this player has stopped.
+         */
+        private volatile boolean mStopped;
+
+        /**
+         * Set while this player is (about to be) parked, so the other
+         * player knows to unpark it after sending a volley.
+         */
+        private volatile boolean mParked;
+
+        /**
+         * Constructor initializes the superclass and player.
+         */
+        RingPlayerThread(Player player) {
+            super(player.getName());
+            mPlayer = player;
+        }
+
+        /**
+         * Deliver volleys until the player stops.
+         */
+        @Override
+        public void run() {
+            int idleCount = 0;
+            while (!mStopped) {
+                int volley = mInbox.poll();
+                if (volley == SpscIntRing.EMPTY) {
+                    if (isInterrupted())
+                        break;
+                    idle(idleCount++);
+                } else {
+                    idleCount = 0;
+                    mPlayer.onVolley(this, volley);
+                }
+            }
+            mStopped = true;
+        }
+
+        /**
+         * Wait according to the wait strategy.
+         */
+        private void idle(int idleCount) {
+            switch (mWaitStrategy) {
+            case PARK:
+                park();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case SPIN_THEN_PARK:
+                // Busy-wait (i.e., just return) for the first
+                // SPIN_TRIES calls.
+                if (idleCount >= SPIN_TRIES + YIELD_TRIES)
+                    park();
+                else if (idleCount >= SPIN_TRIES)
+                    Thread.yield();
+                break;
+            }
+        }
+
+        /**
+         * Park until the other player sends a volley.  Announcing the
+         * park and then re-checking the inbox, both with volatile
+         * accesses, ensures a volley sent concurrently is never
+         * missed.
+         */
+        private void park() {
+            mParked = true;
+            if (mInbox.isEmpty() && !mStopped)
+                LockSupport.park(this);
+            mParked = false;
+        }
+
+        /**
+         * Write a volley into the other player's inbox and wake it if
+         * it is parked.
+         */
+        @Override
+        public boolean send(int volley) {
+            while (!mPeer.mInbox.offer(volley)) {
+                if (mPeer.mStopped)
+                    return false;
+                Thread.yield();
+            }
+            if (mPeer.mParked)
+                LockSupport.unpark(mPeer);
+            return !mPeer.mStopped;
+        }
+
+        /**
+         * Stop once the current volley has been handled.
+         */
+        @Override
+        public void stopPlaying() {
+            mStopped = true;
+            LockSupport.unpark(this);
+        }
+    }
+
+    /**
+     * Run each player in its own thread until both have stopped or
+     * @a cancellation is cancelled.
+     */
+    @Override
+    public void play(Player first,
+                     Player second,
+                     int firstVolley,
+                     CancellationToken cancellation) throws InterruptedException {
+        RingPlayerThread firstThread = new RingPlayerThread(first);
+        RingPlayerThread secondThread = new RingPlayerThread(second);
+        firstThread.mPeer = secondThread;
+        secondThread.mPeer = firstThread;
+
+        // The players are connected before they start, so the first
+        // player can serve without any handshake.
+        firstThread.mInbox.offer(firstVolley);
+        firstThread.start();
+        secondThread.start();
+
+        // On cancellation stop both players, which leaves any volley
+        // still in an inbox unhandled.
+        Runnable stopper = stopper(firstThread, secondThread);
+        cancellation.register(stopper);
+
+        try {
+            firstThread.join();
+            secondThread.join();
+        } catch (InterruptedException e) {
+            firstThread.stopPlaying();
+            secondThread.stopPlaying();
+            throw e;
+        } finally {
+            cancellation.unregister(stopper);
+        }
+    }
+
+    /**
+     * Return a Runnable that stops @a first and @a second.
+     */
+    private static Runnable stopper(final RingPlayerThread first,
+                                    final RingPlayerThread second) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                first.stopPlaying();
+                second.stopPlaying();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "SPSC ring (" + mWaitStrategy + ")";
+    }
+}
@@ -0,0 +1,40 @@
+package vandy.mooc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free start-up handshake for any number of players, which
+ * replaces a barrier that every player waits on before the first
+ * volley.  Each player publishes what the others need (e.g., its
+ * Handler) in plain fields and then calls arrive(), which never
+ * blocks, so its Looper starts looping at once.  The player that
+ * arrives last is told so, and serves.
+ *
+ * Every write made before an arrive() happens-before the last
+ * arrive() returns (each arrive() is an atomic read-modify-write of
+ * the same counter), so the last player sees every published field.
+ * Every other player sees them too once it receives a volley, since
+ * the volley was sent after the last arrival, through the target's
+ * MessageQueue.
+ */
+public class StartupGate {
+    /**
+     * Number of players that haven't arrived yet.
+     */
+    private final AtomicInteger mPending;
+
+    /**
+     * Constructor expects @a players players.
+     */
+    public StartupGate(int players) {
+        mPending = new AtomicInteger(players);
+    }
+
+    /**
+     * Note that the calling player has published its fields.  Returns
+     * true for the last player to arrive, which should serve.
+     */
+    public boolean arrive() {
+        return mPending.decrementAndGet() == 0;
+    }
+}
@@ -0,0 +1,148 @@
+package vandy.mooc;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An inbox of ints for many producer threads and one consumer
+ * thread, made of one SpscIntRing lane per producer.  Producers never
+ * contend with each other, since each writes only to its own lane,
+ * and the consumer drains the lanes round-robin, one value per lane
+ * per turn, so a busy producer can't starve a quiet one.  A full
+ * lane pushes back on its own producer only.
+ *
+ * The consumer parks when every lane is empty and the producer that
+ * next fills a lane unparks it, with the same announce-then-recheck
+ * protocol as SpscRingTransport.
+ */
+public class StripedInbox {
+    /**
+     * Returned by poll() when every lane is empty.
+     */
+    public static final int EMPTY = SpscIntRing.EMPTY;
+
+    /**
+     * Number of empty polls take() makes before it parks.
+     */
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * One lane per producer.
+     */
+    private final SpscIntRing[] mLanes;
+
+    /**
+     * The lane the consumer polls first next time.
+     */
+    private int mNextLane;
+
+    /**
+     * The consumer thread, set by its first take().
+     */
+    private volatile Thread mConsumer;
+
+    /**
+     * Set while the consumer is (about to be) parked, so a producer
+     * knows to unpark it.
+     */
+    private volatile boolean mParked;
+
+    /**
+     * Constructor initializes @a lanes lanes of @a laneCapacity
+     * values each, which must be a power of two.
+     */
+    public StripedInbox(int lanes, int laneCapacity) {
+        if (lanes <= 0)
+            throw new IllegalArgumentException("no lanes");
+        mLanes = new SpscIntRing[lanes];
+        for (int i = 0; i < lanes; i++)
+            mLanes[i] = new SpscIntRing(laneCapacity);
+    }
+
+    /**
+     * Add @a value to @a lane, and wake the consumer if it's parked.
+     * Called only by the producer that owns @a lane.
+     *
+     * @return false if the lane is full.
+     */
+    public boolean offer(int lane, int value) {
+        if (!mLanes[lane].offer(value))
+            return false;
+        if (mParked)
+            LockSupport.unpark(mConsumer);
+        return true;
+    }
+
+    /**
+     * Remove a value from the next non-empty lane in round-robin
+     * order.  Called only by the consumer thread.
+     *
+     * @return the value, or EMPTY if every lane is empty.
+     */
+    public int poll() {
+        int lanes = mLanes.length;
+        for (int i = 0; i < lanes; i++) {
+            int lane = mNextLane;
+            if (++mNextLane == lanes)
+                mNextLane = 0;
+            int value = mLanes[lane].poll();
+            if (value != EMPTY)
+                return value;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Remove a value, waiting for one if every lane is empty.  Called
+     * only by the consumer thread.
+     *
+     * @return the value, or EMPTY if the thread was interrupted.
+     */
+    public int take() {
+        if (mConsumer == null)
+            mConsumer = Thread.currentThread();
+        int idleCount = 0;
+        for (;;) {
+            int value = poll();
+            if (value != EMPTY)
+                return value;
+            if (Thread.currentThread().isInterrupted())
+                return EMPTY;
+            // Spin again after each wakeup before parking again, as
+            // the wakeup usually means a value has arrived.
+            if (++idleCount > SPIN_TRIES) {
+                park();
+                idleCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Return true if every lane is currently empty.  Exact when
+     * called by the consumer.
+     */
+    public boolean isEmpty() {
+        for (SpscIntRing lane : mLanes)
+            if (!lane.isEmpty())
+                return false;
+        return true;
+    }
+
+    /**
+     * Return the number of lanes.
+     */
+    public int getLaneCount() {
+        return mLanes.length;
+    }
+
+    /**
+     * Park until a producer offers a value.  Announcing the park and
+     * then re-checking the lanes, both with volatile accesses,
+     * ensures a value offered concurrently is never missed.
+     */
+    private void park() {
+        mParked = true;
+        if (isEmpty())
+            LockSupport.park(this);
+        mParked = false;
+    }
+}
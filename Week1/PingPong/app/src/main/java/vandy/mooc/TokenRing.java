@@ -0,0 +1,223 @@
+package vandy.mooc;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class TokenRing
+ *
+ * @brief This class generalizes PlayPingPong to a ring of N
+ *        HandlerThreads that pass a token around for M laps.  It
+ *        reports hops/sec and the per-hop latency, which shows how
+ *        Handler/Looper message passing scales with the number of
+ *        threads relative to the number of cores.
+ */
+public class TokenRing implements Runnable {
+    /**
+     * Debugging tag
+     */
+    private final String TAG = getClass().getSimpleName();
+
+    /**
+     * Number of players (threads) in the ring.
+     */
+    private final int mPlayers;
+
+    /**
+     * Number of times the token travels around the ring.
+     */
+    private final int mLaps;
+
+    /**
+     * The strategy for outputting strings to the display.
+     */
+    private final OutputStrategy mOutputStrategy;
+
+    /**
+     * The Handler of each player, indexed by position in the ring.
+     * Written before the player arrives at mStartupGate, which safely
+     * publishes them (see StartupGate).
+     */
+    private final Handler[] mHandlers;
+
+    /**
+     * Arrived at once by each player after it has created its
+     * Handler.
+     */
+    private final StartupGate mStartupGate;
+
+    /**
+     * Counted down by the player that handles the last hop.
+     */
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    /**
+     * Time the token was put into play and the last hop was handled.
+     */
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+
+    /**
+     * Largest single hop latency observed, in nanoseconds.  Only
+     * written by the player currently holding the token.
+     */
+    private volatile long mMaxHopNanos;
+
+    /**
+     * A player in the ring.  Each player forwards the token to its
+     * successor until the token has completed all the laps.
+     */
+    class RingPlayerThread extends HandlerThread implements Handler.Callback {
+        /**
+         * Position of this player in the ring.
+         */
+        private final int mIndex;
+
+        /**
+         * Constructor initializes the superclass and index.
+         */
+        RingPlayerThread(int index) {
+            super("RingPlayer-" + index);
+            mIndex = index;
+        }
+
+        /**
+         * Publish this player's Handler.  The player that's ready
+         * last puts the token into play at player 0, so no player
+         * waits before its Looper loops.
+         */
+        @Override
+        protected void onLooperPrepared() {
+            mHandlers[mIndex] = new Handler(getLooper(), this);
+            if (mStartupGate.arrive())
+                sendToken(mHandlers[0], 0);
+        }
+
+        /**
+         * Receive the token and forward it to the next player.  The
+         * message carries the number of hops completed in arg1 and
+         * the low 32 bits of its send time in arg2.
+         */
+        @Override
+        public boolean handleMessage(Message token) {
+            long now = System.nanoTime();
+            int hops = token.arg1;
+            if (hops == 0) {
+                // The token was just put into play by player 0.
+                mStartNanos = now;
+            } else {
+                // The send time wraps every ~4 seconds, which is far
+                // longer than any single hop.
+                long hopNanos = ((int) now - token.arg2) & 0xffffffffL;
+                if (hopNanos > mMaxHopNanos)
+                    mMaxHopNanos = hopNanos;
+            }
+
+            if (hops == mPlayers * mLaps) {
+                // The token is back at player 0 after the last lap.
+                mEndNanos = now;
+                mDone.countDown();
+            } else {
+                sendToken(mHandlers[(mIndex + 1) % mPlayers], hops + 1);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Send the token with the given hop count to a player.
+     */
+    private static void sendToken(Handler target, int hops) {
+        target.obtainMessage(0, hops, (int) System.nanoTime()).sendToTarget();
+    }
+
+    /**
+     * Constructor initializes the data members.
+     */
+    public TokenRing(int players,
+                     int laps,
+                     OutputStrategy outputStrategy) {
+        mPlayers = players;
+        mLaps = laps;
+        mOutputStrategy = outputStrategy;
+        mHandlers = new Handler[players];
+        mStartupGate = new StartupGate(players);
+    }
+
+    /**
+     * Play one game: start the ring, wait for the token to finish all
+     * its laps, shut the ring down and report the results.
+     */
+    public void run() {
+        RingPlayerThread[] players = new RingPlayerThread[mPlayers];
+        for (int i = 0; i < mPlayers; i++) {
+            players[i] = new RingPlayerThread(i);
+            players[i].start();
+        }
+
+        try {
+            mDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (RingPlayerThread player : players)
+                player.quit();
+        }
+
+        for (RingPlayerThread player : players) {
+            try {
+                player.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (mEndNanos == 0) {
+            mOutputStrategy.errorLog(TAG, "ring of " + mPlayers + " interrupted");
+            return;
+        }
+
+        long hops = (long) mPlayers * mLaps;
+        long elapsedNanos = mEndNanos - mStartNanos;
+        mOutputStrategy.print(String.format(Locale.US,
+                                            "Ring of %d on %d cores: %d hops in %.1f ms, "
+                                            + "%.0f hops/s, %.1f us/hop (max %.1f us)\n",
+                                            mPlayers,
+                                            Runtime.getRuntime().availableProcessors(),
+                                            hops,
+                                            elapsedNanos / 1e6,
+                                            hops * 1e9 / elapsedNanos,
+                                            elapsedNanos / 1e3 / hops,
+                                            mMaxHopNanos / 1e3));
+    }
+
+    /**
+     * Return a Runnable that plays one game for each of the given
+     * ring sizes in turn, so the results show how throughput changes
+     * with the number of threads.  The sweep stops before the next
+     * ring once @a cancellation is cancelled.
+     */
+    public static Runnable sweep(final int[] ringSizes,
+                                 final int laps,
+                                 final OutputStrategy outputStrategy,
+                                 final CancellationToken cancellation) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                outputStrategy.print("Token ring, " + laps + " laps\n");
+                for (int players : ringSizes) {
+                    if (Thread.currentThread().isInterrupted()
+                        || cancellation.isCancelled())
+                        return;
+                    new TokenRing(players, laps, outputStrategy).run();
+                }
+                outputStrategy.print("Done!\n");
+            }
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package vandy.mooc;
+
+import java.util.PriorityQueue;
+
+/**
+ * A simulated clock with a deterministic scheduler.  Tasks are
+ * scheduled at a virtual time and run one at a time, in order of
+ * time and then of scheduling, on the thread that calls runOne() or
+ * runUntilIdle().  Time only moves when a task is run or a task
+ * calls sleep(), so nothing ever waits for real time: a game paced
+ * at half a second per line runs as fast as its code does, and its
+ * transcript and timings are the same on every run.
+ *
+ * A VirtualClock is confined to one thread.
+ */
+public class VirtualClock implements NanoClock {
+    /**
+     * A task scheduled at a virtual time.
+     */
+    private static class Event implements Comparable<Event> {
+        /**
+         * When the task is due.
+         */
+        final long mWhenNanos;
+
+        /**
+         * Breaks ties between tasks due at the same time, so they
+         * run in the order they were scheduled.
+         */
+        final long mSequence;
+
+        /**
+         * The task.
+         */
+        final Runnable mTask;
+
+        Event(long whenNanos, long sequence, Runnable task) {
+            mWhenNanos = whenNanos;
+            mSequence = sequence;
+            mTask = task;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (mWhenNanos != other.mWhenNanos)
+                return mWhenNanos < other.mWhenNanos ? -1 : 1;
+            return mSequence < other.mSequence
+                ? -1
+                : mSequence == other.mSequence ? 0 : 1;
+        }
+    }
+
+    /**
+     * The current virtual time.
+     */
+    private long mNowNanos;
+
+    /**
+     * Number of tasks scheduled so far.
+     */
+    private long mSequence;
+
+    /**
+     * Number of tasks run so far.
+     */
+    private long mTasksRun;
+
+    /**
+     * The tasks not yet run.
+     */
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<Event>();
+
+    /**
+     * Return the current virtual time, which starts at 0.
+     */
+    @Override
+    public long nanoTime() {
+        return mNowNanos;
+    }
+
+    /**
+     * Schedule @a task to run @a delayNanos after the current virtual
+     * time.
+     */
+    public void schedule(long delayNanos, Runnable task) {
+        scheduleAt(mNowNanos + Math.max(0, delayNanos), task);
+    }
+
+    /**
+     * Schedule @a task to run at virtual time @a whenNanos, or as
+     * soon as possible if that has passed.
+     */
+    public void scheduleAt(long whenNanos, Runnable task) {
+        mEvents.add(new Event(whenNanos, mSequence++, task));
+    }
+
+    /**
+     * Advance the virtual time by @a nanos, as if the running task
+     * had slept or blocked that long.  See sleepUntil().
+     */
+    public void sleep(long nanos) {
+        sleepUntil(mNowNanos + Math.max(0, nanos));
+    }
+
+    /**
+     * Advance the virtual time to @a whenNanos if it's later, as if
+     * the running task had blocked until then.  The tasks due in the
+     * meantime are run first, as they would have run alongside the
+     * blocked task, so they must not depend on it having finished.
+     */
+    public void sleepUntil(long whenNanos) {
+        for (Event event;
+             (event = mEvents.peek()) != null && event.mWhenNanos <= whenNanos; )
+            runOne();
+        mNowNanos = Math.max(mNowNanos, whenNanos);
+    }
+
+    /**
+     * Run the next task, advancing the virtual time to when it's
+     * due.  Returns false if there are no tasks.
+     */
+    public boolean runOne() {
+        Event event = mEvents.poll();
+        if (event == null)
+            return false;
+        // A task that slept may have moved time past the next task.
+        mNowNanos = Math.max(mNowNanos, event.mWhenNanos);
+        mTasksRun++;
+        event.mTask.run();
+        return true;
+    }
+
+    /**
+     * Run tasks until there are none left.
+     */
+    public void runUntilIdle() {
+        while (runOne())
+            continue;
+    }
+
+    /**
+     * Return true if no tasks are scheduled.
+     */
+    public boolean isIdle() {
+        return mEvents.isEmpty();
+    }
+
+    /**
+     * Return the number of tasks run so far.
+     */
+    public long getTasksRun() {
+        return mTasksRun;
+    }
+}
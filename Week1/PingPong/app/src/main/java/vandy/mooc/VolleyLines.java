@@ -0,0 +1,58 @@
+package vandy.mooc;
+
+/**
+ * Caches the lines that display volleys, i.e., "<player>(<iteration>)\n",
+ * indexed by player and iteration, so output strategies that display
+ * volleys format each line only once rather than on every volley.
+ * Games longer than CACHED_ITERATIONS format their later volleys as
+ * they are played.
+ */
+final class VolleyLines {
+    /**
+     * Number of iterations whose lines are cached for each player.
+     */
+    static final int CACHED_ITERATIONS = 1024;
+
+    /**
+     * The players, in the order of their rows in sLines.
+     */
+    private static final PlayPingPong.PingPong[] PLAYERS =
+        PlayPingPong.PingPong.values();
+
+    /**
+     * The cached lines, filled in on first use.  Threads may race to
+     * fill in a line, which is harmless since Strings are immutable
+     * and every thread formats the same line.
+     */
+    private static final String[][] sLines =
+        new String[PLAYERS.length][CACHED_ITERATIONS];
+
+    /**
+     * Ensure this class is only used as a utility.
+     */
+    private VolleyLines() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Return the line that displays volley @a iteration of @a player.
+     */
+    static String lineOf(String player, int iteration) {
+        if (iteration >= 0 && iteration < CACHED_ITERATIONS)
+            for (int i = 0; i < PLAYERS.length; i++)
+                if (PLAYERS[i].name().equals(player)) {
+                    String line = sLines[i][iteration];
+                    if (line == null)
+                        sLines[i][iteration] = line = format(player, iteration);
+                    return line;
+                }
+        return format(player, iteration);
+    }
+
+    /**
+     * Format the line that displays volley @a iteration of @a player.
+     */
+    private static String format(String player, int iteration) {
+        return player + "(" + iteration + ")\n";
+    }
+}
@@ -0,0 +1,62 @@
+package vandy.mooc;
+
+/**
+ * Defines how volleys travel between the two players of
+ * PlayPingPong.  A transport owns the threads the players run on:
+ * it connects the players, delivers each volley to the receiving
+ * player on that player's own thread, and returns from play() once
+ * both players have stopped.
+ *
+ * HandlerTransport, the default, uses a HandlerThread and a Handler
+ * per player.  SpscRingTransport uses lock-free single-producer,
+ * single-consumer ring buffers instead.  ShardedHandlerTransport
+ * runs the players of many games on a fixed set of HandlerThreads.
+ */
+public interface VolleyTransport {
+    /**
+     * A player's end of the transport.  Only used on the thread the
+     * transport runs the player on.
+     */
+    interface Endpoint {
+        /**
+         * Send a volley to the other player.
+         *
+         * @return false if the other player has already stopped.
+         */
+        boolean send(int volley);
+
+        /**
+         * Stop delivering volleys to this player once the volley
+         * currently being handled returns.
+         */
+        void stopPlaying();
+    }
+
+    /**
+     * Game logic of one player, called back by the transport.
+     */
+    interface Player {
+        /**
+         * Return the name of the player, e.g., for naming its thread.
+         */
+        String getName();
+
+        /**
+         * Handle a volley sent by the other player.
+         */
+        void onVolley(Endpoint endpoint, int volley);
+    }
+
+    /**
+     * Connect the two players, deliver @a firstVolley to the first
+     * player once both are ready, and block until both players have
+     * stopped.  Once @a cancellation is cancelled, both players stop
+     * after the volley they're handling, volleys still in flight are
+     * discarded, and play() returns as soon as neither player is
+     * running.
+     */
+    void play(Player first,
+              Player second,
+              int firstVolley,
+              CancellationToken cancellation) throws InterruptedException;
+}
@@ -0,0 +1,121 @@
+package vandy.mooc;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @class VolleyAllocationBenchmark
+ *
+ * @brief Checks that the volley path of PlayPingPong doesn't
+ *        allocate in steady state.  Each operation is one volley
+ *        handled by a PingPongPlayer, with the output going to the
+ *        selected OutputStrategy.  Run with "-prof gc";
+ *        gc.alloc.rate.norm should be 0 B/op for the noop and
+ *        counting outputs, while console (into a discarding stream)
+ *        shows what formatting each volley costs.
+ *
+ *        The players are driven directly on the benchmark thread
+ *        because JMH's gc profiler doesn't count the allocations of
+ *        threads that end during an iteration, as a transport's
+ *        threads do at the end of each game.  The Handler part of
+ *        the path (pooled Messages carrying the volley in arg1) is
+ *        covered by RoundTripBenchmark.handler, which keeps its
+ *        threads alive.  It's in package vandy.mooc to reach the
+ *        package-private players.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VolleyAllocationBenchmark {
+    /**
+     * Number of volleys in each benchmark invocation.
+     */
+    private static final int VOLLEYS = 1000;
+
+    /**
+     * The OutputStrategy the players print to.
+     */
+    @Param({ "noop", "counting", "console" })
+    public String output;
+
+    /**
+     * The two players.
+     */
+    private VolleyTransport.Player mPing;
+    private VolleyTransport.Player mPong;
+
+    /**
+     * An Endpoint that drops the volleys the players send, so the
+     * benchmark measures only the game logic and the output.
+     */
+    private final VolleyTransport.Endpoint mEndpoint =
+        new VolleyTransport.Endpoint() {
+            @Override
+            public boolean send(int volley) {
+                return true;
+            }
+
+            @Override
+            public void stopPlaying() {
+            }
+        };
+
+    @Setup
+    public void setUp() {
+        OutputStrategy outputStrategy;
+        switch (output) {
+        case "noop":
+            outputStrategy = new NoOpOutputStrategy();
+            break;
+        case "counting":
+            outputStrategy = new CountingOutputStrategy();
+            break;
+        default:
+            outputStrategy = new ConsoleOutputStrategy
+                (new PrintStream(new OutputStream() {
+                        @Override
+                        public void write(int b) {
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) {
+                        }
+                    }));
+            break;
+        }
+
+        // A game that never ends, so the players keep volleying.
+        PlayPingPong game = new PlayPingPong(Integer.MAX_VALUE,
+                                             outputStrategy,
+                                             null);
+        mPing = game.new PingPongPlayer(PlayPingPong.PingPong.PING);
+        mPong = game.new PingPongPlayer(PlayPingPong.PingPong.PONG);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOLLEYS)
+    public void volley() {
+        // Volley 1 means the sender keeps playing.
+        for (int i = 0; i < VOLLEYS; i += 2) {
+            mPing.onVolley(mEndpoint, 1);
+            mPong.onVolley(mEndpoint, 1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package vandy.mooc.benchmarks;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records round-trip latencies into a preallocated array so that
+ * recording doesn't allocate or skew the benchmark's allocation
+ * rate.  Only one thread may record at a time; the report must be
+ * made after that thread's writes are visible (e.g., after the
+ * benchmark thread has synchronized with the recording thread).
+ * Once the array is full the oldest samples are overwritten.
+ */
+public class LatencyRecorder {
+    /**
+     * Percentiles included in the report.
+     */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    /**
+     * The samples, in nanoseconds.
+     */
+    private final long[] mSamples;
+
+    /**
+     * Total number of samples recorded since the last reset.
+     */
+    private long mCount;
+
+    /**
+     * Constructor preallocates room for @a capacity samples.
+     */
+    public LatencyRecorder(int capacity) {
+        mSamples = new long[capacity];
+    }
+
+    /**
+     * Record one latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        mSamples[(int) (mCount++ % mSamples.length)] = nanos;
+    }
+
+    /**
+     * Discard all samples, e.g., those recorded during warmup.
+     */
+    public void reset() {
+        mCount = 0;
+    }
+
+    /**
+     * Print the mean, the percentiles and the maximum of the retained
+     * samples.
+     */
+    public void report(String name, PrintStream out) {
+        int n = (int) Math.min(mCount, mSamples.length);
+        if (n == 0) {
+            out.println(name + ": no samples");
+            return;
+        }
+
+        long[] sorted = Arrays.copyOf(mSamples, n);
+        Arrays.sort(sorted);
+
+        double sum = 0;
+        for (long sample : sorted)
+            sum += sample;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US,
+                                "%s round trip (ns, %d samples): mean=%.1f",
+                                name, n, sum / n));
+        for (double p : PERCENTILES) {
+            int rank = (int) Math.ceil(p / 100.0 * n) - 1;
+            sb.append(String.format(Locale.US,
+                                    " p%s=%d",
+                                    p == Math.rint(p)
+                                    ? Long.toString((long) p)
+                                    : Double.toString(p),
+                                    sorted[Math.max(0, rank)]));
+        }
+        sb.append(" max=").append(sorted[n - 1]);
+        out.println(sb);
+    }
+}
@@ -0,0 +1,485 @@
+package vandy.mooc.benchmarks;
+
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class RoundTripBenchmark
+ *
+ * @brief Measures what one ping-pong round trip (ping handed to the
+ *        other thread, pong handed back) costs over several hand-off
+ *        mechanisms.  Each benchmark invocation plays a game of
+ *        ROUND_TRIPS round trips, and JMH divides the time by
+ *        ROUND_TRIPS, so the reported average is per round trip.
+ *
+ *        Every round trip is also timed individually into a
+ *        preallocated LatencyRecorder, and the percentiles of the
+ *        measurement iterations are printed when each trial ends.
+ *        Run with "-prof gc" to get the allocation rate;
+ *        gc.alloc.rate.norm is then bytes per round trip.
+ *
+ *        The Handler mechanism uses the JVM stand-ins for
+ *        android.os in jvm/src/main/java, so this module must be
+ *        compiled together with them, e.g.:
+ *
+ *        java -jar benchmarks.jar RoundTripBenchmark -prof gc
+ *
+ *        The busy-spin mechanism needs two free cores to give
+ *        meaningful numbers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+    /**
+     * Number of round trips in each benchmark invocation.
+     */
+    public static final int ROUND_TRIPS = 1000;
+
+    /**
+     * Number of round-trip latencies retained for the percentiles.
+     */
+    private static final int SAMPLES = 1 << 20;
+
+    /**
+     * Ping value that tells the other thread to stop.
+     */
+    private static final int STOP = -1;
+
+    /**
+     * The boxed volley handed over by the mechanisms that transfer
+     * objects.  It's preallocated so that autoboxing doesn't show up
+     * in their allocation rate.
+     */
+    private static final Integer BALL = Integer.valueOf(1000000);
+
+    /**
+     * Common state of a mechanism: the thread that plays pong and
+     * the recorder of round-trip latencies.
+     */
+    public abstract static class Pair {
+        /**
+         * Latencies of the round trips.
+         */
+        final LatencyRecorder mRecorder = new LatencyRecorder(SAMPLES);
+
+        /**
+         * Volley number of the last round trip played from the
+         * benchmark thread.  Kept here rather than in the benchmark
+         * class, which has no @State.
+         */
+        private int mVolley;
+
+        /**
+         * Return the next volley number.  Never 0 (the initial value
+         * of the volatile fields) or STOP, so every ping differs from
+         * the previous one.
+         */
+        int nextVolley() {
+            if (++mVolley <= 0)
+                mVolley = 1;
+            return mVolley;
+        }
+
+        /**
+         * Start the thread(s) of the mechanism.
+         */
+        abstract void start();
+
+        /**
+         * Stop the thread(s) of the mechanism and wait for them to
+         * finish.
+         */
+        abstract void stop() throws InterruptedException;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            start();
+        }
+
+        /**
+         * Discard the latencies recorded during warmup.
+         */
+        @TearDown(Level.Iteration)
+        public void endIteration(IterationParams params) {
+            if (params.getType() == IterationType.WARMUP)
+                mRecorder.reset();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            stop();
+            mRecorder.report(toString(), System.out);
+        }
+    }
+
+    /**
+     * Ping and pong are both HandlerThreads and volleys are Messages
+     * sent to the other thread's Handler, as in HandlerTransport.
+     * The benchmark thread serves and then waits for the game to
+     * finish, which costs one extra hand-off per ROUND_TRIPS round
+     * trips.
+     */
+    @State(Scope.Benchmark)
+    public static class HandlerPair extends Pair {
+        private static final int SERVE = 0;
+        private static final int PING = 1;
+        private static final int PONG = 2;
+
+        private HandlerThread mPingThread;
+        private HandlerThread mPongThread;
+        private Handler mPingHandler;
+        private Handler mPongHandler;
+
+        /**
+         * Round trips left in the current game.  Accessed only by
+         * the ping thread.
+         */
+        private int mRemaining;
+
+        /**
+         * When the current ping was sent.  Accessed only by the ping
+         * thread.
+         */
+        private long mSentAt;
+
+        /**
+         * Number of games finished, which the benchmark thread waits
+         * on.
+         */
+        private volatile int mGamesPlayed;
+
+        /**
+         * The benchmark thread, unparked when a game finishes.
+         */
+        private volatile Thread mWaiter;
+
+        @Override
+        void start() {
+            mPingThread = new HandlerThread("Ping");
+            mPongThread = new HandlerThread("Pong");
+            mPingThread.start();
+            mPongThread.start();
+
+            mPingHandler = new Handler(mPingThread.getLooper(),
+                                       new Handler.Callback() {
+                    @Override
+                    public boolean handleMessage(Message msg) {
+                        if (msg.what == PONG) {
+                            mRecorder.record(System.nanoTime() - mSentAt);
+                            if (--mRemaining == 0) {
+                                mGamesPlayed++;
+                                LockSupport.unpark(mWaiter);
+                                return true;
+                            }
+                        } else
+                            mRemaining = msg.arg1;
+                        mSentAt = System.nanoTime();
+                        mPongHandler.sendMessage(mPongHandler.obtainMessage(PING));
+                        return true;
+                    }
+                });
+            mPongHandler = new Handler(mPongThread.getLooper(),
+                                       new Handler.Callback() {
+                    @Override
+                    public boolean handleMessage(Message msg) {
+                        mPingHandler.sendMessage(mPingHandler.obtainMessage(PONG));
+                        return true;
+                    }
+                });
+        }
+
+        /**
+         * Play a game and wait for it to finish.
+         */
+        void play() {
+            int played = mGamesPlayed;
+            mWaiter = Thread.currentThread();
+            mPingHandler.sendMessage
+                (mPingHandler.obtainMessage(SERVE, ROUND_TRIPS, 0));
+            while (mGamesPlayed == played)
+                LockSupport.park(this);
+        }
+
+        @Override
+        void stop() throws InterruptedException {
+            mPingThread.quit();
+            mPongThread.quit();
+            mPingThread.join();
+            mPongThread.join();
+        }
+
+        @Override
+        public String toString() {
+            return "Handler";
+        }
+    }
+
+    /**
+     * Each volley is put into a SynchronousQueue that the other
+     * thread takes it from.
+     */
+    @State(Scope.Benchmark)
+    public static class SynchronousQueuePair extends Pair {
+        final SynchronousQueue<Integer> mPings = new SynchronousQueue<Integer>();
+        final SynchronousQueue<Integer> mPongs = new SynchronousQueue<Integer>();
+        private Thread mPong;
+
+        @Override
+        void start() {
+            mPong = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (Integer volley;
+                                 (volley = mPings.take()) != STOP;)
+                                mPongs.put(volley);
+                        } catch (InterruptedException e) {
+                            // Stop playing.
+                        }
+                    }
+                }, "Pong");
+            mPong.start();
+        }
+
+        @Override
+        void stop() throws InterruptedException {
+            mPings.put(STOP);
+            mPong.join();
+        }
+
+        @Override
+        public String toString() {
+            return "SynchronousQueue";
+        }
+    }
+
+    /**
+     * Both threads meet at an Exchanger twice per round trip: once
+     * to hand over the ping and once to hand back the pong.
+     */
+    @State(Scope.Benchmark)
+    public static class ExchangerPair extends Pair {
+        final Exchanger<Integer> mExchanger = new Exchanger<Integer>();
+        private Thread mPong;
+
+        @Override
+        void start() {
+            mPong = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (Integer volley;
+                                 (volley = mExchanger.exchange(BALL)) != STOP;)
+                                mExchanger.exchange(volley);
+                        } catch (InterruptedException e) {
+                            // Stop playing.
+                        }
+                    }
+                }, "Pong");
+            mPong.start();
+        }
+
+        @Override
+        void stop() throws InterruptedException {
+            mExchanger.exchange(STOP);
+            mPong.join();
+        }
+
+        @Override
+        public String toString() {
+            return "Exchanger";
+        }
+    }
+
+    /**
+     * Volleys are sequence numbers in volatile fields; the receiving
+     * thread blocks with LockSupport.park() and the sender wakes it
+     * with LockSupport.unpark().
+     */
+    @State(Scope.Benchmark)
+    public static class ParkPair extends Pair {
+        volatile int mPing;
+        volatile int mPong;
+        volatile boolean mStopped;
+        Thread mPinger;
+        private Thread mPonger;
+
+        @Override
+        void start() {
+            mPonger = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int seen = 0; !mStopped; ) {
+                            int ping = mPing;
+                            if (ping == seen) {
+                                LockSupport.park(this);
+                                continue;
+                            }
+                            seen = ping;
+                            mPong = ping;
+                            LockSupport.unpark(mPinger);
+                        }
+                    }
+                }, "Pong");
+            mPonger.start();
+        }
+
+        /**
+         * Play one round trip from the benchmark thread.
+         */
+        int roundTrip(int volley) {
+            mPing = volley;
+            LockSupport.unpark(mPonger);
+            while (mPong != volley)
+                LockSupport.park(this);
+            return volley;
+        }
+
+        @Override
+        void stop() throws InterruptedException {
+            mStopped = true;
+            LockSupport.unpark(mPonger);
+            mPonger.join();
+        }
+
+        @Override
+        public String toString() {
+            return "LockSupport";
+        }
+    }
+
+    /**
+     * Volleys are sequence numbers in volatile fields that the
+     * receiving thread spins on without ever blocking.
+     */
+    @State(Scope.Benchmark)
+    public static class SpinPair extends Pair {
+        volatile int mPing;
+        volatile int mPong;
+        volatile boolean mStopped;
+        private Thread mPonger;
+
+        @Override
+        void start() {
+            mPonger = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int seen = 0; !mStopped; ) {
+                            int ping = mPing;
+                            if (ping == seen) {
+                                Thread.onSpinWait();
+                                continue;
+                            }
+                            seen = ping;
+                            mPong = ping;
+                        }
+                    }
+                }, "Pong");
+            mPonger.start();
+        }
+
+        /**
+         * Play one round trip from the benchmark thread.
+         */
+        int roundTrip(int volley) {
+            mPing = volley;
+            while (mPong != volley)
+                Thread.onSpinWait();
+            return volley;
+        }
+
+        @Override
+        void stop() throws InterruptedException {
+            mStopped = true;
+            mPonger.join();
+        }
+
+        @Override
+        public String toString() {
+            return "BusySpin";
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public void handler(HandlerPair pair) {
+        pair.play();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public int synchronousQueue(SynchronousQueuePair pair)
+        throws InterruptedException {
+        int sum = 0;
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            long start = System.nanoTime();
+            pair.mPings.put(BALL);
+            sum += pair.mPongs.take();
+            pair.mRecorder.record(System.nanoTime() - start);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public int exchanger(ExchangerPair pair) throws InterruptedException {
+        int sum = 0;
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            long start = System.nanoTime();
+            pair.mExchanger.exchange(BALL);
+            sum += pair.mExchanger.exchange(BALL);
+            pair.mRecorder.record(System.nanoTime() - start);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public int lockSupport(ParkPair pair) {
+        pair.mPinger = Thread.currentThread();
+        int sum = 0;
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            long start = System.nanoTime();
+            sum += pair.roundTrip(pair.nextVolley());
+            pair.mRecorder.record(System.nanoTime() - start);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public int busySpin(SpinPair pair) {
+        int sum = 0;
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            long start = System.nanoTime();
+            sum += pair.roundTrip(pair.nextVolley());
+            pair.mRecorder.record(System.nanoTime() - start);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,171 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.Handler: sends Messages and Runnables
+ * to the MessageQueue of a Looper and dispatches them on the
+ * Looper's thread.
+ */
+public class Handler {
+    /**
+     * Callback interface that handles Messages without requiring a
+     * Handler subclass.
+     */
+    public interface Callback {
+        boolean handleMessage(Message msg);
+    }
+
+    /**
+     * The Looper whose thread this Handler dispatches on.
+     */
+    final Looper mLooper;
+
+    /**
+     * The queue of mLooper.
+     */
+    final MessageQueue mQueue;
+
+    /**
+     * Optional Callback that handles Messages.
+     */
+    final Callback mCallback;
+
+    public Handler() {
+        this((Callback) null);
+    }
+
+    public Handler(Callback callback) {
+        this(currentLooper(), callback);
+    }
+
+    public Handler(Looper looper) {
+        this(looper, null);
+    }
+
+    public Handler(Looper looper, Callback callback) {
+        mLooper = looper;
+        mQueue = looper.mQueue;
+        mCallback = callback;
+    }
+
+    /**
+     * Return the current thread's Looper, which must exist.
+     */
+    private static Looper currentLooper() {
+        Looper looper = Looper.myLooper();
+        if (looper == null)
+            throw new RuntimeException("Can't create handler inside thread "
+                                       + Thread.currentThread()
+                                       + " that has not called Looper.prepare()");
+        return looper;
+    }
+
+    /**
+     * Subclasses override this to receive Messages.
+     */
+    public void handleMessage(Message msg) {
+    }
+
+    /**
+     * Dispatch a Message: run its Runnable if it has one, otherwise
+     * offer it to the Callback and then to handleMessage().
+     */
+    public void dispatchMessage(Message msg) {
+        if (msg.callback != null) {
+            msg.callback.run();
+        } else {
+            if (mCallback != null && mCallback.handleMessage(msg))
+                return;
+            handleMessage(msg);
+        }
+    }
+
+    public final Message obtainMessage() {
+        return Message.obtain(this);
+    }
+
+    public final Message obtainMessage(int what) {
+        return Message.obtain(this, what);
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        return Message.obtain(this, what, obj);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2) {
+        return Message.obtain(this, what, arg1, arg2);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        return Message.obtain(this, what, arg1, arg2, obj);
+    }
+
+    public final boolean post(Runnable r) {
+        return sendMessageDelayed(Message.obtain(this, r), 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return sendMessageDelayed(Message.obtain(this, r), delayMillis);
+    }
+
+    public final boolean postAtTime(Runnable r, long uptimeMillis) {
+        return sendMessageAtTime(Message.obtain(this, r), uptimeMillis);
+    }
+
+    public final boolean postAtFrontOfQueue(Runnable r) {
+        return sendMessageAtFrontOfQueue(Message.obtain(this, r));
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        mQueue.removeCallbacks(this, r, null);
+    }
+
+    public final boolean sendMessage(Message msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendMessageDelayed(Message.obtain(this, what), 0);
+    }
+
+    public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+        return sendMessageDelayed(Message.obtain(this, what), delayMillis);
+    }
+
+    public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+        if (delayMillis < 0)
+            delayMillis = 0;
+        return sendMessageAtTime(msg, SystemClock.uptimeMillis() + delayMillis);
+    }
+
+    public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+        msg.target = this;
+        return mQueue.enqueueMessage(msg, uptimeMillis);
+    }
+
+    public final boolean sendMessageAtFrontOfQueue(Message msg) {
+        msg.target = this;
+        return mQueue.enqueueMessage(msg, 0);
+    }
+
+    public final boolean hasMessages(int what) {
+        return mQueue.hasMessages(this, what, null);
+    }
+
+    public final void removeMessages(int what) {
+        mQueue.removeMessages(this, what, null);
+    }
+
+    public final void removeCallbacksAndMessages(Object token) {
+        mQueue.removeCallbacksAndMessages(this, token);
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    @Override
+    public String toString() {
+        return "Handler (" + getClass().getName() + ") {"
+            + Integer.toHexString(System.identityHashCode(this)) + "}";
+    }
+}
@@ -0,0 +1,98 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.HandlerThread: a Thread that prepares
+ * a Looper, calls onLooperPrepared() and then loops.
+ */
+public class HandlerThread extends Thread {
+    /**
+     * The Process priority the thread runs at.
+     */
+    private final int mPriority;
+
+    /**
+     * Id of the thread while it runs, or -1.
+     */
+    private int mTid = -1;
+
+    /**
+     * The thread's Looper, guarded by "this".
+     */
+    private Looper mLooper;
+
+    public HandlerThread(String name) {
+        this(name, Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    public HandlerThread(String name, int priority) {
+        super(name);
+        mPriority = priority;
+    }
+
+    /**
+     * Hook method called after the Looper is prepared and before it
+     * starts looping.
+     */
+    protected void onLooperPrepared() {
+    }
+
+    @Override
+    public void run() {
+        mTid = Process.myTid();
+        Looper.prepare();
+        synchronized (this) {
+            mLooper = Looper.myLooper();
+            notifyAll();
+        }
+        Process.setThreadPriority(mPriority);
+        onLooperPrepared();
+        Looper.loop();
+        mTid = -1;
+    }
+
+    /**
+     * Return the thread's Looper, waiting for it to be prepared if
+     * the thread has been started.  Returns null if the thread isn't
+     * alive.
+     */
+    public Looper getLooper() {
+        if (!isAlive())
+            return null;
+
+        boolean interrupted = false;
+        synchronized (this) {
+            while (isAlive() && mLooper == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return mLooper;
+    }
+
+    public boolean quit() {
+        Looper looper = getLooper();
+        if (looper != null) {
+            looper.quit();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean quitSafely() {
+        Looper looper = getLooper();
+        if (looper != null) {
+            looper.quitSafely();
+            return true;
+        }
+        return false;
+    }
+
+    public int getThreadId() {
+        return mTid;
+    }
+}
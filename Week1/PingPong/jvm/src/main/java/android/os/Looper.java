@@ -0,0 +1,115 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.Looper: runs a message loop for a
+ * thread by dispatching the Messages of its MessageQueue.
+ */
+public final class Looper {
+    /**
+     * The Looper of the current thread, if it has one.
+     */
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+
+    /**
+     * The Looper designated as the main Looper, if any.
+     */
+    private static Looper sMainLooper;
+
+    /**
+     * The queue this Looper dispatches.
+     */
+    final MessageQueue mQueue;
+
+    /**
+     * The thread this Looper runs on.
+     */
+    private final Thread mThread;
+
+    private Looper() {
+        mQueue = new MessageQueue();
+        mThread = Thread.currentThread();
+    }
+
+    /**
+     * Initialize the current thread as a Looper.
+     */
+    public static void prepare() {
+        if (sThreadLocal.get() != null)
+            throw new RuntimeException("Only one Looper may be created per thread");
+        sThreadLocal.set(new Looper());
+    }
+
+    /**
+     * Initialize the current thread as a Looper and make it the main
+     * Looper.  On a plain JVM there is no UI thread, so a headless
+     * program calls this itself if it needs one.
+     */
+    public static void prepareMainLooper() {
+        prepare();
+        synchronized (Looper.class) {
+            if (sMainLooper != null)
+                throw new IllegalStateException("The main Looper has already been prepared.");
+            sMainLooper = myLooper();
+        }
+    }
+
+    public static Looper getMainLooper() {
+        synchronized (Looper.class) {
+            return sMainLooper;
+        }
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static MessageQueue myQueue() {
+        return myLooper().mQueue;
+    }
+
+    /**
+     * Run the message queue of the current thread until the Looper
+     * quits.
+     */
+    public static void loop() {
+        Looper me = myLooper();
+        if (me == null)
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+
+        for (;;) {
+            Message msg = me.mQueue.next();
+            if (msg == null)
+                return;
+            msg.target.dispatchMessage(msg);
+            msg.recycleUnchecked();
+        }
+    }
+
+    /**
+     * Quit the Looper, discarding any pending Messages.
+     */
+    public void quit() {
+        mQueue.quit(false);
+    }
+
+    /**
+     * Quit the Looper once the Messages that are already due have
+     * been delivered.
+     */
+    public void quitSafely() {
+        mQueue.quit(true);
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public MessageQueue getQueue() {
+        return mQueue;
+    }
+
+    @Override
+    public String toString() {
+        return "Looper (" + mThread.getName() + ", tid " + mThread.getId() + ")";
+    }
+}
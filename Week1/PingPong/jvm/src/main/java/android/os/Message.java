@@ -0,0 +1,172 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.Message, so the HaMeR code of the
+ * PingPong app can run, be benchmarked and be profiled on a plain
+ * JVM.  Only the subset of the API the app uses is provided, with
+ * the same semantics, including the global pool of recycled Messages
+ * that makes obtain() allocation-free in steady state.
+ */
+public final class Message {
+    /**
+     * User-defined payload fields, as on Android.
+     */
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+
+    /**
+     * Delivery time in SystemClock.uptimeMillis() time base.
+     */
+    long when;
+
+    /**
+     * The Handler that dispatches this Message.
+     */
+    Handler target;
+
+    /**
+     * The Runnable posted with this Message, if any.
+     */
+    Runnable callback;
+
+    /**
+     * Next Message in the MessageQueue or in the pool.
+     */
+    Message next;
+
+    /**
+     * The pool of recycled Messages, guarded by sPoolSync.
+     */
+    private static final Object sPoolSync = new Object();
+    private static Message sPool;
+    private static int sPoolSize = 0;
+
+    /**
+     * Maximum number of Messages kept in the pool, as on Android.
+     */
+    private static final int MAX_POOL_SIZE = 50;
+
+    /**
+     * Return a new Message from the global pool, allocating one only
+     * if the pool is empty.
+     */
+    public static Message obtain() {
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                Message m = sPool;
+                sPool = m.next;
+                m.next = null;
+                sPoolSize--;
+                return m;
+            }
+        }
+        return new Message();
+    }
+
+    public static Message obtain(Handler h) {
+        Message m = obtain();
+        m.target = h;
+        return m;
+    }
+
+    public static Message obtain(Handler h, Runnable callback) {
+        Message m = obtain();
+        m.target = h;
+        m.callback = callback;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what) {
+        Message m = obtain();
+        m.target = h;
+        m.what = what;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what, Object obj) {
+        Message m = obtain();
+        m.target = h;
+        m.what = what;
+        m.obj = obj;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what, int arg1, int arg2) {
+        Message m = obtain();
+        m.target = h;
+        m.what = what;
+        m.arg1 = arg1;
+        m.arg2 = arg2;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what, int arg1, int arg2, Object obj) {
+        Message m = obtain();
+        m.target = h;
+        m.what = what;
+        m.arg1 = arg1;
+        m.arg2 = arg2;
+        m.obj = obj;
+        return m;
+    }
+
+    /**
+     * Return this Message to the global pool.  It must not be used
+     * afterwards.
+     */
+    public void recycle() {
+        recycleUnchecked();
+    }
+
+    /**
+     * Clear this Message and return it to the pool.
+     */
+    void recycleUnchecked() {
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        when = 0;
+        target = null;
+        callback = null;
+
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    public long getWhen() {
+        return when;
+    }
+
+    public void setTarget(Handler target) {
+        this.target = target;
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+
+    public Runnable getCallback() {
+        return callback;
+    }
+
+    /**
+     * Send this Message to the Handler specified by getTarget().
+     */
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+
+    @Override
+    public String toString() {
+        return "{ when=" + when + " what=" + what + " arg1=" + arg1
+            + " arg2=" + arg2 + " target=" + target + " }";
+    }
+}
@@ -0,0 +1,197 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.MessageQueue: the list of Messages, in
+ * delivery-time order, that a Looper dispatches.  Like the real
+ * queue, every enqueue and dequeue takes the queue's lock, and an
+ * idle Looper blocks until a Message is due (here with
+ * Object.wait() instead of epoll).
+ */
+public final class MessageQueue {
+    /**
+     * Head of the list of pending Messages, sorted by "when".
+     * Guarded by "this".
+     */
+    private Message mMessages;
+
+    /**
+     * Set once the queue has been asked to quit.  Guarded by "this".
+     */
+    private boolean mQuitting;
+
+    /**
+     * Only Loopers create MessageQueues.
+     */
+    MessageQueue() {
+    }
+
+    /**
+     * Insert a Message in delivery-time order, after any Message
+     * with the same delivery time.
+     *
+     * @return false if the queue is quitting, in which case the
+     *         Message is recycled.
+     */
+    synchronized boolean enqueueMessage(Message msg, long when) {
+        if (mQuitting) {
+            msg.recycleUnchecked();
+            return false;
+        }
+
+        msg.when = when;
+        Message p = mMessages;
+        if (p == null || when < p.when) {
+            // New head: the Looper may need to wake up earlier.
+            msg.next = p;
+            mMessages = msg;
+            notify();
+        } else {
+            while (p.next != null && p.next.when <= when)
+                p = p.next;
+            msg.next = p.next;
+            p.next = msg;
+        }
+        return true;
+    }
+
+    /**
+     * Block until the next Message is due and return it, or return
+     * null once the queue has quit.  Like nativePollOnce() on
+     * Android, waiting isn't ended by Thread.interrupt(); the
+     * interrupt status is preserved for the code the Message runs.
+     */
+    synchronized Message next() {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                long now = SystemClock.uptimeMillis();
+                Message msg = mMessages;
+                if (msg != null && msg.when <= now) {
+                    mMessages = msg.next;
+                    msg.next = null;
+                    return msg;
+                }
+                if (mQuitting)
+                    return null;
+
+                try {
+                    if (msg == null)
+                        wait();
+                    else
+                        wait(msg.when - now);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the queue.  When @a safe is true the Messages that are
+     * already due are still delivered; otherwise every pending
+     * Message is discarded.
+     */
+    synchronized void quit(boolean safe) {
+        if (mQuitting)
+            return;
+        mQuitting = true;
+
+        long now = SystemClock.uptimeMillis();
+        Message keep = null;
+        Message keepTail = null;
+        Message p = mMessages;
+        while (p != null) {
+            Message n = p.next;
+            if (safe && p.when <= now) {
+                p.next = null;
+                if (keepTail == null)
+                    keep = p;
+                else
+                    keepTail.next = p;
+                keepTail = p;
+            } else {
+                p.recycleUnchecked();
+            }
+            p = n;
+        }
+        mMessages = keep;
+        notify();
+    }
+
+    /**
+     * Return true if a Message for the given Handler and "what" is
+     * pending.
+     */
+    synchronized boolean hasMessages(Handler h, int what, Object object) {
+        for (Message p = mMessages; p != null; p = p.next)
+            if (p.target == h && p.what == what && (object == null || p.obj == object))
+                return true;
+        return false;
+    }
+
+    /**
+     * Remove the pending Messages for the given Handler and "what".
+     */
+    synchronized void removeMessages(Handler h, int what, Object object) {
+        Message prev = null;
+        Message p = mMessages;
+        while (p != null) {
+            Message n = p.next;
+            if (p.target == h && p.callback == null && p.what == what
+                && (object == null || p.obj == object))
+                unlink(prev, p);
+            else
+                prev = p;
+            p = n;
+        }
+    }
+
+    /**
+     * Remove the pending posts of the given Runnable for the given
+     * Handler.
+     */
+    synchronized void removeCallbacks(Handler h, Runnable r, Object object) {
+        Message prev = null;
+        Message p = mMessages;
+        while (p != null) {
+            Message n = p.next;
+            if (p.target == h && p.callback == r
+                && (object == null || p.obj == object))
+                unlink(prev, p);
+            else
+                prev = p;
+            p = n;
+        }
+    }
+
+    /**
+     * Remove all pending Messages and posts for the given Handler
+     * (and token, if not null).
+     */
+    synchronized void removeCallbacksAndMessages(Handler h, Object object) {
+        Message prev = null;
+        Message p = mMessages;
+        while (p != null) {
+            Message n = p.next;
+            if (p.target == h && (object == null || p.obj == object))
+                unlink(prev, p);
+            else
+                prev = p;
+            p = n;
+        }
+    }
+
+    /**
+     * Unlink @a p, whose predecessor is @a prev, and recycle it.
+     */
+    private void unlink(Message prev, Message p) {
+        if (prev == null)
+            mMessages = p.next;
+        else
+            prev.next = p.next;
+        p.recycleUnchecked();
+    }
+}
@@ -0,0 +1,42 @@
+package android.os;
+
+/**
+ * JVM stand-in for the thread-related part of android.os.Process.
+ * Linux "nice" priorities are mapped onto Java thread priorities.
+ */
+public class Process {
+    public static final int THREAD_PRIORITY_DEFAULT = 0;
+    public static final int THREAD_PRIORITY_LOWEST = 19;
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+    public static final int THREAD_PRIORITY_FOREGROUND = -2;
+    public static final int THREAD_PRIORITY_DISPLAY = -4;
+    public static final int THREAD_PRIORITY_URGENT_DISPLAY = -8;
+    public static final int THREAD_PRIORITY_MORE_FAVORABLE = -1;
+    public static final int THREAD_PRIORITY_LESS_FAVORABLE = +1;
+
+    /**
+     * Return an id for the calling thread.
+     */
+    public static int myTid() {
+        return (int) Thread.currentThread().getId();
+    }
+
+    /**
+     * Set the priority of the calling thread.
+     */
+    public static void setThreadPriority(int priority) {
+        // Nice values run from -20 (highest) to 19 (lowest); Java
+        // priorities from MAX_PRIORITY (10) to MIN_PRIORITY (1).
+        int javaPriority = Thread.NORM_PRIORITY - priority / 4;
+        Thread.currentThread().setPriority(Math.max(Thread.MIN_PRIORITY,
+                                                    Math.min(Thread.MAX_PRIORITY,
+                                                             javaPriority)));
+    }
+
+    /**
+     * Setting the priority of another thread by id isn't supported on
+     * a plain JVM, so this is a no-op.
+     */
+    public static void setThreadPriority(int tid, int priority) {
+    }
+}
@@ -0,0 +1,40 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.SystemClock, backed by the monotonic
+ * System.nanoTime() clock.
+ */
+public final class SystemClock {
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Sleep for the given time, ignoring interrupts but preserving
+     * the interrupt status, as on Android.
+     */
+    public static void sleep(long ms) {
+        long end = uptimeMillis() + ms;
+        boolean interrupted = false;
+        for (long remaining = ms; remaining > 0; remaining = end - uptimeMillis()) {
+            try {
+                Thread.sleep(remaining);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
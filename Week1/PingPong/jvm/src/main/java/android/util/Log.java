@@ -0,0 +1,87 @@
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * JVM stand-in for android.util.Log that writes to standard error in
+ * logcat's "brief" format.  Messages below INFO are dropped unless
+ * the "android.log.level" system property is set to a lower level
+ * (e.g., -Dandroid.log.level=2 for VERBOSE).
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    /**
+     * Lowest level written.
+     */
+    private static final int sMinLevel =
+        Integer.getInteger("android.log.level", INFO);
+
+    /**
+     * Single-letter names of the levels, indexed by level.
+     */
+    private static final String LEVELS = "??VDIWEA";
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg);
+    }
+
+    public static int d(String tag, String msg) {
+        return println(DEBUG, tag, msg);
+    }
+
+    public static int i(String tag, String msg) {
+        return println(INFO, tag, msg);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println(WARN, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg + '\n' + getStackTraceString(tr));
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return level >= sMinLevel;
+    }
+
+    public static String getStackTraceString(Throwable tr) {
+        if (tr == null)
+            return "";
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        tr.printStackTrace(pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+    /**
+     * Write a message at the given level.
+     */
+    public static int println(int priority, String tag, String msg) {
+        if (priority < sMinLevel)
+            return 0;
+        String line = LEVELS.charAt(Math.max(0, Math.min(priority, ASSERT)))
+            + "/" + tag + ": " + msg;
+        System.err.println(line);
+        return line.length();
+    }
+}
@@ -0,0 +1,118 @@
+package vandy.mooc;
+
+import java.util.Locale;
+
+/**
+ * @class BatchSweep
+ *
+ * @brief Measures PlayPingPong's throughput mode: for each batch
+ *        size K, where each message stands for K volleys, it plays a
+ *        game over the given transports and reports volleys/sec and
+ *        the time per message.  Where volleys/sec stops rising with K
+ *        is where the cost of the hand-off stops dominating the cost
+ *        of a volley.  The last row adapts K during the game (see
+ *        BatchSizer).  Usage:
+ *
+ *        java vandy.mooc.BatchSweep [iterations] [output] [transports...]
+ *
+ *        where output is one of noop or counting (the default) and the
+ *        transports are named as for HeadlessPingPong (by default
+ *        handler, pooled and park).
+ */
+public class BatchSweep {
+    /**
+     * Batch sizes played, followed by BatchSizer.ADAPTIVE.
+     */
+    private static final int[] BATCH_SIZES = {
+        1, 2, 4, 8, 16, 32, 64, 128, 256, 1024, BatchSizer.ADAPTIVE
+    };
+
+    /**
+     * Transports played when none are given.
+     */
+    private static final String[] DEFAULT_TRANSPORTS = { "handler", "pooled", "park" };
+
+    /**
+     * Games played per batch size; the fastest is reported.
+     */
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        String output = args.length > 1 ? args[1] : "counting";
+        String[] transports = DEFAULT_TRANSPORTS;
+        if (args.length > 2) {
+            transports = new String[args.length - 2];
+            System.arraycopy(args, 2, transports, 0, transports.length);
+        }
+
+        OutputStrategy outputStrategy = "noop".equals(output)
+            ? new NoOpOutputStrategy()
+            : new CountingOutputStrategy();
+
+        System.out.println("transport          K   volleys/s  ns/volley  us/message");
+        for (String name : transports) {
+            VolleyTransport transport = makeTransport(name);
+
+            // Warm up, unreported.
+            new PlayPingPong(iterations, outputStrategy, transport, 1).run();
+
+            for (int batchSize : BATCH_SIZES) {
+                long bestNanos = Long.MAX_VALUE;
+                int chosenBatch = batchSize;
+                for (int run = 0; run < RUNS; run++) {
+                    PlayPingPong playPingPong =
+                        new PlayPingPong(iterations, outputStrategy, transport, batchSize);
+                    long startNanos = System.nanoTime();
+                    playPingPong.run();
+                    long elapsedNanos = System.nanoTime() - startNanos;
+                    if (elapsedNanos < bestNanos) {
+                        bestNanos = elapsedNanos;
+                        chosenBatch = playPingPong.getBatchSize();
+                    }
+                }
+
+                long volleys = 2L * iterations;
+                long messages = 2L * ((iterations + chosenBatch - 1) / chosenBatch);
+                System.out.printf(Locale.US, "%-12s %7s  %10.0f  %9.1f  %10.2f%n",
+                                  name,
+                                  batchSize == BatchSizer.ADAPTIVE
+                                  ? "~" + chosenBatch
+                                  : String.valueOf(batchSize),
+                                  volleys * 1e9 / bestNanos,
+                                  (double) bestNanos / volleys,
+                                  bestNanos / 1e3 / messages);
+            }
+
+            if (transport instanceof PooledHandlerTransport)
+                ((PooledHandlerTransport) transport).release();
+            if (transport instanceof ShardedHandlerTransport)
+                ((ShardedHandlerTransport) transport).release();
+        }
+    }
+
+    /**
+     * Factory method that returns the VolleyTransport with the given
+     * name.
+     */
+    private static VolleyTransport makeTransport(String name) {
+        switch (name) {
+        case "handler":
+            return new HandlerTransport();
+        case "pooled":
+            return new PooledHandlerTransport();
+        case "sharded":
+            return new ShardedHandlerTransport();
+        case "park":
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.PARK);
+        case "yield":
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.YIELD);
+        case "spin":
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.SPIN_THEN_PARK);
+        case "virtual":
+            return new VirtualThreadTransport();
+        default:
+            throw new IllegalArgumentException("unknown transport " + name);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package vandy.mooc;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class EngineComparison
+ *
+ * @brief Compares the engines that can run ping-pong players on the
+ *        JVM by passing a token around rings of up to tens of
+ *        thousands of players:
+ *
+ *        - handler: a HandlerThread per player and Messages sent to
+ *          the next player's Handler, as in TokenRing.
+ *        - platform: a platform thread per player and IntChannels.
+ *        - virtual: a virtual thread per player and IntChannels
+ *          (Java 21 or later).
+ *
+ *        For each engine and ring size it reports the startup time
+ *        (until every player is ready to receive), the latency per
+ *        hop, and the heap and resident memory per player.  Platform
+ *        thread engines are skipped above PLATFORM_LIMIT players.
+ *        Usage:
+ *
+ *        java vandy.mooc.EngineComparison [players...]
+ */
+public class EngineComparison {
+    /**
+     * Ring sizes played when none are given.
+     */
+    private static final int[] DEFAULT_PLAYERS = { 2, 100, 1000, 10000, 30000 };
+
+    /**
+     * Largest ring played by the engines that need a platform thread
+     * per player.
+     */
+    private static final int PLATFORM_LIMIT = 5000;
+
+    /**
+     * Minimum number of hops timed per ring, so that small rings
+     * still give a stable latency.
+     */
+    private static final int MIN_HOPS = 100000;
+
+    /**
+     * Number of laps the token makes around larger rings.
+     */
+    private static final int LAPS = 10;
+
+    /**
+     * Capacity of each player's IntChannel.  Only one token is ever
+     * in flight.
+     */
+    private static final int INBOX_CAPACITY = 4;
+
+    /**
+     * A ring of players that pass a token carrying the number of
+     * hops left.
+     */
+    interface Ring {
+        /**
+         * Start @a players players and return once all of them are
+         * ready to receive.
+         */
+        void start(int players) throws InterruptedException;
+
+        /**
+         * Pass the token around for @a hops hops and wait until it
+         * has made them.
+         */
+        void circulate(int hops) throws InterruptedException;
+
+        /**
+         * Stop all players and wait for them to finish.
+         */
+        void stop() throws InterruptedException;
+    }
+
+    /**
+     * Each player is a HandlerThread.
+     */
+    static class HandlerRing implements Ring {
+        private HandlerThread[] mThreads;
+        private Handler[] mHandlers;
+        private volatile CountDownLatch mDone;
+
+        @Override
+        public void start(int players) {
+            mThreads = new HandlerThread[players];
+            mHandlers = new Handler[players];
+            for (int i = 0; i < players; i++) {
+                mThreads[i] = new HandlerThread("ring-" + i);
+                mThreads[i].start();
+            }
+
+            // getLooper() waits until each thread's Looper is ready.
+            for (int i = 0; i < players; i++) {
+                final int next = (i + 1) % players;
+                mHandlers[i] =
+                    new Handler(mThreads[i].getLooper(), new Handler.Callback() {
+                            @Override
+                            public boolean handleMessage(Message msg) {
+                                if (msg.arg1 == 0)
+                                    mDone.countDown();
+                                else
+                                    mHandlers[next].obtainMessage(0, msg.arg1 - 1, 0)
+                                        .sendToTarget();
+                                return true;
+                            }
+                        });
+            }
+        }
+
+        @Override
+        public void circulate(int hops) throws InterruptedException {
+            mDone = new CountDownLatch(1);
+            mHandlers[0].obtainMessage(0, hops, 0).sendToTarget();
+            mDone.await();
+        }
+
+        @Override
+        public void stop() throws InterruptedException {
+            for (HandlerThread thread : mThreads)
+                if (thread != null)
+                    thread.quit();
+            for (HandlerThread thread : mThreads)
+                if (thread != null)
+                    thread.join();
+        }
+    }
+
+    /**
+     * Each player is a thread from a ThreadFactory with an
+     * IntChannel as its inbox.
+     */
+    static class ChannelRing implements Ring {
+        private final ThreadFactory mThreadFactory;
+        private IntChannel[] mInboxes;
+        private Thread[] mThreads;
+        private volatile CountDownLatch mDone;
+
+        ChannelRing(ThreadFactory threadFactory) {
+            mThreadFactory = threadFactory;
+        }
+
+        @Override
+        public void start(int players) throws InterruptedException {
+            mInboxes = new IntChannel[players];
+            mThreads = new Thread[players];
+            for (int i = 0; i < players; i++)
+                mInboxes[i] = new IntChannel(INBOX_CAPACITY);
+
+            final CountDownLatch ready = new CountDownLatch(players);
+            for (int i = 0; i < players; i++) {
+                final IntChannel inbox = mInboxes[i];
+                final IntChannel next = mInboxes[(i + 1) % players];
+                mThreads[i] = mThreadFactory.newThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            ready.countDown();
+                            try {
+                                for (int hops;
+                                     (hops = inbox.receive()) != IntChannel.CLOSED; )
+                                    if (hops == 0)
+                                        mDone.countDown();
+                                    else
+                                        next.send(hops - 1);
+                            } catch (InterruptedException e) {
+                                // Stop playing.
+                            }
+                        }
+                    });
+                mThreads[i].start();
+            }
+            ready.await();
+        }
+
+        @Override
+        public void circulate(int hops) throws InterruptedException {
+            mDone = new CountDownLatch(1);
+            mInboxes[0].send(hops);
+            mDone.await();
+        }
+
+        @Override
+        public void stop() throws InterruptedException {
+            for (IntChannel inbox : mInboxes)
+                inbox.close();
+            for (Thread thread : mThreads)
+                if (thread != null)
+                    thread.join();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] sizes = DEFAULT_PLAYERS;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.println("engine    players  startup ms  us/player  ns/hop"
+                           + "  heap B/player  RSS B/player");
+        for (int players : sizes) {
+            compare("handler", new HandlerRing(), players, true);
+            compare("platform",
+                    new ChannelRing(new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                return new Thread(r);
+                            }
+                        }),
+                    players,
+                    true);
+            if (VirtualThreads.isSupported())
+                compare("virtual",
+                        new ChannelRing(VirtualThreads.factory("ring-")),
+                        players,
+                        false);
+        }
+        if (!VirtualThreads.isSupported())
+            System.out.println("virtual: skipped, needs Java 21 or later");
+    }
+
+    /**
+     * Measure one engine with a ring of @a players players.
+     */
+    private static void compare(String engine,
+                                Ring ring,
+                                int players,
+                                boolean platformThreads)
+        throws InterruptedException {
+        if (platformThreads && players > PLATFORM_LIMIT) {
+            System.out.printf(Locale.US, "%-8s %8d  skipped, over %d platform threads%n",
+                              engine, players, PLATFORM_LIMIT);
+            return;
+        }
+
+        long heapBefore = usedHeap();
+        long rssBefore = residentSetSize();
+
+        long startNanos = System.nanoTime();
+        try {
+            ring.start(players);
+        } catch (OutOfMemoryError e) {
+            ring.stop();
+            System.out.printf(Locale.US, "%-8s %8d  failed to start: %s%n",
+                              engine, players, e.getMessage());
+            return;
+        }
+        long startupNanos = System.nanoTime() - startNanos;
+
+        long heapPerPlayer = (usedHeap() - heapBefore) / players;
+        long rssPerPlayer = rssBefore < 0
+            ? -1
+            : (residentSetSize() - rssBefore) / players;
+
+        // Warm up with one lap, then time the hops.
+        int hops = Math.max(players * LAPS, MIN_HOPS);
+        ring.circulate(players);
+        long circulateNanos = System.nanoTime();
+        ring.circulate(hops);
+        long hopNanos = (System.nanoTime() - circulateNanos) / hops;
+
+        ring.stop();
+
+        System.out.printf(Locale.US, "%-8s %8d  %10.1f  %9.1f  %6d  %13d  %12d%n",
+                          engine,
+                          players,
+                          startupNanos / 1e6,
+                          startupNanos / 1e3 / players,
+                          hopNanos,
+                          heapPerPlayer,
+                          rssPerPlayer);
+    }
+
+    /**
+     * Return the heap in use after a garbage collection.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Return the resident set size of this process in bytes, which
+     * includes the native stacks of platform threads, or -1 if it
+     * can't be read (i.e., not on Linux).
+     */
+    private static long residentSetSize() {
+        try (BufferedReader reader =
+             new BufferedReader(new FileReader("/proc/self/status"))) {
+            for (String line; (line = reader.readLine()) != null; )
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+        } catch (IOException | NumberFormatException e) {
+            // Fall through.
+        }
+        return -1;
+    }
+}
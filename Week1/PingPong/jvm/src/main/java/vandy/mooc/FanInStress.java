@@ -0,0 +1,297 @@
+package vandy.mooc;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class FanInStress
+ *
+ * @brief Fires messages from N producer threads at a single consumer
+ *        player, which a ping-pong game never does, to see how each
+ *        inbox behaves under contention:
+ *
+ *        - handler: the consumer is a HandlerThread and producers
+ *          send Messages to its Handler, all through one
+ *          MessageQueue lock.
+ *        - striped: the consumer is a plain thread draining a
+ *          StripedInbox round-robin, with a lock-free lane per
+ *          producer.
+ *
+ *        Each producer keeps at most WINDOW messages in flight, so
+ *        both inboxes hold the same backlog.  Each message carries
+ *        its send time and the consumer records its latency.  For
+ *        each producer count and inbox it reports the throughput
+ *        and the latency percentiles.  Usage:
+ *
+ *        java vandy.mooc.FanInStress [messages] [producers...]
+ */
+public class FanInStress {
+    /**
+     * Producer counts measured when none are given.
+     */
+    private static final int[] DEFAULT_PRODUCERS = { 1, 2, 4, 8, 16, 64 };
+
+    /**
+     * Messages sent per run, split among the producers, when not
+     * given.
+     */
+    private static final int DEFAULT_MESSAGES = 1000000;
+
+    /**
+     * Messages each producer may have in flight, which is also the
+     * capacity of each StripedInbox lane.
+     */
+    private static final int WINDOW = 256;
+
+    /**
+     * Send times are carried in the low 31 bits of System.nanoTime(),
+     * which keeps them non-negative (so never StripedInbox.EMPTY)
+     * and is exact for latencies up to about 2 s.
+     */
+    private static final int STAMP_MASK = 0x7fffffff;
+
+    /**
+     * An inbox under test.
+     */
+    enum Inbox { HANDLER, STRIPED }
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MESSAGES;
+        int[] producerCounts = DEFAULT_PRODUCERS;
+        if (args.length > 1) {
+            producerCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                producerCounts[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        // Warm up, unreported.
+        for (Inbox inbox : Inbox.values())
+            run(inbox, producerCounts[0], messages, false);
+
+        System.out.println("producers  inbox    msgs/s    p50 us  p99 us  p99.9 us  max us");
+        for (int producers : producerCounts)
+            for (Inbox inbox : Inbox.values())
+                run(inbox, producers, messages, true);
+    }
+
+    /**
+     * Return a send time stamp.
+     */
+    private static int stamp() {
+        return (int) (System.nanoTime() & STAMP_MASK);
+    }
+
+    /**
+     * Return the latency of a message stamped with @a stamp.
+     */
+    private static long latencyOf(int stamp) {
+        return (stamp() - stamp) & STAMP_MASK;
+    }
+
+    /**
+     * Send @a messages messages from @a producers producers through
+     * @a inbox, and print the results if @a report is set.
+     */
+    private static void run(Inbox inbox, int producers, int messages, boolean report)
+        throws InterruptedException {
+        int perProducer = Math.max(1, messages / producers);
+        int total = perProducer * producers;
+        LatencyHistogram histogram = new LatencyHistogram();
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        Thread consumer;
+        Thread[] threads;
+        if (inbox == Inbox.HANDLER) {
+            HandlerConsumer handlerConsumer =
+                new HandlerConsumer(producers, total, histogram, done);
+            handlerConsumer.start();
+            Handler handler = new Handler(handlerConsumer.getLooper(), handlerConsumer);
+            consumer = handlerConsumer;
+            threads = new Thread[producers];
+            for (int i = 0; i < producers; i++)
+                threads[i] = new HandlerProducer(i, perProducer, handler,
+                                                 handlerConsumer.mConsumed, go);
+        } else {
+            StripedInbox stripedInbox = new StripedInbox(producers, WINDOW);
+            consumer = new StripedConsumer(stripedInbox, total, histogram, done);
+            consumer.start();
+            threads = new Thread[producers];
+            for (int i = 0; i < producers; i++)
+                threads[i] = new StripedProducer(i, perProducer, stripedInbox, go);
+        }
+        for (Thread thread : threads)
+            thread.start();
+
+        long startNanos = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        for (Thread thread : threads)
+            thread.join();
+        if (consumer instanceof HandlerThread)
+            ((HandlerThread) consumer).quit();
+        consumer.join();
+        if (!report)
+            return;
+
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        histogram.addTo(counts);
+        long max = histogram.getMax();
+        System.out.printf(Locale.US, "%9d  %-7s  %9.0f  %7.1f  %6.1f  %8.1f  %6.1f%n",
+                          producers,
+                          inbox.name().toLowerCase(Locale.US),
+                          total * 1e9 / elapsedNanos,
+                          LatencyHistogram.valueAtPercentile(counts, 50, max) / 1e3,
+                          LatencyHistogram.valueAtPercentile(counts, 99, max) / 1e3,
+                          LatencyHistogram.valueAtPercentile(counts, 99.9, max) / 1e3,
+                          max / 1e3);
+    }
+
+    /**
+     * The consumer of the handler inbox.  A Message carries its send
+     * time in arg1 and its producer in arg2.
+     */
+    static class HandlerConsumer extends HandlerThread implements Handler.Callback {
+        /**
+         * Messages consumed from each producer, which bounds what
+         * the producer may still send.
+         */
+        final AtomicLongArray mConsumed;
+
+        private final int mTotal;
+        private final LatencyHistogram mHistogram;
+        private final CountDownLatch mDone;
+        private int mCount;
+
+        HandlerConsumer(int producers,
+                        int total,
+                        LatencyHistogram histogram,
+                        CountDownLatch done) {
+            super("fan-in-consumer");
+            mConsumed = new AtomicLongArray(producers);
+            mTotal = total;
+            mHistogram = histogram;
+            mDone = done;
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            mHistogram.record(latencyOf(msg.arg1));
+            mConsumed.lazySet(msg.arg2, mConsumed.get(msg.arg2) + 1);
+            if (++mCount == mTotal)
+                mDone.countDown();
+            return true;
+        }
+    }
+
+    /**
+     * A producer for the handler inbox.
+     */
+    static class HandlerProducer extends Thread {
+        private final int mIndex;
+        private final int mMessages;
+        private final Handler mHandler;
+        private final AtomicLongArray mConsumed;
+        private final CountDownLatch mGo;
+
+        HandlerProducer(int index,
+                        int messages,
+                        Handler handler,
+                        AtomicLongArray consumed,
+                        CountDownLatch go) {
+            super("fan-in-producer-" + index);
+            mIndex = index;
+            mMessages = messages;
+            mHandler = handler;
+            mConsumed = consumed;
+            mGo = go;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mGo.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int sent = 0; sent < mMessages; sent++) {
+                while (sent - mConsumed.get(mIndex) >= WINDOW)
+                    Thread.yield();
+                mHandler.sendMessage(mHandler.obtainMessage(0, stamp(), mIndex));
+            }
+        }
+    }
+
+    /**
+     * The consumer of the striped inbox.
+     */
+    static class StripedConsumer extends Thread {
+        private final StripedInbox mInbox;
+        private final int mTotal;
+        private final LatencyHistogram mHistogram;
+        private final CountDownLatch mDone;
+
+        StripedConsumer(StripedInbox inbox,
+                        int total,
+                        LatencyHistogram histogram,
+                        CountDownLatch done) {
+            super("fan-in-consumer");
+            mInbox = inbox;
+            mTotal = total;
+            mHistogram = histogram;
+            mDone = done;
+        }
+
+        @Override
+        public void run() {
+            for (int count = 0; count < mTotal; count++) {
+                int stamp = mInbox.take();
+                if (stamp == StripedInbox.EMPTY)
+                    return;
+                mHistogram.record(latencyOf(stamp));
+            }
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * A producer for the striped inbox, whose full lane is its
+     * window.
+     */
+    static class StripedProducer extends Thread {
+        private final int mLane;
+        private final int mMessages;
+        private final StripedInbox mInbox;
+        private final CountDownLatch mGo;
+
+        StripedProducer(int lane,
+                        int messages,
+                        StripedInbox inbox,
+                        CountDownLatch go) {
+            super("fan-in-producer-" + lane);
+            mLane = lane;
+            mMessages = messages;
+            mInbox = inbox;
+            mGo = go;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mGo.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int sent = 0; sent < mMessages; sent++)
+                while (!mInbox.offer(mLane, stamp()))
+                    Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package vandy.mooc;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @class HeadlessPingPong
+ *
+ * @brief Runs PlayPingPong on a plain JVM, without an Android device,
+ *        so the game logic can be driven at high iteration counts
+ *        and profiled with ordinary JVM tools.  It's compiled
+ *        together with the JVM stand-ins for android.os and
+ *        android.util in this module and the app sources, minus
+ *        the ones that need the Android UI (MainActivity,
+ *        AndroidOutputStrategy, FrameOutputScheduler and
+ *        LogLineAdapter).  Usage:
+ *
+ *        java vandy.mooc.HeadlessPingPong [iterations] [transport]
+ *             [output] [games] [cancelAfterMs]
+ *
+ *        where transport is one of handler (the default), pooled,
+ *        sharded, park, yield, spin or virtual (Java 21 or later), and
+ *        output is one of console, noop or counting (the default).
+ *        With cancelAfterMs, each game is cancelled that long after
+ *        it starts and the time until its players are idle is
+ *        reported.
+ */
+public class HeadlessPingPong {
+    /**
+     * Strings printed by a game besides the volleys: "Ready...Set...Go!"
+     * and "Done!".
+     */
+    private static final int EXTRA_PRINTS = 2;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        String transport = args.length > 1 ? args[1] : "handler";
+        String output = args.length > 2 ? args[2] : "counting";
+        int games = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        long cancelAfterMs = args.length > 4 ? Long.parseLong(args[4]) : -1;
+
+        OutputStrategy outputStrategy = makeOutputStrategy(output);
+
+        // The same transport plays every game, so a pooled one
+        // reuses its threads.
+        HopLatencyStats hopStats = new HopLatencyStats(2);
+        VolleyTransport volleyTransport = makeTransport(transport, hopStats);
+
+        // Cancels games, standing in for the RESET button.
+        ScheduledExecutorService canceller =
+            Executors.newSingleThreadScheduledExecutor();
+
+        for (int game = 1; game <= games; game++) {
+            final PlayPingPong playPingPong = new PlayPingPong(iterations,
+                                                               outputStrategy,
+                                                               volleyTransport);
+            if (cancelAfterMs >= 0)
+                canceller.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            playPingPong.cancel();
+                        }
+                    }, cancelAfterMs, TimeUnit.MILLISECONDS);
+
+            long startNanos = System.nanoTime();
+            playPingPong.run();
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            if (playPingPong.getResetToIdleNanos() >= 0) {
+                System.out.printf(Locale.US,
+                                  "game %d: cancelled over %s after %.1f ms, idle %.1f us after cancel%n",
+                                  game,
+                                  transport,
+                                  elapsedNanos / 1e6,
+                                  playPingPong.getResetToIdleNanos() / 1e3);
+                if (outputStrategy instanceof CountingOutputStrategy)
+                    ((CountingOutputStrategy) outputStrategy).reset();
+                hopStats.sample();
+                continue;
+            }
+
+            String result = String.format(Locale.US,
+                                          "game %d: %d iterations over %s in %.1f ms, %.0f volleys/s, first volley after %.1f us",
+                                          game,
+                                          iterations,
+                                          transport,
+                                          elapsedNanos / 1e6,
+                                          2.0 * iterations * 1e9 / elapsedNanos,
+                                          playPingPong.getTimeToFirstVolleyNanos() / 1e3);
+            if (outputStrategy instanceof CountingOutputStrategy) {
+                CountingOutputStrategy counts =
+                    (CountingOutputStrategy) outputStrategy;
+                long expected = 2L * iterations + EXTRA_PRINTS;
+                result += " (" + counts
+                    + (counts.getPrintCount() == expected
+                       ? ")"
+                       : ", expected " + expected + " prints)");
+                counts.reset();
+            }
+            System.out.println(result);
+
+            // Hop latencies are only recorded by the Handler
+            // transports.
+            String stats = hopStats.sample();
+            if (stats != null)
+                System.out.println("  " + stats.replace("\n", ", "));
+        }
+
+        canceller.shutdownNow();
+        if (volleyTransport instanceof PooledHandlerTransport)
+            ((PooledHandlerTransport) volleyTransport).release();
+        if (volleyTransport instanceof ShardedHandlerTransport)
+            ((ShardedHandlerTransport) volleyTransport).release();
+    }
+
+    /**
+     * Factory method that returns the OutputStrategy with the given
+     * name.
+     */
+    private static OutputStrategy makeOutputStrategy(String name) {
+        switch (name) {
+        case "console":
+            return new ConsoleOutputStrategy();
+        case "noop":
+            return new NoOpOutputStrategy();
+        case "counting":
+            return new CountingOutputStrategy();
+        default:
+            throw new IllegalArgumentException("unknown output " + name);
+        }
+    }
+
+    /**
+     * Factory method that returns the VolleyTransport with the given
+     * name, recording hop latencies in @a hopStats if it can.
+     */
+    private static VolleyTransport makeTransport(String name,
+                                                 HopLatencyStats hopStats) {
+        switch (name) {
+        case "handler":
+            return new HandlerTransport(hopStats);
+        case "pooled":
+            return new PooledHandlerTransport(hopStats);
+        case "sharded":
+            return new ShardedHandlerTransport();
+        case "park":
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.PARK);
+        case "yield":
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.YIELD);
+        case "spin":
+            return new SpscRingTransport(SpscRingTransport.WaitStrategy.SPIN_THEN_PARK);
+        case "virtual":
+            return new VirtualThreadTransport();
+        default:
+            throw new IllegalArgumentException("unknown transport " + name);
+        }
+    }
+}
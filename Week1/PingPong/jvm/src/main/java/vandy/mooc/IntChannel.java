@@ -0,0 +1,91 @@
+package vandy.mooc;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded channel of ints between one sending thread and one
+ * receiving thread.  It's an SpscIntRing plus park/unpark, so a
+ * receiver that's a virtual thread blocks by unmounting from its
+ * carrier rather than by holding a platform thread in a looper.
+ */
+public class IntChannel {
+    /**
+     * Returned by receive() once the channel is closed and empty.
+     */
+    public static final int CLOSED = SpscIntRing.EMPTY;
+
+    /**
+     * The values in flight.
+     */
+    private final SpscIntRing mRing;
+
+    /**
+     * The receiver while it's (about to be) parked, else null.
+     */
+    private volatile Thread mWaiter;
+
+    /**
+     * Set by close().
+     */
+    private volatile boolean mClosed;
+
+    /**
+     * Constructor holds up to @a capacity values (a power of 2).
+     */
+    public IntChannel(int capacity) {
+        mRing = new SpscIntRing(capacity);
+    }
+
+    /**
+     * Send @a value, which can't be CLOSED, waiting for room if the
+     * channel is full.  Returns false if the channel is closed.
+     */
+    public boolean send(int value) {
+        while (!mRing.offer(value)) {
+            if (mClosed)
+                return false;
+            Thread.yield();
+        }
+        Thread waiter = mWaiter;
+        if (waiter != null)
+            LockSupport.unpark(waiter);
+        return !mClosed;
+    }
+
+    /**
+     * Return the next value, blocking until there is one.  Returns
+     * CLOSED once the channel is closed and empty.
+     *
+     * @throws InterruptedException if the receiver is interrupted
+     *         while waiting.
+     */
+    public int receive() throws InterruptedException {
+        for (;;) {
+            int value = mRing.poll();
+            if (value != SpscIntRing.EMPTY)
+                return value;
+            if (mClosed)
+                return CLOSED;
+
+            // Announcing the wait and then re-checking the ring, both
+            // with volatile accesses, ensures a value sent
+            // concurrently is never missed.
+            mWaiter = Thread.currentThread();
+            if (mRing.isEmpty() && !mClosed)
+                LockSupport.park(this);
+            mWaiter = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Close the channel.  Values already sent can still be received.
+     */
+    public void close() {
+        mClosed = true;
+        Thread waiter = mWaiter;
+        if (waiter != null)
+            LockSupport.unpark(waiter);
+    }
+}
@@ -0,0 +1,221 @@
+package vandy.mooc;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import android.util.Log;
+
+/**
+ * @class MultiplexedPingPong
+ *
+ * @brief Plays many independent ping-pong games at once, each with
+ *        its own iteration count and OutputStrategy, multiplexed by a
+ *        ShardedHandlerTransport onto one looper thread per core.
+ *        For each number of games it lets them all play for a fixed
+ *        window, then reports the aggregate volleys/sec and how
+ *        fairly the shards shared out the volleys: the slowest and
+ *        fastest game relative to the mean, and Jain's fairness index
+ *        (1 when every game got the same number of volleys, 1/games
+ *        when one game got them all).  It then plays each number of
+ *        games to completion and checks that every game played
+ *        exactly its own iteration count.  Usage:
+ *
+ *        java vandy.mooc.MultiplexedPingPong [windowMs] [games...]
+ */
+public class MultiplexedPingPong {
+    /**
+     * Numbers of games played when none are given.
+     */
+    private static final int[] DEFAULT_GAMES = { 1, 10, 100, 1000, 10000 };
+
+    /**
+     * How long each set of games plays when not given.
+     */
+    private static final long DEFAULT_WINDOW_MS = 1000;
+
+    /**
+     * Iterations of the first game in the window; each later game
+     * plays one fewer.  Enough that no game finishes within the
+     * window, so every game competes for the whole of it.
+     */
+    private static final int WINDOW_ITERATIONS = 1000000000;
+
+    /**
+     * Most iterations of a game played to completion.  Each game's
+     * count is drawn from [1, MAX_COMPLETED_ITERATIONS] by a Random
+     * seeded with SEED, so runs are repeatable.
+     */
+    private static final int MAX_COMPLETED_ITERATIONS = 1000;
+    private static final long SEED = 42;
+
+    /**
+     * Strings printed by a game besides the volleys: "Ready...Set...Go!"
+     * and "Done!".
+     */
+    private static final int EXTRA_PRINTS = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        long windowMs = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_WINDOW_MS;
+        int[] gameCounts = DEFAULT_GAMES;
+        if (args.length > 1) {
+            gameCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                gameCounts[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        // Don't log the cancellation of every game.
+        AsyncLog.setMinLevel(Log.WARN);
+
+        ShardedHandlerTransport transport = new ShardedHandlerTransport();
+
+        // Warm up, unreported.
+        play(transport, gameCounts[0], windowMs);
+
+        System.out.println("  games  shards  volleys/s  per game/s  min/mean  max/mean  Jain");
+        for (int games : gameCounts) {
+            long[] volleys = play(transport, games, windowMs);
+            report(games, transport.getShardCount(), volleys, windowMs);
+        }
+
+        System.out.println();
+        System.out.println("  games  iterations       ms  mismatched");
+        int mismatched = 0;
+        for (int games : gameCounts)
+            mismatched += complete(transport, games);
+
+        transport.release();
+        if (mismatched > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Play @a games games on @a transport for @a windowMs and return
+     * the number of volleys each one played in the window.
+     */
+    private static long[] play(ShardedHandlerTransport transport,
+                               int games,
+                               long windowMs) throws InterruptedException {
+        CountingOutputStrategy[] outputs = new CountingOutputStrategy[games];
+        PlayPingPong[] playPingPongs = new PlayPingPong[games];
+        final CountDownLatch allOver = new CountDownLatch(games);
+        Runnable onDone = new Runnable() {
+                @Override
+                public void run() {
+                    allOver.countDown();
+                }
+            };
+
+        for (int i = 0; i < games; i++) {
+            outputs[i] = new CountingOutputStrategy();
+            playPingPongs[i] = new PlayPingPong(WINDOW_ITERATIONS - i,
+                                                outputs[i],
+                                                transport);
+        }
+
+        // Start every game, then count the volleys each has played
+        // by the end of the window.
+        long[] before = new long[games];
+        for (int i = 0; i < games; i++)
+            playPingPongs[i].start(onDone);
+        for (int i = 0; i < games; i++)
+            before[i] = outputs[i].getPrintCount();
+        Thread.sleep(windowMs);
+        long[] volleys = new long[games];
+        for (int i = 0; i < games; i++)
+            volleys[i] = outputs[i].getPrintCount() - before[i];
+
+        for (PlayPingPong playPingPong : playPingPongs)
+            playPingPong.cancel();
+        allOver.await();
+        return volleys;
+    }
+
+    /**
+     * Play @a games games on @a transport to completion, each with
+     * its own iteration count, report them and return the number of
+     * games that didn't print exactly their own count of volleys.
+     */
+    private static int complete(ShardedHandlerTransport transport,
+                                int games) throws InterruptedException {
+        Random random = new Random(SEED);
+        int[] iterations = new int[games];
+        CountingOutputStrategy[] outputs = new CountingOutputStrategy[games];
+        PlayPingPong[] playPingPongs = new PlayPingPong[games];
+        final CountDownLatch allOver = new CountDownLatch(games);
+        Runnable onDone = new Runnable() {
+                @Override
+                public void run() {
+                    allOver.countDown();
+                }
+            };
+
+        long total = 0;
+        for (int i = 0; i < games; i++) {
+            iterations[i] = 1 + random.nextInt(MAX_COMPLETED_ITERATIONS);
+            total += iterations[i];
+            outputs[i] = new CountingOutputStrategy();
+            playPingPongs[i] = new PlayPingPong(iterations[i],
+                                                outputs[i],
+                                                transport);
+        }
+
+        long startNanos = System.nanoTime();
+        for (PlayPingPong playPingPong : playPingPongs)
+            playPingPong.start(onDone);
+        allOver.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        int mismatched = 0;
+        for (int i = 0; i < games; i++) {
+            long expected = 2L * iterations[i] + EXTRA_PRINTS;
+            if (outputs[i].getPrintCount() != expected
+                || outputs[i].getErrorCount() != 0) {
+                if (mismatched++ == 0)
+                    System.err.println("game " + i + " of " + games
+                                       + ": " + outputs[i]
+                                       + ", expected " + expected + " prints");
+            }
+        }
+
+        System.out.printf(Locale.US, "%7d  %10d  %7.1f  %10d%n",
+                          games,
+                          total,
+                          elapsedNanos / 1e6,
+                          mismatched);
+        return mismatched;
+    }
+
+    /**
+     * Print the aggregate throughput and fairness of one set of
+     * games.
+     */
+    private static void report(int games,
+                               int shards,
+                               long[] volleys,
+                               long windowMs) {
+        long total = 0;
+        double sumOfSquares = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (long v : volleys) {
+            total += v;
+            sumOfSquares += (double) v * v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        double mean = (double) total / games;
+        double jain = sumOfSquares == 0
+            ? 1
+            : (double) total * total / (games * sumOfSquares);
+
+        System.out.printf(Locale.US, "%7d  %6d  %9.0f  %10.1f  %8.2f  %8.2f  %.3f%n",
+                          games,
+                          shards,
+                          total * 1000.0 / windowMs,
+                          mean * 1000.0 / windowMs,
+                          mean == 0 ? 0 : min / mean,
+                          mean == 0 ? 0 : max / mean,
+                          jain);
+    }
+}
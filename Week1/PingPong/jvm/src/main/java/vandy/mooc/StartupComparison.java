@@ -0,0 +1,181 @@
+package vandy.mooc;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+/**
+ * @class StartupComparison
+ *
+ * @brief Measures how long a game takes to start, from starting its
+ *        player HandlerThreads to the first volley reaching the
+ *        serving player, as the number of players grows, with two
+ *        start-up protocols:
+ *
+ *        - barrier: every player publishes its Handler and waits on
+ *          a CyclicBarrier, as HandlerTransport used to, and the
+ *          serving player serves once the barrier trips.
+ *        - gate: every player publishes its Handler and arrives at a
+ *          StartupGate without waiting, and the last to arrive
+ *          serves, as HandlerTransport and TokenRing now do.
+ *
+ *        It also reports PlayPingPong's own time from run() to the
+ *        first volley over HandlerTransport.  Usage:
+ *
+ *        java vandy.mooc.StartupComparison [players...]
+ */
+public class StartupComparison {
+    /**
+     * Player counts measured when none are given.
+     */
+    private static final int[] DEFAULT_PLAYERS = { 2, 4, 16, 64, 256, 1024 };
+
+    /**
+     * Starts measured per protocol and player count; the median is
+     * reported.
+     */
+    private static final int TRIALS = 9;
+
+    /**
+     * A start-up protocol.
+     */
+    enum Protocol { BARRIER, GATE }
+
+    /**
+     * A player that publishes its Handler with the given protocol.
+     */
+    static class StartupPlayer extends HandlerThread implements Handler.Callback {
+        private final int mIndex;
+        private final StartupPlayer[] mPlayers;
+        private final CyclicBarrier mBarrier;
+        private final StartupGate mGate;
+        private final CountDownLatch mFirstVolley;
+        private Handler mHandler;
+        private volatile long mFirstVolleyNanos;
+
+        StartupPlayer(int index,
+                      StartupPlayer[] players,
+                      CyclicBarrier barrier,
+                      StartupGate gate,
+                      CountDownLatch firstVolley) {
+            super("startup-" + index);
+            mIndex = index;
+            mPlayers = players;
+            mBarrier = barrier;
+            mGate = gate;
+            mFirstVolley = firstVolley;
+        }
+
+        @Override
+        protected void onLooperPrepared() {
+            mHandler = new Handler(getLooper(), this);
+            if (mGate != null) {
+                if (mGate.arrive())
+                    mPlayers[0].mHandler.sendEmptyMessage(0);
+                return;
+            }
+
+            try {
+                mBarrier.await();
+            } catch (InterruptedException | BrokenBarrierException e) {
+                return;
+            }
+            if (mIndex == 0)
+                mHandler.sendEmptyMessage(0);
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            mFirstVolleyNanos = System.nanoTime();
+            mFirstVolley.countDown();
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] sizes = DEFAULT_PLAYERS;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        // Warm up, unreported.
+        for (int i = 0; i < TRIALS; i++) {
+            start(Protocol.BARRIER, sizes[0]);
+            start(Protocol.GATE, sizes[0]);
+        }
+
+        System.out.println("players  barrier us  gate us  barrier us/player  gate us/player");
+        for (int players : sizes) {
+            long barrier = median(Protocol.BARRIER, players);
+            long gate = median(Protocol.GATE, players);
+            System.out.printf(Locale.US, "%7d  %10.1f  %7.1f  %17.2f  %14.2f%n",
+                              players,
+                              barrier / 1e3,
+                              gate / 1e3,
+                              barrier / 1e3 / players,
+                              gate / 1e3 / players);
+        }
+
+        // PlayPingPong's own view, over HandlerTransport.
+        long[] samples = new long[TRIALS];
+        for (int i = 0; i < TRIALS; i++) {
+            PlayPingPong playPingPong =
+                new PlayPingPong(1, new NoOpOutputStrategy(), new HandlerTransport());
+            playPingPong.run();
+            samples[i] = playPingPong.getTimeToFirstVolleyNanos();
+        }
+        Arrays.sort(samples);
+        System.out.printf(Locale.US, "PlayPingPong.run() to first volley over %s: %.1f us%n",
+                          new HandlerTransport(),
+                          samples[TRIALS / 2] / 1e3);
+    }
+
+    /**
+     * Return the median time to start @a players players with
+     * @a protocol.
+     */
+    private static long median(Protocol protocol, int players)
+        throws InterruptedException {
+        long[] samples = new long[TRIALS];
+        for (int i = 0; i < TRIALS; i++)
+            samples[i] = start(protocol, players);
+        Arrays.sort(samples);
+        return samples[TRIALS / 2];
+    }
+
+    /**
+     * Start @a players players with @a protocol and return the time
+     * until the first volley reached player 0.
+     */
+    private static long start(Protocol protocol, int players)
+        throws InterruptedException {
+        StartupPlayer[] threads = new StartupPlayer[players];
+        CyclicBarrier barrier =
+            protocol == Protocol.BARRIER ? new CyclicBarrier(players) : null;
+        StartupGate gate =
+            protocol == Protocol.GATE ? new StartupGate(players) : null;
+        CountDownLatch firstVolley = new CountDownLatch(1);
+        for (int i = 0; i < players; i++)
+            threads[i] = new StartupPlayer(i, threads, barrier, gate, firstVolley);
+
+        long startNanos = System.nanoTime();
+        for (StartupPlayer thread : threads)
+            thread.start();
+        firstVolley.await();
+        long elapsedNanos = threads[0].mFirstVolleyNanos - startNanos;
+
+        for (StartupPlayer thread : threads)
+            thread.quit();
+        for (StartupPlayer thread : threads)
+            thread.join();
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,156 @@
+package vandy.mooc;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @class VirtualThreadTransport
+ *
+ * @brief A VolleyTransport for the JVM that runs each player in a
+ *        virtual thread and delivers volleys over IntChannels.  A
+ *        waiting player parks and unmounts from its carrier thread,
+ *        so, unlike a HandlerThread blocked in its Looper, it doesn't
+ *        tie up a platform thread.  Needs Java 21 or later.
+ */
+public class VirtualThreadTransport implements VolleyTransport {
+    /**
+     * Capacity of each player's inbox.  A ping-pong game only ever
+     * has one volley in flight.
+     */
+    private static final int INBOX_CAPACITY = 4;
+
+    /**
+     * Creates the players' threads.
+     */
+    private final ThreadFactory mThreadFactory;
+
+    /**
+     * Constructor creates the virtual thread factory.
+     *
+     * @throws UnsupportedOperationException if this JVM has no
+     *         virtual threads.
+     */
+    public VirtualThreadTransport() {
+        this(VirtualThreads.factory("player-"));
+    }
+
+    /**
+     * Constructor runs the players in threads from @a threadFactory,
+     * e.g., platform threads to compare against virtual ones.
+     */
+    VirtualThreadTransport(ThreadFactory threadFactory) {
+        mThreadFactory = threadFactory;
+    }
+
+    /**
+     * Runs one player, delivering the volleys from its inbox.
+     */
+    static class ChannelPlayer implements Runnable, Endpoint {
+        /**
+         * The game logic of this player.
+         */
+        private final Player mPlayer;
+
+        /**
+         * Volleys sent to this player by the other player.
+         */
+        final IntChannel mInbox = new IntChannel(INBOX_CAPACITY);
+
+        /**
+         * The other player.
+         */
+        ChannelPlayer mPeer;
+
+        /**
+         * Cancels the game this player is in.
+         */
+        private final CancellationToken mCancellation;
+
+        /**
+         * Constructor initializes the player and cancellation token.
+         */
+        ChannelPlayer(Player player, CancellationToken cancellation) {
+            mPlayer = player;
+            mCancellation = cancellation;
+        }
+
+        /**
+         * Deliver volleys until the player stops or the game is
+         * cancelled, in which case volleys left in the inbox are
+         * discarded.
+         */
+        @Override
+        public void run() {
+            try {
+                for (int volley;
+                     (volley = mInbox.receive()) != IntChannel.CLOSED
+                         && !mCancellation.isCancelled(); )
+                    mPlayer.onVolley(this, volley);
+            } catch (InterruptedException e) {
+                // Stop playing.
+            }
+        }
+
+        @Override
+        public boolean send(int volley) {
+            return mPeer.mInbox.send(volley);
+        }
+
+        /**
+         * Stop once the current volley has been handled.
+         */
+        @Override
+        public void stopPlaying() {
+            mInbox.close();
+        }
+    }
+
+    /**
+     * Run each player in its own virtual thread until both have
+     * stopped or @a cancellation is cancelled.
+     */
+    @Override
+    public void play(Player first,
+                     Player second,
+                     int firstVolley,
+                     CancellationToken cancellation) throws InterruptedException {
+        final ChannelPlayer firstPlayer = new ChannelPlayer(first, cancellation);
+        final ChannelPlayer secondPlayer = new ChannelPlayer(second, cancellation);
+        firstPlayer.mPeer = secondPlayer;
+        secondPlayer.mPeer = firstPlayer;
+
+        // The players are connected before they start, so the first
+        // player can serve without any handshake.
+        firstPlayer.mInbox.send(firstVolley);
+        Thread firstThread = mThreadFactory.newThread(firstPlayer);
+        Thread secondThread = mThreadFactory.newThread(secondPlayer);
+        firstThread.start();
+        secondThread.start();
+
+        // On cancellation close both inboxes, which wakes a waiting
+        // player and makes it stop.
+        Runnable closer = new Runnable() {
+                @Override
+                public void run() {
+                    firstPlayer.stopPlaying();
+                    secondPlayer.stopPlaying();
+                }
+            };
+        cancellation.register(closer);
+
+        try {
+            firstThread.join();
+            secondThread.join();
+        } catch (InterruptedException e) {
+            firstThread.interrupt();
+            secondThread.interrupt();
+            throw e;
+        } finally {
+            cancellation.unregister(closer);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Virtual threads";
+    }
+}
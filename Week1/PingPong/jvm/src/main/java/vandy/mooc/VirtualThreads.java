@@ -0,0 +1,75 @@
+package vandy.mooc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads (Java 21) without requiring this module to
+ * be compiled against Java 21: Thread.ofVirtual() is looked up
+ * reflectively, so on older JVMs isSupported() simply returns false.
+ */
+public final class VirtualThreads {
+    /**
+     * Thread.ofVirtual(), or null if this JVM has no virtual threads.
+     */
+    private static final Method sOfVirtual;
+
+    /**
+     * Thread.Builder.name(String, long), which names threads
+     * prefix0, prefix1, ...
+     */
+    private static final Method sName;
+
+    /**
+     * Thread.Builder.factory().
+     */
+    private static final Method sFactory;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        sOfVirtual = ofVirtual;
+        sName = name;
+        sFactory = factory;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Return true if this JVM supports virtual threads.
+     */
+    public static boolean isSupported() {
+        return sOfVirtual != null;
+    }
+
+    /**
+     * Return a ThreadFactory that creates virtual threads named @a
+     * prefix followed by a counter.
+     *
+     * @throws UnsupportedOperationException if this JVM has no
+     *         virtual threads.
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isSupported())
+            throw new UnsupportedOperationException
+                ("virtual threads need Java 21 or later, this is Java "
+                 + System.getProperty("java.specification.version"));
+        try {
+            Object builder = sOfVirtual.invoke(null);
+            builder = sName.invoke(builder, prefix, 0L);
+            return (ThreadFactory) sFactory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("can't create virtual threads", e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package vandy.mooc;
+
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * @class VirtualTimePingPong
+ *
+ * @brief Plays PlayPingPong in virtual time: a DeterministicTransport
+ *        delivers the volleys and a PacedOutputStrategy paces the
+ *        output as the app does, both on one VirtualClock, so a game
+ *        the app would take hours to show completes in milliseconds.
+ *        Each line of the transcript is stamped with the virtual time
+ *        it would appear on the display.  The game is played twice
+ *        to check that the transcript is reproducible, and its CRC
+ *        is reported so it can be compared across changes.  Usage:
+ *
+ *        java vandy.mooc.VirtualTimePingPong [iterations] [pacingMs]
+ *             [output] [hopUs] [capacity] [batch]
+ *
+ *        where output is transcript (the default) or summary.
+ */
+public class VirtualTimePingPong {
+    /**
+     * Collects the lines released by a PacedOutputStrategy, stamped
+     * with the virtual time of their release.
+     */
+    static class Transcript implements OutputStrategy {
+        private final VirtualClock mClock;
+        private final StringBuilder mText = new StringBuilder();
+        private int mErrors;
+
+        Transcript(VirtualClock clock) {
+            mClock = clock;
+        }
+
+        @Override
+        public void print(String outputString) {
+            mText.append(String.format(Locale.US, "%12.3f ms  ",
+                                       mClock.nanoTime() / 1e6))
+                .append(outputString);
+        }
+
+        @Override
+        public void printVolley(String player, int iteration) {
+            print(VolleyLines.lineOf(player, iteration));
+        }
+
+        @Override
+        public void errorLog(String javaFile, String errorMessage) {
+            mErrors++;
+            AsyncLog.e(javaFile, errorMessage);
+        }
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        long pacingMs = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        boolean showTranscript = args.length <= 2 || "transcript".equals(args[2]);
+        long hopNanos = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 2000;
+        int capacity = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        int batchSize = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+        String first = null;
+        for (int run = 1; run <= 2; run++) {
+            VirtualClock clock = new VirtualClock();
+            Transcript transcript = new Transcript(clock);
+            PacedOutputStrategy output =
+                new PacedOutputStrategy(transcript, clock, pacingMs, capacity);
+            PlayPingPong playPingPong =
+                new PlayPingPong(iterations,
+                                 output,
+                                 new DeterministicTransport(clock, hopNanos),
+                                 batchSize);
+            playPingPong.setClock(clock);
+
+            long startNanos = System.nanoTime();
+            playPingPong.run();
+            // Release the output still waiting.
+            clock.runUntilIdle();
+            long realNanos = System.nanoTime() - startNanos;
+
+            String text = transcript.mText.toString();
+            if (run == 1) {
+                first = text;
+                if (showTranscript)
+                    System.out.print(text);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(text.getBytes());
+            System.out.printf(Locale.US,
+                              "run %d: %d iterations, %.3f s virtual in %.1f ms real, %d tasks, %d errors, transcript crc %08x%s%n",
+                              run,
+                              iterations,
+                              clock.nanoTime() / 1e9,
+                              realNanos / 1e6,
+                              clock.getTasksRun(),
+                              transcript.mErrors,
+                              crc.getValue(),
+                              run == 1
+                              ? ""
+                              : text.equals(first) ? ", same as run 1" : ", DIFFERS from run 1");
+        }
+    }
+}